@@ -3,10 +3,10 @@ package app;
 import datastructures.MemeBotMsg3000;
 import datastructures.MemeDBMsg3000;
 import datastructures.MemeLogger3000;
+import datastructures.MemeTagParser3000;
+import datastructures.MemeTagQuery3000;
 
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 
 import static datastructures.MemeDBMsg3000.MsgDBType.*;
@@ -14,10 +14,11 @@ import static datastructures.MemeDBMsg3000.MsgDBType.*;
 public class MemeBotReader3000 extends Thread{
     private BlockingQueue<MemeBotMsg3000> botOutputQ;
     private BlockingQueue<MemeDBMsg3000> dbInputQ;
-    private BlockingQueue<Integer> approveQ;
+    // ID and shard of each meme waiting for curation
+    private BlockingQueue<MemeDBMsg3000> approveQ;
     private MemeLogger3000 logger;
 
-    MemeBotReader3000(MemeLogger3000 logger, BlockingQueue<MemeBotMsg3000> botOutputQ, BlockingQueue<MemeDBMsg3000> dbInputQ, BlockingQueue<Integer> approveQ){
+    MemeBotReader3000(MemeLogger3000 logger, BlockingQueue<MemeBotMsg3000> botOutputQ, BlockingQueue<MemeDBMsg3000> dbInputQ, BlockingQueue<MemeDBMsg3000> approveQ){
         this.logger = logger;
         this.botOutputQ = botOutputQ;
         this.dbInputQ = dbInputQ;
@@ -27,41 +28,39 @@ public class MemeBotReader3000 extends Thread{
     public void run(){
         MemeDBMsg3000 newMsg = new MemeDBMsg3000();
         MemeBotMsg3000 msg;
-        LinkedList<String> tags;
+        List<String> tags;
+        MemeDBMsg3000 pending;
         while(true){
             try {
                 msg = botOutputQ.take();
                 switch(msg.getCommand()){
                     case "deny":
                         logger.println("Meme denied from discord bot by " + msg.getUser());
-                        newMsg = new MemeDBMsg3000().type(REJECT_MEME).username(msg.getUser()).id(approveQ.peek());
+                        pending = approveQ.peek();
+                        newMsg = new MemeDBMsg3000().type(REJECT_MEME).username(msg.getUser());
+                        if(pending != null)
+                            newMsg.id(pending.getId()).shard(pending.getShard());
                         break;
                     case "approve":
                         logger.println("Meme approved from discord bot by " + msg.getUser() + " with tags of " + msg.getTags());
-                        tags = new LinkedList<String>(new HashSet<String>(Arrays.asList(msg.getTags().split("\\s*,\\s*"))));
-                        LinkedList<String> finalTags2 = tags;
-                        tags.forEach(e -> {
-                            finalTags2.set(finalTags2.indexOf(e), e.trim().replace("\"", "").replace(";", "").replace("[", "").replace("]", ""));
-                        });
-                        newMsg = new MemeDBMsg3000().type(PROMOTE_MEME).username(msg.getUser()).id(approveQ.peek()).tags(new LinkedList<String>(tags));
+                        tags = MemeTagParser3000.parse(msg.getTags());
+                        pending = approveQ.peek();
+                        newMsg = new MemeDBMsg3000().type(PROMOTE_MEME).username(msg.getUser()).tags(tags);
+                        if(pending != null)
+                            newMsg.id(pending.getId()).shard(pending.getShard());
                         break;
                     case "fetchMeme":
                         logger.println("Fetching meme for " + msg.getUser());
-                        tags = new LinkedList<String>(new HashSet<String>(Arrays.asList(msg.getBody().split("\\s*,\\s*"))));
-                        LinkedList<String> finalTags1 = tags;
-                        tags.forEach(e -> {
-                            finalTags1.set(finalTags1.indexOf(e), e.trim().replace("\"", "").replace(";", "").replace("[", "").replace("]", ""));
-                        });
-                        newMsg = new MemeDBMsg3000().type(GET_MEME_TAGS).tags(new LinkedList<String>(tags)).username(msg.getUser()).channelID(msg.getChannelID());
+                        // parsed once here, the DB controller only evaluates the tree
+                        MemeTagQuery3000 query = MemeTagQuery3000.parse(msg.getBody());
+                        newMsg = new MemeDBMsg3000().type(GET_MEME_TAGS).tags(query.getTags()).username(msg.getUser()).channelID(msg.getChannelID()).shard(msg.getGuildID());
+                        if(!query.isConjunction())
+                            newMsg.query(query);
                         break;
                     case "submitMeme":
                         logger.println("Meme submitted by " + msg.getUser() + " with a channel ID of " + msg.getChannelID());
-                        tags = new LinkedList<String>(new HashSet<String>(Arrays.asList(msg.getBody().split("\\s*,\\s*"))));
-                        LinkedList<String> finalTags = tags;
-                        tags.forEach(e -> {
-                            finalTags.set(finalTags.indexOf(e), e.trim().replace("\"", "").replace(";", "").replace("[", "").replace("]", ""));
-                        });
-                        newMsg = new MemeDBMsg3000().link(msg.getUrl()).tags(tags).username(msg.getUser()).channelID(msg.getChannelID());
+                        tags = MemeTagParser3000.parse(msg.getBody());
+                        newMsg = new MemeDBMsg3000().link(msg.getUrl()).tags(tags).username(msg.getUser()).channelID(msg.getChannelID()).shard(msg.getGuildID());
                         if(msg.isAdmin()) {
                             newMsg.type(STORE_MEME);
                         }else {
@@ -7,7 +7,7 @@ import org.springframework.context.annotation.PropertySource;
 @Configuration
 //@PropertySource("classpath:MemeBot.properties")
 @PropertySource("classpath:MemeBotTest.properties")
-public class MemeConfigLoader3000 {
+public class MemeConfigLoader3000 implements Cloneable {
 
 	@Value("${auth.token}")
 	private String botToken;
@@ -27,6 +27,12 @@ public class MemeConfigLoader3000 {
 	@Value("${database}")
 	private String databaseLocation;
 
+	@Value("${storageEngine:sqlite}")
+	private String storageEngine;
+
+	@Value("${logStoreLocation:}")
+	private String logStoreLocation;
+
 	@Value("${memeTableName}")
 	private String memeTableName;
 
@@ -36,6 +42,15 @@ public class MemeConfigLoader3000 {
 	@Value("${tagLkpTableName}")
 	private String tagLkpTableName;
 
+	@Value("${linkLkpTableName:linkLkp}")
+	private String linkLkpTableName;
+
+	@Value("${tagDictTableName:tagDict}")
+	private String tagDictTableName;
+
+	@Value("${seqTableName:idSeq}")
+	private String seqTableName;
+
 	@Value("${memeTableDef}")
 	private String memeTableDef;
 
@@ -48,6 +63,55 @@ public class MemeConfigLoader3000 {
 	@Value("${time}")
 	private String time;
 
+	@Value("${maxMemeAge:}")
+	private String maxMemeAge;
+
+	@Value("${batchTagWrites:true}")
+	private boolean batchTagWrites;
+
+	@Value("${dbReadWorkers:2}")
+	private int dbReadWorkers;
+
+	@Value("${rowCacheSize:1024}")
+	private int rowCacheSize;
+
+	@Value("${groupCommitSize:32}")
+	private int groupCommitSize;
+
+	@Value("${groupCommitMillis:50}")
+	private long groupCommitMillis;
+
+	@Value("${slowCallMillis:250}")
+	private long slowCallMillis;
+
+	@Value("${backupLocation:}")
+	private String backupLocation;
+
+	@Value("${backupIntervalMinutes:0}")
+	private long backupIntervalMinutes;
+
+	@Value("${backupPauseMillis:20}")
+	private long backupPauseMillis;
+
+	@Value("${dbShards:}")
+	private String dbShards;
+
+	@Value("${prefetchTagSets:16}")
+	private int prefetchTagSets;
+
+	@Value("${prefetchDepth:8}")
+	private int prefetchDepth;
+
+	@Value("${prefetchHotAfter:3}")
+	private int prefetchHotAfter;
+
+	// shuffle decks are opt-in, with them on channel fetches never reach the prefetch buffers
+	@Value("${deckChannels:0}")
+	private int deckChannels;
+
+	@Value("${decksPerChannel:8}")
+	private int decksPerChannel;
+
 	public String getBotToken() {
 		return botToken;
 	}
@@ -72,6 +136,14 @@ public class MemeConfigLoader3000 {
 		return databaseLocation;
 	}
 
+	public String getStorageEngine() {
+		return storageEngine;
+	}
+
+	public String getLogStoreLocation() {
+		return logStoreLocation;
+	}
+
 	public String getMemeTableName() {
 		return memeTableName;
 	}
@@ -84,6 +156,18 @@ public class MemeConfigLoader3000 {
 		return tagLkpTableName;
 	}
 
+	public String getLinkLkpTableName() {
+		return linkLkpTableName;
+	}
+
+	public String getTagDictTableName() {
+		return tagDictTableName;
+	}
+
+	public String getSeqTableName() {
+		return seqTableName;
+	}
+
 	public String getMemeTableDef() {
 		return memeTableDef;
 	}
@@ -99,4 +183,104 @@ public class MemeConfigLoader3000 {
 	public String getTime() {
 		return time;
 	}
+
+	public String getMaxMemeAge() {
+		return maxMemeAge;
+	}
+
+	public boolean isBatchTagWrites() {
+		return batchTagWrites;
+	}
+
+	public int getDbReadWorkers() {
+		return dbReadWorkers;
+	}
+
+	public int getRowCacheSize() {
+		return rowCacheSize;
+	}
+
+	public int getGroupCommitSize() {
+		return groupCommitSize;
+	}
+
+	public long getGroupCommitMillis() {
+		return groupCommitMillis;
+	}
+
+	public long getSlowCallMillis() {
+		return slowCallMillis;
+	}
+
+	public String getBackupLocation() {
+		return backupLocation;
+	}
+
+	public long getBackupIntervalMinutes() {
+		return backupIntervalMinutes;
+	}
+
+	public long getBackupPauseMillis() {
+		return backupPauseMillis;
+	}
+
+	public String getDbShards() {
+		return dbShards;
+	}
+
+	public int getPrefetchTagSets() {
+		return prefetchTagSets;
+	}
+
+	public int getPrefetchDepth() {
+		return prefetchDepth;
+	}
+
+	public int getPrefetchHotAfter() {
+		return prefetchHotAfter;
+	}
+
+	public int getDeckChannels() {
+		return deckChannels;
+	}
+
+	public int getDecksPerChannel() {
+		return decksPerChannel;
+	}
+
+	/**
+	 * The config of one DB shard, the same as this one except that every file the DB layer writes gets the shard key
+	 * in its name, e.g. memes.db becomes memes-key.db
+	 * @param key shard key, empty for the default shard which keeps the files as configured
+	 * @return the config of the shard
+	 */
+	public MemeConfigLoader3000 shard(String key) {
+		if(key == null || key.isEmpty())
+			return this;
+		String suffix = "-" + key.replaceAll("[^A-Za-z0-9_-]", "_");
+		try {
+			MemeConfigLoader3000 shard = (MemeConfigLoader3000) clone();
+			shard.databaseLocation = shardLocation(databaseLocation, suffix);
+			shard.logStoreLocation = shardLocation(logStoreLocation, suffix);
+			shard.backupLocation = shardLocation(backupLocation, suffix);
+			return shard;
+		} catch (CloneNotSupportedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @param location file location, may be empty
+	 * @param suffix inserted before the file extension
+	 * @return the location of the shard's file, empty if the location is
+	 */
+	private static String shardLocation(String location, String suffix) {
+		if(location == null || location.isEmpty())
+			return location;
+		int dot = location.lastIndexOf('.');
+		int slash = Math.max(location.lastIndexOf('/'), location.lastIndexOf('\\'));
+		if(dot <= slash)
+			return location + suffix;
+		return location.substring(0, dot) + suffix + location.substring(dot);
+	}
 }
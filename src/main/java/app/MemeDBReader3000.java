@@ -15,9 +15,10 @@ public class MemeDBReader3000 extends Thread{
     private MemeConfigLoader3000 config;
     private BlockingQueue<MemeBotMsg3000> botInputQ;
     private BlockingQueue<MemeDBMsg3000> dbOutputQ, dbInputQ;
-    private BlockingQueue<Integer> approveQ;
+    // ID and shard of each meme waiting for curation
+    private BlockingQueue<MemeDBMsg3000> approveQ;
 
-    MemeDBReader3000(MemeLogger3000 logger, MemeConfigLoader3000 config, BlockingQueue<MemeBotMsg3000> botInputQ, BlockingQueue<MemeDBMsg3000> dbOutputQ, BlockingQueue<MemeDBMsg3000> dbInputQ, BlockingQueue<Integer> approveQ){
+    MemeDBReader3000(MemeLogger3000 logger, MemeConfigLoader3000 config, BlockingQueue<MemeBotMsg3000> botInputQ, BlockingQueue<MemeDBMsg3000> dbOutputQ, BlockingQueue<MemeDBMsg3000> dbInputQ, BlockingQueue<MemeDBMsg3000> approveQ){
         this.config = config;
         this.approvalChannelID = Long.parseLong(config.getApprovalChannel());
         this.logger = logger;
@@ -29,7 +30,7 @@ public class MemeDBReader3000 extends Thread{
 
     public void run(){
         MemeDBMsg3000 msg;
-        Integer lastID = null;
+        MemeDBMsg3000 last = null;
 
         while(true) {
             try {
@@ -42,7 +43,7 @@ public class MemeDBReader3000 extends Thread{
 
                     case REPLENISH_Q:
                         logger.println("Meme ID of " + msg.getId() + " was put into pending approval.");
-                        approveQ.put(msg.getId());
+                        approveQ.put(pending(msg));
                         break;
 
                     case ALL_TAGS:
@@ -59,7 +60,7 @@ public class MemeDBReader3000 extends Thread{
                         if(msg.getId() != null){
                             logger.println("Received ACK for cached meme of ID " + msg.getId());
                             botInputQ.put(new MemeBotMsg3000().command("queueSize").body((approveQ.size() + 1) + ""));
-                            approveQ.put(msg.getId());
+                            approveQ.put(pending(msg));
                         }
                         else
                             logger.println("Received ACK for meme submitted by " + msg.getUsername());
@@ -83,7 +84,7 @@ public class MemeDBReader3000 extends Thread{
                         botInputQ.put(new MemeBotMsg3000().command("clearQueue"));
                         botInputQ.put(new MemeBotMsg3000().command("sendToUser").body(msg.getLink()).user(msg.getUsername()));
                         botInputQ.put(new MemeBotMsg3000().command("sendToUser").body(msg.getMessage()).user(msg.getUsername()));
-                        dbInputQ.put(new MemeDBMsg3000().type(GET_TAGS));
+                        dbInputQ.put(new MemeDBMsg3000().type(GET_TAGS).shard(msg.getShard()));
                         break;
 
                     case MEME:
@@ -100,10 +101,11 @@ public class MemeDBReader3000 extends Thread{
                         logger.println("Main cannot handle a message of type: " + msg.getType().toString() + " as an output of the DB");
                 }
 
-                // check approveQ for a new ID
-                if(!approveQ.isEmpty() && approveQ.peek() != lastID){
-                    MemeDBMsg3000 approveMsg = new MemeDBMsg3000().type(GET_MEME_ID).id(approveQ.peek());
-                    lastID = approveMsg.getId();
+                // check approveQ for a new meme, the same ID may be pending in two shards
+                MemeDBMsg3000 next = approveQ.peek();
+                if(next != null && next != last){
+                    MemeDBMsg3000 approveMsg = new MemeDBMsg3000().type(GET_MEME_ID).id(next.getId()).shard(next.getShard());
+                    last = next;
                     dbInputQ.put(approveMsg);
                     botInputQ.put(new MemeBotMsg3000().command("queueSize").body((approveQ.size()) + ""));
                     logger.println("Meme queue size increased");
@@ -113,4 +115,12 @@ public class MemeDBReader3000 extends Thread{
             }
         }
     }
+
+    /**
+     * @param msg reply about a meme that needs curation
+     * @return entry of the meme in the approveQ, keeping the shard it lives in
+     */
+    private static MemeDBMsg3000 pending(MemeDBMsg3000 msg){
+        return new MemeDBMsg3000().id(msg.getId()).shard(msg.getShard());
+    }
 }
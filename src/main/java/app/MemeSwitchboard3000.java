@@ -4,7 +4,7 @@ import bot.MemeBotInterfacer3000;
 import datastructures.MemeLogger3000;
 import datastructures.MemeBotMsg3000;
 import datastructures.MemeDBMsg3000;
-import database.MemeDBC3000;
+import database.MemeDBRouter3000;
 
 import java.io.IOException;
 import java.util.concurrent.BlockingQueue;
@@ -36,7 +36,7 @@ public class MemeSwitchboard3000 {
 		BlockingQueue<MemeBotMsg3000> botInputQ = new LinkedBlockingQueue<MemeBotMsg3000>(qCapacity);
 		BlockingQueue<MemeDBMsg3000> dbOutputQ = new LinkedBlockingQueue<MemeDBMsg3000>(qCapacity);
 		BlockingQueue<MemeDBMsg3000> dbInputQ = new LinkedBlockingQueue<MemeDBMsg3000>(qCapacity);
-		BlockingQueue<Integer> approveQ = new LinkedBlockingQueue<Integer>(qCapacity);
+		BlockingQueue<MemeDBMsg3000> approveQ = new LinkedBlockingQueue<MemeDBMsg3000>(qCapacity);
 
 		logger.println("Loading the config...");
 		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
@@ -46,7 +46,7 @@ public class MemeSwitchboard3000 {
 		context.close();
 
 		logger.println("Initializing the DB...");
-		MemeDBC3000 dbController = new MemeDBC3000(config, logger, dbInputQ, dbOutputQ);
+		MemeDBRouter3000 dbController = new MemeDBRouter3000(config, logger, dbInputQ, dbOutputQ);
 		MemeDBReader3000 dbReader = new MemeDBReader3000(logger, config, botInputQ, dbOutputQ, dbInputQ, approveQ);
 		dbController.start();
 		dbReader.start();
@@ -0,0 +1,144 @@
+package database;
+
+import app.MemeConfigLoader3000;
+import datastructures.MemeLogger3000;
+import org.sqlite.SQLiteConnection;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static datastructures.MemeLogger3000.level.ERROR;
+
+/**
+ * Online backup of the SQLite DB, made on a connection of its own so the controller keeps serving while it runs.
+ * SQLite's backup API copies the pages in steps, and the backup pauses after each step to leave the disk to fetches.
+ * The copy is one consistent snapshot: the backup connection holds a read transaction for the whole run,
+ * which WAL lets the writer commit past. It is written next to the backup file and renamed over it once complete.
+ */
+public class MemeBackup3000 {
+
+    /**
+     * What one backup run copied
+     */
+    public static class Result {
+        public final int pages;
+        public final long bytes;
+        public final long millis;
+
+        Result(int pages, long bytes, long millis) {
+            this.pages = pages;
+            this.bytes = bytes;
+            this.millis = millis;
+        }
+    }
+
+    private static final int BUSY_TIMEOUT = 5000;
+
+    private MemeLogger3000 logger;
+    private String db;
+    private Path target;
+    private long pauseMillis;
+    // set on shutdown so a running backup finishes without pausing
+    private volatile boolean stopping;
+
+    /**
+     * Constructor
+     * @param config the config object
+     * @param logger the logger
+     */
+    public MemeBackup3000(MemeConfigLoader3000 config, MemeLogger3000 logger) {
+        this.logger = logger;
+        this.db = "jdbc:sqlite:" + config.getDatabaseLocation();
+        String location = config.getBackupLocation();
+        this.target = Paths.get(location == null || location.isEmpty() ? config.getDatabaseLocation() + ".bak" : location);
+        this.pauseMillis = config.getBackupPauseMillis();
+        stopping = false;
+    }
+
+    /**
+     * @return the file the backup is written to
+     */
+    public Path getTarget() {
+        return target;
+    }
+
+    /**
+     * Copies the DB to the backup file, one run at a time
+     * @return what was copied or null if the backup failed, the previous backup is kept in that case
+     */
+    public synchronized Result backup() {
+        long start = System.currentTimeMillis();
+        Path partial = target.resolveSibling(target.getFileName() + ".partial");
+        int pages;
+        long pageSize;
+
+        try (Connection conn = DriverManager.getConnection(db)) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("PRAGMA query_only=1");
+                stmt.execute("PRAGMA busy_timeout=" + BUSY_TIMEOUT);
+            }
+            // the read transaction pins the snapshot, otherwise every commit on the writer restarts the copy
+            conn.setAutoCommit(false);
+            try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("PRAGMA page_size")) {
+                rs.next();
+                pageSize = rs.getLong(1);
+            }
+            // reading the page count also starts the read transaction, so it is the size of the snapshot copied
+            try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("PRAGMA page_count")) {
+                rs.next();
+                pages = rs.getInt(1);
+            }
+
+            if(target.getParent() != null)
+                Files.createDirectories(target.getParent());
+            Files.deleteIfExists(partial);
+            conn.unwrap(SQLiteConnection.class).getDatabase().backup("main", partial.toString(), (remaining, pageCount) -> {
+                if(remaining > 0)
+                    pause();
+            });
+            conn.commit();
+            Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (SQLException | IOException e) {
+            e.printStackTrace();
+            logger.println(ERROR, "Failed to back up the DB to " + target + ": " + e.getMessage());
+            try {
+                Files.deleteIfExists(partial);
+            } catch (IOException ignored) {
+            }
+            return null;
+        }
+
+        Result result = new Result(pages, pages * pageSize, System.currentTimeMillis() - start);
+        logger.println("Backed up " + result.bytes + " bytes (" + result.pages + " pages) to " + target + " in " + result.millis + "ms");
+        return result;
+    }
+
+    /**
+     * Lets a running backup finish without pausing between steps
+     */
+    public void stop() {
+        stopping = true;
+    }
+
+    /**
+     * Throttles the copy between two steps
+     */
+    private void pause() {
+        if(stopping || pauseMillis <= 0)
+            return;
+        try {
+            Thread.sleep(pauseMillis);
+        } catch (InterruptedException e) {
+            stopping = true;
+            Thread.currentThread().interrupt();
+        }
+    }
+}
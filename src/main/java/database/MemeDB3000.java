@@ -1,16 +1,26 @@
 package database;
 
 import app.MemeConfigLoader3000;
+import datastructures.MemeIDSet3000;
 import datastructures.MemeLogger3000;
+import datastructures.MemeTagQuery3000;
 
 import java.sql.*;
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongSupplier;
 
 import static datastructures.MemeLogger3000.level.ERROR;
 
-public class MemeDB3000 {
+/**
+ * SQLite storage engine, the default behind the DB controller.
+ */
+public class MemeDB3000 implements MemeStorageEngine3000 {
     /*
      *
      * VARS AND SUCH
@@ -20,6 +30,7 @@ public class MemeDB3000 {
     static class Column{
         enum ColType{
             INT,
+            LONG,
             STR
         }
         Object var;
@@ -34,11 +45,43 @@ public class MemeDB3000 {
     private MemeConfigLoader3000 config;
     private MemeLogger3000 logger;
     private String db;
-    static String memeTableName, cacheTableName, tagLkpTableName;
+    static String memeTableName, cacheTableName, tagLkpTableName, tagDictTableName, linkLkpTableName, seqTableName;
     static List<String> tableDefs;
-    private Integer headID;
+    // most rows folded into one multi-row insert, keeps the number of cached statement shapes small
+    private static final int MAX_BATCH_ROWS = 16;
+    // ms a connection waits on a lock before failing
+    private static final int BUSY_TIMEOUT = 5000;
+    private static final int PICK_ATTEMPTS = 3;
+    private static final int ID_CHUNK = 256;
+    // IDs reserved from the persisted sequence at once
+    private static final int ID_BLOCK = 32;
+    // name of the meme ID sequence in the sequence table
+    static final String MEME_SEQ = "meme";
+    // savepoint wrapping each item of a group commit
+    private static final String GROUP_ITEM = "groupItem";
+    // condition on the meme table for memes that should go back to the cache, a range over the epoch index
+    private static final String EXPIRED = "epoch IS NULL OR epoch < ?";
     private Connection conn;
     private String errorMsg;
+    // kind of the failure in errorMsg
+    private MemeDBResult3000.Failure failure;
+    private MemeTagIndex3000 tagIndex;
+    private MemeSampler3000 sampler;
+    private MemeStatementCache3000 statements;
+    private MemeLinkIndex3000 linkIndex;
+    private MemeIDAllocator3000 idAllocator;
+    private MemeRowCache3000 rowCache;
+    private MemeTagDict3000 tagDict;
+    private List<Runnable> onCommit;
+    private boolean batchTagWrites;
+    private Duration maxAge;
+    // source of the current time in epoch millis for the expiry cutoff
+    private LongSupplier clock;
+    // inside a group commit, commit and rollback only end the current item
+    private boolean grouped;
+    private boolean itemOpen;
+    private int itemActions;
+    private int itemTags;
 
     /*
      *
@@ -51,20 +94,63 @@ public class MemeDB3000 {
      * @param config the config object
      */
     MemeDB3000(MemeConfigLoader3000 config, MemeLogger3000 logger) {
+        this(config, logger, null);
+    }
+
+    /**
+     * Constructor
+     * @param config the config object
+     * @param writer the engine whose in-memory indexes a reader shares, null to build new ones
+     */
+    private MemeDB3000(MemeConfigLoader3000 config, MemeLogger3000 logger, MemeDB3000 writer) {
         this.config = config;
         this.logger = logger;
         this.db = "jdbc:sqlite:" + config.getDatabaseLocation();
-        this.memeTableName = config.getMemeTableName();
-        this.cacheTableName = config.getCacheTableName();
-        this.tagLkpTableName = config.getTagLkpTableName();
+        MemeDB3000.memeTableName = config.getMemeTableName();
+        MemeDB3000.cacheTableName = config.getCacheTableName();
+        MemeDB3000.tagLkpTableName = config.getTagLkpTableName();
+        MemeDB3000.tagDictTableName = config.getTagDictTableName();
+        MemeDB3000.linkLkpTableName = config.getLinkLkpTableName();
+        MemeDB3000.seqTableName = config.getSeqTableName();
         tableDefs = Arrays.asList(
                 config.getMemeTableDef().replace("memeTableName", memeTableName),
                 config.getCacheTableDef().replace("cacheTableName", cacheTableName),
-                config.getTagLkpTableDef().replace("tagLkpTableName", tagLkpTableName)
+                config.getTagLkpTableDef().replace("tagLkpTableName", tagLkpTableName),
+                "CREATE TABLE IF NOT EXISTS " + linkLkpTableName + " (hash INTEGER NOT NULL, id INTEGER NOT NULL, link TEXT NOT NULL, submitter TEXT)"
         );
-        headID = 0;
         conn = null;
         errorMsg = "";
+        failure = MemeDBResult3000.Failure.STORAGE;
+        if(writer == null) {
+            tagIndex = new MemeTagIndex3000();
+            sampler = new MemeSampler3000(tagIndex);
+            linkIndex = new MemeLinkIndex3000();
+            rowCache = new MemeRowCache3000(config.getRowCacheSize());
+            tagDict = new MemeTagDict3000();
+        } else {
+            tagIndex = writer.tagIndex;
+            sampler = writer.sampler;
+            linkIndex = writer.linkIndex;
+            rowCache = writer.rowCache;
+            tagDict = writer.tagDict;
+        }
+        statements = new MemeStatementCache3000();
+        idAllocator = new MemeIDAllocator3000(seqTableName, MEME_SEQ, ID_BLOCK);
+        onCommit = new ArrayList<>();
+        grouped = false;
+        itemOpen = false;
+        itemActions = 0;
+        itemTags = 0;
+        batchTagWrites = config.isBatchTagWrites();
+        maxAge = parseMaxAge(config, logger);
+        clock = System::currentTimeMillis;
+    }
+
+    /**
+     * @return the tag dictionary shared with the readers
+     */
+    MemeTagDict3000 getTagDict() {
+        return tagDict;
     }
 
     /**
@@ -75,17 +161,77 @@ public class MemeDB3000 {
         return errorMsg;
     }
 
+    public MemeDBResult3000.Failure getFailure() {
+        return failure;
+    }
+
+    /**
+     * Switches between batched and per-tag inserts into the tag lookup
+     * @param batchTagWrites true to send all tags of a meme in one batch
+     */
+    void setBatchTagWrites(boolean batchTagWrites) {
+        this.batchTagWrites = batchTagWrites;
+    }
+
+    /**
+     * Ages memes by a duration relative to now instead of the fixed property file time
+     * @param maxAge how long a meme stays approved, null for the fixed time
+     */
+    void setMaxAge(Duration maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * @param clock source of the current time in epoch millis for the expiry cutoff
+     */
+    void setClock(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * @return how many statements were served from the statement cache
+     */
+    public long getStatementCacheHits() {
+        return statements.getHits();
+    }
+
+    /**
+     * @return how many statements had to be prepared
+     */
+    public long getStatementCacheMisses() {
+        return statements.getMisses();
+    }
+
+    /**
+     * @return how many row lookups were served from the row cache
+     */
+    public long getRowCacheHits() {
+        return rowCache.getHits();
+    }
+
+    /**
+     * @return how many row lookups had to go to the DB
+     */
+    public long getRowCacheMisses() {
+        return rowCache.getMisses();
+    }
+
     /**
      * Connects to DB and builds the DB environment
      * @throws SQLException
      */
     public Boolean open()  {
-        Integer cacheMax = null;
-        ResultSet rs;
+        errorMsg = "";
+        // A block held from before the DB was last closed may have been taken by another writer since
+        idAllocator.reset();
+        // and the rows may have changed
+        rowCache.clear();
 
         // Open the DB and set up the tables
         try{
             conn = DriverManager.getConnection(db);
+            // WAL lets the read connections keep reading while this one writes
+            execute(Arrays.asList("PRAGMA journal_mode=WAL", "PRAGMA busy_timeout=" + BUSY_TIMEOUT));
             conn.setAutoCommit(false);
             execute(tableDefs);
             commit();
@@ -96,38 +242,84 @@ public class MemeDB3000 {
             return false;
         }
 
-        // Select the max ID from the memeDB
+        // Bring the indexes and columns of older DBs up to date
         try {
-            rs = executeQuery("SELECT MAX(id) m FROM " + memeTableName + ";");
-            if(rs != null && rs.next())
-                headID = rs.getInt("m");
+            new MemeMigrator3000(logger).migrate(conn);
         } catch (SQLException throwables) {
             throwables.printStackTrace();
-            error("Failed to get the MAX id from the MemeDB");
+            error("Failed to migrate the DB schema");
             return false;
         }
 
-        // Select the max ID from cache
-        try {
-            rs = executeQuery("SELECT MAX(id) m FROM " + cacheTableName + ";");
-            if(rs != null && rs.next())
-                cacheMax = rs.getInt("m");
+        // Load the tag dictionary, then the tag index and sampler from the approved memes
+        tagDict.clear();
+        tagIndex.clear();
+        sampler.clear();
+        try (ResultSet rs = executeQuery("SELECT tagId, tag FROM " + tagDictTableName + ";")) {
+            while(rs.next())
+                tagDict.add(rs.getInt("tagId"), rs.getString("tag"));
+        } catch (SQLException throwables) {
+            throwables.printStackTrace();
+            error("Failed to load the tag dictionary");
+            return false;
+        }
+        try (ResultSet rs = executeQuery("SELECT m.id, t.tagId FROM " + memeTableName + " m LEFT JOIN " + tagLkpTableName + " t ON t.id = m.id ORDER BY m.id;")) {
+            while(rs.next()) {
+                int tagId = rs.getInt("tagId");
+                tagIndex.addTag(rs.getInt("id"), rs.wasNull() ? null : tagDict.getName(tagId));
+                sampler.add(rs.getInt("id"));
+            }
         } catch (SQLException throwables) {
             throwables.printStackTrace();
-            error("Failed to get the MAX id from the Cache");
+            error("Failed to load the tag index");
             return false;
         }
 
-        // Makes sure the highest used ID is stored locally
-        if(cacheMax > headID)
-            headID = cacheMax;
+        // Make sure every meme has a row in the link uniqueness table and load its Bloom filter
+        try {
+            backfillLinks(cacheTableName);
+            backfillLinks(memeTableName);
+            commit();
+            loadLinkIndex();
+            endRead();
+        } catch (SQLException throwables) {
+            throwables.printStackTrace();
+            rollback();
+            error("Failed to load the link uniqueness index");
+            return false;
+        }
         return true;
     }
 
+    /**
+     * Opens a read-only connection to the same DB that shares this instance's in-memory indexes.
+     * Only the fetch methods may be called on it, mutations stay on this instance.
+     * @return the reader or null if the connection could not be opened
+     */
+    public MemeDB3000 openReader() {
+        MemeDB3000 reader = new MemeDB3000(config, logger, this);
+        try {
+            // autocommit so every fetch reads the latest committed snapshot
+            reader.conn = DriverManager.getConnection(db);
+            reader.execute(Arrays.asList("PRAGMA query_only=1", "PRAGMA busy_timeout=" + BUSY_TIMEOUT));
+        } catch (SQLException throwables) {
+            throwables.printStackTrace();
+            error("Failed to open a reader on the DB");
+            return null;
+        }
+        return reader;
+    }
+
     /**
      * Closes the DB
      */
     public Boolean close(){
+        errorMsg = "";
+        logger.println("Statement cache closing with " + statements.getHits() + " hits and " + statements.getMisses() + " misses");
+        long lookups = rowCache.getHits() + rowCache.getMisses();
+        logger.println("Row cache closing with " + rowCache.getHits() + " hits and " + rowCache.getMisses() + " misses" +
+                (lookups > 0 ? " (" + (rowCache.getHits() * 100 / lookups) + "% hit rate)" : ""));
+        statements.close();
         try {
             conn.close();
         } catch (SQLException e) {
@@ -143,39 +335,56 @@ public class MemeDB3000 {
      * @return
      */
     public List<Integer> getAllCacheIds(){
-        List<Integer> retlist = new ArrayList<>();
-        try {
-            ResultSet rs = executeQuery("SELECT id FROM " + cacheTableName + ";");
-            while(rs != null && rs.next()) {
-                retlist.add(rs.getInt("id"));
-            }
-
+        errorMsg = "";
+        try (MemeIDCursor3000 cursor = cacheIdCursor(ID_CHUNK)) {
+            return drain(cursor);
         } catch (SQLException throwables) {
             throwables.printStackTrace();
             error("Failed retrieving all ids from the cache");
             return null;
         }
-        return retlist;
     }
 
     /**
-     * Gets all ids of memes older that property file or NULL
+     * Gets all ids of memes older than the expiry cutoff or NULL
      * @return
      */
     public List<Integer> getAllOldMemeIDs(){
-        List<Integer> retlist = new ArrayList<>();
-        try {
-            ResultSet rs = executeQuery("SELECT id FROM " + memeTableName + " WHERE timestamp IS NULL OR timestamp < ?;", Arrays.asList(new Column(config.getTime(), Column.ColType.STR)));
-            while(rs != null && rs.next()) {
-                retlist.add(rs.getInt("id"));
-            }
-
+        errorMsg = "";
+        try (MemeIDCursor3000 cursor = oldMemeIdCursor(ID_CHUNK, getExpiryCutoff())) {
+            return drain(cursor);
         } catch (SQLException throwables) {
             throwables.printStackTrace();
             error("Failed retrieving all ids from the cache");
             return null;
         }
-        return retlist;
+    }
+
+    /**
+     * Streams the ids in the cache in chunks, the caller must close the cursor
+     * @param chunkSize how many ids to read per chunk
+     * @return the cursor over the cache ids
+     */
+    public MemeIDCursor3000 cacheIdCursor(int chunkSize) throws SQLException {
+        return cursor("SELECT id FROM " + cacheTableName + " ORDER BY id;", new ArrayList<>(), chunkSize);
+    }
+
+    /**
+     * Streams the ids of memes older than the expiry cutoff or NULL in chunks, the caller must close the cursor
+     * @param chunkSize how many ids to read per chunk
+     * @return the cursor over the old meme ids
+     */
+    public MemeIDCursor3000 oldMemeIdCursor(int chunkSize) throws SQLException {
+        return oldMemeIdCursor(chunkSize, getExpiryCutoff());
+    }
+
+    /**
+     * @param chunkSize how many ids to read per chunk
+     * @param cutoff expiry cutoff in epoch millis
+     * @return the cursor over the ids of memes older than the cutoff or NULL
+     */
+    private MemeIDCursor3000 oldMemeIdCursor(int chunkSize, long cutoff) throws SQLException {
+        return cursor("SELECT id FROM " + memeTableName + " WHERE " + EXPIRED + " ORDER BY id;", expiredCols(cutoff), chunkSize);
     }
 
     /**
@@ -186,52 +395,87 @@ public class MemeDB3000 {
      */
     public String get(List<String> tags){
         errorMsg = "";
-        ResultSet rs;
-        String link = null;
-
-        if(tags != null && tags.size()>0){
-            // Build the query
-            String sql = "SELECT m.link FROM (&&) n INNER JOIN " + memeTableName + " m ON m.id = n.id ORDER BY RANDOM() LIMIT 1;";
-            String subQuery = "SELECT id FROM (SELECT COUNT(*) c, id FROM " + tagLkpTableName + " WHERE tag IN (&&) GROUP BY id HAVING c = " + tags.size() + ")";
-            String tagList = "";
-            for(int i=0;i<tags.size();i++){
-                tagList +=  "?,";
-            }
-            subQuery = subQuery.replace("&&", tagList.substring(0, tagList.length()-1));
-            sql = sql.replace("&&", subQuery);
-            List<Column> cols = new ArrayList<Column>();
-            for(int i=0;i<tags.size();i++)
-                cols.add(i, new Column(tags.get(i), Column.ColType.STR));
 
-            try {
-                rs = executeQuery(sql, cols);
-            } catch (SQLException throwables) {
-                throwables.printStackTrace();
-                error("Failed extract a random meme with tags: " + tags);
+        // Pick the ID in memory, only the chosen ID goes to the DB.
+        // A reader can pick a meme the writer just demoted, so pick again when the row is gone.
+        for(int attempt=0;attempt<PICK_ATTEMPTS;attempt++){
+            Integer id = sampler.pick(tags);
+            if(id == null)
                 return null;
-            }
+
+            String link = get(id);
+            if(link != null)
+                return link;
         }
-        // Default query for no tags
-        else {
-            try {
-                rs = executeQuery("SELECT m.link FROM " + tagLkpTableName + " n INNER JOIN " + memeTableName + " m ON m.id = n.id ORDER BY RANDOM() LIMIT 1;");
-            } catch (SQLException throwables) {
-                throwables.printStackTrace();
-                error("Failed extract a random meme");
+        error("Failed extract a random meme with tags: " + tags);
+        return null;
+    }
+
+    /**
+     * Get a meme matching a boolean tag query, evaluated over the tag index
+     * @param query tags the meme must or must not have
+     * @return  null if no meme matches
+     *          link to a random matching meme otherwise
+     */
+    public String get(MemeTagQuery3000 query){
+        errorMsg = "";
+
+        for(int attempt=0;attempt<PICK_ATTEMPTS;attempt++){
+            MemeIDSet3000 ids = tagIndex.match(query);
+            if(ids.isEmpty())
                 return null;
-            }
+
+            String link = get(ids.get(ThreadLocalRandom.current().nextInt(ids.size())));
+            if(link != null)
+                return link;
         }
+        error("Failed extract a random meme matching: " + query);
+        return null;
+    }
 
-        try {
-            if(rs != null && rs.next()) {
-                link = rs.getString("link");
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-            error("No meme exists that contains that tags: " + tags);
+    /**
+     * Get the ID of a random approved meme that has all of the tags
+     * @param tags The tags that this meme must have
+     * @return the ID or null if none has every tag
+     */
+    public Integer getID(List<String> tags){
+        errorMsg = "";
+        return sampler.pick(tags);
+    }
+
+    /**
+     * @param tags The tags that the memes must have, empty for every approved meme
+     * @return the IDs of every approved meme that has all of the tags, in no particular order
+     */
+    public int[] getIDs(List<String> tags){
+        errorMsg = "";
+        return sampler.matching(tags);
+    }
+
+    /**
+     * Resolves requested tags to the tags of approved memes they most likely mean, so typos and partial tags match
+     * @param tags tags as requested
+     * @return the resolved tags in the same order, a tag nothing is close to is kept as requested
+     */
+    public List<String> resolveTags(List<String> tags){
+        errorMsg = "";
+        return resolveTags(tagIndex, tags);
+    }
+
+    /**
+     * @param tagIndex index of the approved memes' tags
+     * @param tags tags as requested
+     * @return the resolved tags in the same order, a tag nothing is close to is kept as requested
+     */
+    static List<String> resolveTags(MemeTagIndex3000 tagIndex, List<String> tags){
+        if(tags == null)
             return null;
+        List<String> resolved = new ArrayList<>(tags.size());
+        for(String tag : tags){
+            String match = tagIndex.resolve(tag);
+            resolved.add(match != null ? match : tag);
         }
-        return link;
+        return resolved;
     }
 
     /**
@@ -241,17 +485,15 @@ public class MemeDB3000 {
      */
     public String get(Integer id){
         errorMsg = "";
-        String link = null;
         try {
-            ResultSet rs = executeQuery("SELECT link FROM " + memeTableName + " WHERE id = ?", Arrays.asList(new Column(id, Column.ColType.INT)));
-            if(rs != null && rs.next()) {
-                link = rs.getString("link");
-            }
+            MemeRowCache3000.Row row = getRow(id);
+            if(row != null && row.approved)
+                return row.link;
         } catch (SQLException throwables) {
             throwables.printStackTrace();
-            error("No meme exists in MemeDB with ID: " + id);
+            error(MemeDBResult3000.Failure.NOT_FOUND, "No meme exists in MemeDB with ID: " + id);
         }
-        return link;
+        return null;
     }
 
     /**
@@ -268,22 +510,16 @@ public class MemeDB3000 {
      * @return
      */
     public List<String> getTags(Integer id){
-        List<String> retList = new ArrayList<>();
         errorMsg = "";
+        List<String> retList = new ArrayList<>();
+        // Counts of approved memes per tag are kept up to date in the tag index
+        if(id == null)
+            return new ArrayList<>(tagIndex.getTagCounts());
+
         try {
-            ResultSet rs;
-            if(id == null) {
-                rs = executeQuery("SELECT COUNT(*) c, tag FROM (SELECT tag, link FROM " + tagLkpTableName + " t LEFT JOIN " + memeTableName + " m ON t.id = m.id) WHERE link IS NOT NULL GROUP BY tag ORDER BY tag ASC");
-                while(rs != null && rs.next()) {
-                    retList.add(rs.getString("tag") + " (" + rs.getString("c") + ")");
-                }
-            }
-            else {
-                rs = executeQuery("SELECT tag FROM " + tagLkpTableName + " WHERE id = ? ORDER BY tag ASC", Arrays.asList(new Column(id, Column.ColType.INT)));
-                while(rs != null && rs.next()) {
-                    retList.add(rs.getString("tag"));
-                }
-            }
+            MemeRowCache3000.Row row = getRow(id);
+            if(row != null)
+                retList.addAll(row.tags);
         } catch (SQLException throwables) {
             throwables.printStackTrace();
             error("Failed getting tags");
@@ -299,17 +535,15 @@ public class MemeDB3000 {
      */
     public String getCache(Integer id){
         errorMsg = "";
-        String link = null;
         try {
-            ResultSet rs = executeQuery("SELECT link FROM " + cacheTableName + " WHERE id = ?", Arrays.asList(new Column(id, Column.ColType.INT)));
-            if(rs != null && rs.next()) {
-                link = rs.getString("link");
-            }
+            MemeRowCache3000.Row row = getRow(id);
+            if(row != null && !row.approved)
+                return row.link;
         } catch (SQLException throwables) {
             throwables.printStackTrace();
-            error("No meme exists within the Cache with ID: " + id);
+            error(MemeDBResult3000.Failure.NOT_FOUND, "No meme exists within the Cache with ID: " + id);
         }
-        return link;
+        return null;
     }
 
     /**
@@ -321,15 +555,20 @@ public class MemeDB3000 {
      */
     public Integer store(String username, String link, List<String> tags){
         errorMsg = "";
-        if(uniqueLink(link)){
-            Integer memeID = getID();
+        long linkHash = MemeLinkIndex3000.hash(link);
+        if(uniqueLink(link, linkHash)){
+            Integer memeID;
+            long now = System.currentTimeMillis();
             try {
-                execute("INSERT INTO " + memeTableName + " (id, link, submitter, curator, timestamp) VALUES (?,?,?,?,?)",
+                memeID = getID();
+                insertLink(memeID, linkHash, link, username);
+                execute("INSERT INTO " + memeTableName + " (id, link, submitter, curator, timestamp, epoch) VALUES (?,?,?,?,?,?)",
                         Arrays.asList(  new Column(memeID, Column.ColType.INT),
                                         new Column(link, Column.ColType.STR),
                                         new Column(username, Column.ColType.STR),
                                         new Column(username, Column.ColType.STR),
-                                        new Column(new Timestamp(System.currentTimeMillis()).toString(), Column.ColType.STR)
+                                        new Column(new Timestamp(now).toString(), Column.ColType.STR),
+                                        new Column(now, Column.ColType.LONG)
                         ));
             } catch (SQLException throwables) {
                 throwables.printStackTrace();
@@ -339,6 +578,12 @@ public class MemeDB3000 {
             }
 
             if(insertTags(memeID, tags)){
+                MemeRowCache3000.Row row = new MemeRowCache3000.Row(link, username, username, sortedTags(tags), true);
+                onCommit(() -> {
+                    tagIndex.add(memeID, tags);
+                    sampler.add(memeID);
+                    rowCache.update(memeID, row);
+                });
                 commit();
                 return memeID;
             }
@@ -355,9 +600,13 @@ public class MemeDB3000 {
      * @return the id of the meme
      */
     public Integer cache(String username, String link, List<String> tags){
-        if(uniqueLink(link)){
-            Integer memeID = getID();
+        errorMsg = "";
+        long linkHash = MemeLinkIndex3000.hash(link);
+        if(uniqueLink(link, linkHash)){
+            Integer memeID;
             try {
+                memeID = getID();
+                insertLink(memeID, linkHash, link, username);
                 execute("INSERT INTO " + cacheTableName + " (id, link, submitter) VALUES (?,?,?)",
                         Arrays.asList(  new Column(memeID, Column.ColType.INT),
                                         new Column(link, Column.ColType.STR),
@@ -372,6 +621,8 @@ public class MemeDB3000 {
 
             if(insertTags(memeID, tags)){
                 // All changes succeeded, commit to DB and return the ID
+                MemeRowCache3000.Row row = new MemeRowCache3000.Row(link, username, null, sortedTags(tags), false);
+                onCommit(() -> rowCache.update(memeID, row));
                 commit();
                 return memeID;
             }
@@ -388,32 +639,34 @@ public class MemeDB3000 {
      * @return name of user who submitted the meme or null in case of error
      */
     public String promote(Integer id, String curatorName, List<String> tags){
+        errorMsg = "";
         String link, username;
 
         // Get the link
         try {
-            ResultSet rs = executeQuery("SELECT link, submitter FROM " + cacheTableName + " WHERE id = ?", Arrays.asList(new Column(id, Column.ColType.INT)));
-            if(rs != null && rs.next()) {
-                link = rs.getString("link");
-                username = rs.getString("submitter");
-            }
-            else
+            MemeRowCache3000.Row row = getRow(id);
+            if(row == null || row.approved)
                 throw new Exception();
+            link = row.link;
+            username = row.submitter;
         } catch (Exception e) {
             e.printStackTrace();
-            error("Failed to find a meme with an ID of " + id);
+            error(MemeDBResult3000.Failure.NOT_FOUND, "Failed to find a meme with an ID of " + id);
             return null;
         }
+        invalidateRow(id);
 
         // Put it into the memedb
         if(link != null && username != null){
+            long now = System.currentTimeMillis();
             try {
-                execute("INSERT INTO " + memeTableName + " (id, link, submitter, curator, timestamp) VALUES (?,?,?,?,?)",
+                execute("INSERT INTO " + memeTableName + " (id, link, submitter, curator, timestamp, epoch) VALUES (?,?,?,?,?,?)",
                         Arrays.asList(  new Column(id, Column.ColType.INT),
                                         new Column(link, Column.ColType.STR),
                                         new Column(username, Column.ColType.STR),
                                         new Column(curatorName, Column.ColType.STR),
-                                        new Column(new Timestamp(System.currentTimeMillis()).toString(), Column.ColType.STR)
+                                        new Column(new Timestamp(now).toString(), Column.ColType.STR),
+                                        new Column(now, Column.ColType.LONG)
                         ));
             } catch (SQLException throwables) {
                 throwables.printStackTrace();
@@ -444,21 +697,16 @@ public class MemeDB3000 {
         }
 
         // Insert all confirmed tags
-        try {
-            for(String tag : tags){
-                execute("INSERT INTO " + tagLkpTableName + " (id, tag) VALUES (?,?)",
-                        Arrays.asList(  new Column(id, Column.ColType.INT),
-                                        new Column(tag, Column.ColType.STR)
-                        ));
-            }
-        } catch (SQLException throwables) {
-            throwables.printStackTrace();
-            error("Failed to promote meme to MemeDB: (" + id + ", " + link + ", " + username + ", " + curatorName + ")");
-            rollback();
+        if(!insertTags(id, tags))
             return null;
-        }
 
         // All changes succeeded, commit to DB and return the submitter
+        MemeRowCache3000.Row promoted = new MemeRowCache3000.Row(link, username, curatorName, sortedTags(tags), true);
+        onCommit(() -> {
+            tagIndex.add(id, tags);
+            sampler.add(id);
+            rowCache.update(id, promoted);
+        });
         commit();
         return username;
     }
@@ -469,20 +717,24 @@ public class MemeDB3000 {
      * @return name of user who submitted the meme or null in case of error
      */
     public String demote(Integer id) {
-        String link = null, username = null, curator = null;
+        errorMsg = "";
+        String link, username, curator;
+        List<String> tags;
         // Get the link
         try {
-            ResultSet rs = executeQuery("SELECT link, submitter, curator FROM " + memeTableName + " WHERE id = ?", Arrays.asList(new Column(id, Column.ColType.INT)));
-            if(rs != null && rs.next()) {
-                link = rs.getString("link");
-                username = rs.getString("submitter");
-                curator = rs.getString("curator");
-            }
-        } catch (SQLException e) {
+            MemeRowCache3000.Row row = getRow(id);
+            if(row == null || !row.approved)
+                throw new Exception();
+            link = row.link;
+            username = row.submitter;
+            curator = row.curator;
+            tags = row.tags;
+        } catch (Exception e) {
             e.printStackTrace();
-            error("Failed to find a meme with an ID of " + id);
+            error(MemeDBResult3000.Failure.NOT_FOUND, "Failed to find a meme with an ID of " + id);
             return null;
         }
+        invalidateRow(id);
 
         // Put into cache
         try {
@@ -509,30 +761,92 @@ public class MemeDB3000 {
         }
 
         // All changes succeeded, commit to DB and return the submitter
+        MemeRowCache3000.Row demoted = new MemeRowCache3000.Row(link, username, null, tags, false);
+        onCommit(() -> {
+            tagIndex.remove(id);
+            sampler.remove(id);
+            rowCache.update(id, demoted);
+        });
         commit();
         return username;
     }
 
+    /**
+     * Demote every meme older than the expiry cutoff (or without an epoch) to the cache in one transaction
+     * @return number of memes demoted or null in case of error
+     */
+    public Integer demoteExpired() {
+        errorMsg = "";
+        long start = System.currentTimeMillis();
+        MemeIDSet3000 ids = new MemeIDSet3000();
+        // One cutoff for the scan and both statements, a later one would delete memes the insert did not copy
+        long cutoff = getExpiryCutoff();
+
+        // The in-memory indexes need to know which memes are leaving
+        try (MemeIDCursor3000 cursor = oldMemeIdCursor(ID_CHUNK, cutoff)) {
+            for(int n=cursor.next();n>0;n=cursor.next()) {
+                for(int i=0;i<n;i++)
+                    ids.add(cursor.chunk()[i]);
+            }
+        } catch (SQLException throwables) {
+            throwables.printStackTrace();
+            error("Failed to find the expired memes");
+            return null;
+        }
+        if(ids.isEmpty()) {
+            // end the read so this connection does not keep an old snapshot open
+            commit();
+            return 0;
+        }
+
+        // Move them all with set-based statements
+        try {
+            execute("INSERT INTO " + cacheTableName + " (id, link, submitter) SELECT id, link, submitter FROM " + memeTableName + " WHERE " + EXPIRED + ";", expiredCols(cutoff));
+            execute("DELETE FROM " + memeTableName + " WHERE " + EXPIRED + ";", expiredCols(cutoff));
+        } catch (SQLException throwables) {
+            throwables.printStackTrace();
+            error("Failed to demote the expired memes to the cache");
+            rollback();
+            return null;
+        }
+
+        for(int i=0;i<ids.size();i++)
+            rowCache.invalidate(ids.get(i));
+        onCommit(() -> {
+            for(int i=0;i<ids.size();i++) {
+                tagIndex.remove(ids.get(i));
+                sampler.remove(ids.get(i));
+                rowCache.invalidate(ids.get(i));
+            }
+        });
+        if(!commit())
+            return null;
+        logger.println("Demoted " + ids.size() + " expired memes in " + (System.currentTimeMillis() - start) + "ms");
+        return ids.size();
+    }
+
     /**
      * Remove a meme from the cache and all its tags
      * @param id of the meme
      * @return the username of the submitter or null if an error occurred
      */
     public String reject(Integer id){
-        String link = null, username = null;
+        errorMsg = "";
+        String link, username;
 
         // Get the link
         try {
-            ResultSet rs = executeQuery("SELECT link, submitter FROM " + cacheTableName + " WHERE id = ?", Arrays.asList(new Column(id, Column.ColType.INT)));
-            if(rs != null && rs.next()) {
-                link = rs.getString("link");
-                username = rs.getString("submitter");;
-            }
-        } catch (SQLException e) {
+            MemeRowCache3000.Row row = getRow(id);
+            if(row == null || row.approved)
+                throw new Exception();
+            link = row.link;
+            username = row.submitter;
+        } catch (Exception e) {
             e.printStackTrace();
-            error("Failed to find a meme in the cache: (" + id + ", " + link + ")");
+            error(MemeDBResult3000.Failure.NOT_FOUND, "Failed to find a meme in the cache: (" + id + ")");
             return null;
         }
+        invalidateRow(id);
 
         // Delete from the cache
         try {
@@ -554,11 +868,73 @@ public class MemeDB3000 {
             return null;
         }
 
+        // Free up the link so it can be submitted again
+        try {
+            execute("DELETE FROM " + linkLkpTableName + " WHERE id = ?", Arrays.asList(  new Column(id, Column.ColType.INT)));
+        } catch (SQLException throwables) {
+            throwables.printStackTrace();
+            error("Failed to remove meme from link lookup: (" + id + ", " + link + ")");
+            rollback();
+            return null;
+        }
+
         // All changes succeeded, commit to DB and return the submitter
+        onCommit(() -> {
+            tagIndex.remove(id);
+            sampler.remove(id);
+            rowCache.invalidate(id);
+        });
         commit();
         return username;
     }
 
+    /**
+     * Starts a group commit, the following mutations share one transaction that commitGroup ends.
+     * Each mutation has to be wrapped by startGroupItem so a failed one only rolls back its own changes.
+     */
+    public void startGroup() {
+        errorMsg = "";
+        grouped = true;
+        itemOpen = false;
+    }
+
+    /**
+     * Starts the next item of a group commit
+     * @return whether the item could be started
+     */
+    public Boolean startGroupItem() {
+        errorMsg = "";
+        try {
+            // an item that failed before writing anything never ended its savepoint
+            if(itemOpen)
+                execute(Arrays.asList("RELEASE SAVEPOINT " + GROUP_ITEM));
+            execute(Arrays.asList("SAVEPOINT " + GROUP_ITEM));
+        } catch (SQLException throwables) {
+            throwables.printStackTrace();
+            itemOpen = false;
+            error("Failed to start a group commit item");
+            return false;
+        }
+        itemOpen = true;
+        itemActions = onCommit.size();
+        itemTags = tagDict.mark();
+        return true;
+    }
+
+    /**
+     * Commits every item of the group that did not roll back
+     * @return whether the commit occurred, if not none of the items were stored
+     */
+    public Boolean commitGroup() {
+        errorMsg = "";
+        grouped = false;
+        itemOpen = false;
+        if(commit())
+            return true;
+        rollback();
+        return false;
+    }
+
     /*
      *
      *  PRIVATE
@@ -570,6 +946,16 @@ public class MemeDB3000 {
      * @param error
      */
     private void error(String error){
+        error(MemeDBResult3000.Failure.STORAGE, error);
+    }
+
+    /**
+     * Print the error message and store it with its kind
+     * @param failure kind of failure
+     * @param error
+     */
+    private void error(MemeDBResult3000.Failure failure, String error){
+        this.failure = failure;
         errorMsg = error;
         logger.println(ERROR, errorMsg);
     }
@@ -581,48 +967,218 @@ public class MemeDB3000 {
      * @return the status of tag insertion
      */
     private Boolean insertTags(Integer memeID, List<String> tags){
-        Boolean status = true;
-        for(String tag : tags){
-            try {
-                if(status){
-                    execute("INSERT INTO " + tagLkpTableName + " (id, tag) VALUES (?,?)",
-                            Arrays.asList(  new Column(memeID, Column.ColType.INT),
-                                            new Column(tag, Column.ColType.STR)
-                            ));
+        if(tags == null)
+            return true;
+        String sql = "INSERT INTO " + tagLkpTableName + " (id, tagId) VALUES (?,?)";
+        String tag = null;
+        try {
+            // Resolve every tag string to its ID once
+            List<Integer> tagIds = tagIds(tags);
+            if(batchTagWrites){
+                // Send every tag in one multi-row insert
+                List<List<Column>> rows = new ArrayList<>();
+                for(Integer tagId : tagIds){
+                    rows.add(Arrays.asList( new Column(memeID, Column.ColType.INT),
+                                            new Column(tagId, Column.ColType.INT)
+                    ));
+                }
+                executeBatch(sql, rows);
+            }
+            else {
+                for(int i=0;i<tags.size();i++){
+                    tag = tags.get(i);
+                    execute(sql, Arrays.asList( new Column(memeID, Column.ColType.INT),
+                                                new Column(tagIds.get(i), Column.ColType.INT)
+                    ));
                 }
-            } catch (SQLException throwables) {
-                throwables.printStackTrace();
-                errorMsg = "Encountered an error inserting tag " + tag + " into DB, rolling back...";
-                error(errorMsg);
-                rollback();
-                return false;
             }
+        } catch (SQLException throwables) {
+            throwables.printStackTrace();
+            errorMsg = "Encountered an error inserting " + (tag != null ? "tag " + tag : "tags " + tags) + " into DB, rolling back...";
+            error(errorMsg);
+            rollback();
+            return false;
         }
         return true;
     }
 
+    /**
+     * Interns tag strings, adding the ones the dictionary does not have yet
+     * @param tags tag strings
+     * @return the ID of each tag, in the same order
+     */
+    private List<Integer> tagIds(List<String> tags) throws SQLException {
+        List<Integer> tagIds = new ArrayList<>();
+        for(String tag : tags){
+            Integer tagId = tagDict.getId(tag);
+            if(tagId == null){
+                execute("INSERT OR IGNORE INTO " + tagDictTableName + " (tag) VALUES (?)", Arrays.asList(new Column(tag, Column.ColType.STR)));
+                try (ResultSet rs = executeQuery("SELECT tagId FROM " + tagDictTableName + " WHERE tag = ?", Arrays.asList(new Column(tag, Column.ColType.STR)))) {
+                    if(!rs.next())
+                        throw new SQLException("Tag " + tag + " missing from " + tagDictTableName);
+                    tagId = rs.getInt("tagId");
+                }
+                tagDict.addPending(tagId, tag);
+            }
+            tagIds.add(tagId);
+        }
+        return tagIds;
+    }
+
+    /**
+     * Resolves tag IDs to their strings, reading IDs the dictionary has not seen from the DB
+     * @param tagIds tag IDs
+     * @return the tag strings, in the same order
+     */
+    private List<String> tagNames(List<Integer> tagIds) throws SQLException {
+        List<String> tags = new ArrayList<>();
+        for(Integer tagId : tagIds){
+            String tag = tagDict.getName(tagId);
+            if(tag == null){
+                // committed by the writer, which has not updated the shared dictionary yet
+                try (ResultSet rs = executeQuery("SELECT tag FROM " + tagDictTableName + " WHERE tagId = ?", Arrays.asList(new Column(tagId, Column.ColType.INT)))) {
+                    if(!rs.next())
+                        throw new SQLException("Tag ID " + tagId + " missing from " + tagDictTableName);
+                    tag = rs.getString("tag");
+                }
+            }
+            tags.add(tag);
+        }
+        return tags;
+    }
+
+    /**
+     * @param cutoff expiry cutoff in epoch millis
+     * @return the params of the EXPIRED condition
+     */
+    private List<Column> expiredCols(long cutoff) {
+        return Arrays.asList(new Column(cutoff, Column.ColType.LONG));
+    }
+
+    /**
+     * Memes approved before the cutoff are expired. With maxMemeAge set the cutoff moves with the clock,
+     * otherwise it is the fixed property file time.
+     * @return the cutoff in epoch millis
+     */
+    long getExpiryCutoff() {
+        return expiryCutoff(config, maxAge, clock.getAsLong());
+    }
+
+    /**
+     * Reads the maxMemeAge property
+     * @param config the config object
+     * @param logger where an invalid duration is reported
+     * @return the duration or null to age memes by the fixed time
+     */
+    static Duration parseMaxAge(MemeConfigLoader3000 config, MemeLogger3000 logger) {
+        if(config.getMaxMemeAge() == null || config.getMaxMemeAge().isEmpty())
+            return null;
+        try {
+            return Duration.parse(config.getMaxMemeAge());
+        } catch (DateTimeParseException e) {
+            logger.println(ERROR, "Invalid maxMemeAge " + config.getMaxMemeAge() + ", aging memes by the fixed time instead");
+            return null;
+        }
+    }
+
+    /**
+     * @param config the config object
+     * @param maxAge how long a meme stays approved, null for the fixed property file time
+     * @return the expiry cutoff in epoch millis
+     */
+    static long expiryCutoff(MemeConfigLoader3000 config, Duration maxAge) {
+        return expiryCutoff(config, maxAge, System.currentTimeMillis());
+    }
+
+    /**
+     * @param config the config object
+     * @param maxAge how long a meme stays approved, null for the fixed property file time
+     * @param now the current time in epoch millis
+     * @return the expiry cutoff in epoch millis
+     */
+    static long expiryCutoff(MemeConfigLoader3000 config, Duration maxAge, long now) {
+        if(maxAge != null)
+            return now - maxAge.toMillis();
+        return Timestamp.valueOf(config.getTime()).getTime();
+    }
+
+    /**
+     * Reads a meme and its tags through the row cache
+     * @param id ID of the meme
+     * @return the row from the meme or cache table, null if the meme is in neither
+     */
+    private MemeRowCache3000.Row getRow(Integer id) throws SQLException {
+        MemeRowCache3000.Row row = rowCache.get(id);
+        if(row != null)
+            return row;
+
+        long loadedAt = rowCache.generation();
+        String link, submitter, curator;
+        boolean approved;
+        try (ResultSet rs = executeQuery("SELECT link, submitter, curator, 1 approved FROM " + memeTableName + " WHERE id = ? " +
+                        "UNION ALL SELECT link, submitter, NULL, 0 FROM " + cacheTableName + " WHERE id = ?",
+                Arrays.asList(new Column(id, Column.ColType.INT), new Column(id, Column.ColType.INT)))) {
+            if(!rs.next())
+                return null;
+            link = rs.getString("link");
+            submitter = rs.getString("submitter");
+            curator = rs.getString("curator");
+            approved = rs.getInt("approved") == 1;
+        }
+
+        List<Integer> tagIds = new ArrayList<>();
+        try (ResultSet rs = executeQuery("SELECT tagId FROM " + tagLkpTableName + " WHERE id = ?", Arrays.asList(new Column(id, Column.ColType.INT)))) {
+            while(rs.next())
+                tagIds.add(rs.getInt("tagId"));
+        }
+
+        row = new MemeRowCache3000.Row(link, submitter, curator, sortedTags(tagNames(tagIds)), approved);
+        rowCache.put(id, row, loadedAt);
+        return row;
+    }
+
+    /**
+     * Drops the cached row of a meme about to change, and again once the change commits
+     * so a reader cannot cache the old row in between
+     * @param id ID of the meme
+     */
+    private void invalidateRow(Integer id) {
+        rowCache.invalidate(id);
+        onCommit(() -> rowCache.invalidate(id));
+    }
+
+    /**
+     * @param tags tags as submitted, may be null
+     * @return the tags in the order the tag lookup returns them
+     */
+    private static List<String> sortedTags(List<String> tags) {
+        List<String> sorted = tags == null ? new ArrayList<>() : new ArrayList<>(tags);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
     /**
      * Validates the uniqueness of the link across the cache and meme tables
      * @param link
+     * @param linkHash hash of the canonical link
      * @return boolean dictating uniqueness
      */
-    private boolean uniqueLink(String link) {
-        try {
-            ResultSet rs = executeQuery("SELECT * FROM (" +
-                    "SELECT id, link, submitter " +
-                    "FROM " + cacheTableName +
-                    " UNION " +
-                    "SELECT id, link, submitter " +
-                    "FROM " + memeTableName + ") " +
-                    "WHERE link = ?", Arrays.asList(new Column(link, Column.ColType.STR)));
-
-            if(rs != null && rs.next()) {
-                String previousSubmitter = rs.getString("submitter");
-                error("This meme was already submitted by " + previousSubmitter);
-                return false;
+    private boolean uniqueLink(String link, long linkHash) {
+        // Most links are new, the Bloom filter rules those out without a lookup
+        if(!linkIndex.mightContain(linkHash))
+            return true;
+
+        String canonical = MemeLinkIndex3000.canonicalize(link);
+        try (ResultSet rs = executeQuery("SELECT link, submitter FROM " + linkLkpTableName + " WHERE hash = ?", Arrays.asList(new Column(linkHash, Column.ColType.LONG)))) {
+            while(rs.next()) {
+                // guard against two different links sharing a hash
+                if(MemeLinkIndex3000.canonicalize(rs.getString("link")).equals(canonical)) {
+                    String previousSubmitter = rs.getString("submitter");
+                    error(MemeDBResult3000.Failure.DUPLICATE, "This meme was already submitted by " + previousSubmitter);
+                    return false;
+                }
             }
-            else
-                return true;
+            return true;
         } catch (SQLException throwables) {
             throwables.printStackTrace();
             error("Encountered an error validating uniqueness for " + link);
@@ -630,35 +1186,76 @@ public class MemeDB3000 {
         }
     }
 
+    /**
+     * Claims a link in the link uniqueness table
+     * @param memeID ID of the meme
+     * @param linkHash hash of the canonical link
+     * @param link link to the meme
+     * @param username user who submitted the meme
+     */
+    private void insertLink(Integer memeID, long linkHash, String link, String username) throws SQLException {
+        execute("INSERT INTO " + linkLkpTableName + " (hash, id, link, submitter) VALUES (?,?,?,?)",
+                Arrays.asList(  new Column(linkHash, Column.ColType.LONG),
+                                new Column(memeID, Column.ColType.INT),
+                                new Column(link, Column.ColType.STR),
+                                new Column(username, Column.ColType.STR)
+                ));
+        // Added before commit so later writes in the same transaction see the link,
+        // a hash left behind by a rollback only costs one extra lookup
+        linkIndex.add(linkHash);
+    }
+
+    /**
+     * Adds link uniqueness rows for memes of a table that do not have one yet, such as memes from before the table existed
+     * @param tableName meme or cache table
+     */
+    private void backfillLinks(String tableName) throws SQLException {
+        List<List<Column>> rows = new ArrayList<>();
+        try (ResultSet rs = executeQuery("SELECT id, link, submitter FROM " + tableName + " t WHERE NOT EXISTS (SELECT 1 FROM " + linkLkpTableName + " l WHERE l.id = t.id)")) {
+            while(rs.next()) {
+                rows.add(Arrays.asList( new Column(MemeLinkIndex3000.hash(rs.getString("link")), Column.ColType.LONG),
+                                        new Column(rs.getInt("id"), Column.ColType.INT),
+                                        new Column(rs.getString("link"), Column.ColType.STR),
+                                        new Column(rs.getString("submitter"), Column.ColType.STR)
+                ));
+            }
+        }
+        if(!rows.isEmpty()) {
+            logger.println("Backfilling " + rows.size() + " links from " + tableName + " into " + linkLkpTableName);
+            executeBatch("INSERT INTO " + linkLkpTableName + " (hash, id, link, submitter) VALUES (?,?,?,?)", rows);
+        }
+    }
+
+    /**
+     * Rebuilds the link Bloom filter from every hash in the link uniqueness table
+     */
+    private void loadLinkIndex() throws SQLException {
+        try (ResultSet rs = executeQuery("SELECT COUNT(*) c FROM " + linkLkpTableName)) {
+            linkIndex.reset(rs.next() ? rs.getLong("c") : 0);
+        }
+        try (ResultSet rs = executeQuery("SELECT hash FROM " + linkLkpTableName)) {
+            while(rs.next())
+                linkIndex.add(rs.getLong("hash"));
+        }
+    }
+
     /**
      * execute a query that returns data
      * @param sql sql statement to execute
-     * @return the results of query
+     * @return the results of query, the caller must close it
      */
     private ResultSet executeQuery(String sql) throws SQLException {
-        return conn.createStatement().executeQuery(sql);
+        return executeQuery(sql, new ArrayList<>());
     }
 
     /**
      * execute a query that returns data
      * @param sql sql statement to execute
      * @param cols column values
-     * @return the results of query
+     * @return the results of query, the caller must close it
      */
     private ResultSet executeQuery(String sql, List<Column> cols) throws SQLException {
-        PreparedStatement ps = conn.prepareStatement(sql);
-        for(int i=0;i<cols.size();i++){
-            Column col = cols.get(i);
-            switch(col.type){
-                case INT:
-                    ps.setInt(i+1, (Integer) col.var);
-                    break;
-                case STR:
-                    ps.setString(i+1, (String) col.var);
-                    break;
-            }
-        }
-       return ps.executeQuery();
+        return prepare(sql, cols).executeQuery();
     }
 
     /**
@@ -667,8 +1264,10 @@ public class MemeDB3000 {
      * @return status of execution
      */
     private void execute(List<String> sqls) throws SQLException {
-        for(String sql : sqls)
-            conn.createStatement().execute(sql);
+        try (Statement statement = conn.createStatement()) {
+            for(String sql : sqls)
+                statement.execute(sql);
+        }
     }
 
     /**
@@ -678,25 +1277,134 @@ public class MemeDB3000 {
      * @return the status of query
      */
     private void execute(String sql, List<Column> cols) throws SQLException {
+        prepare(sql, cols).executeUpdate();
+    }
+
+    /**
+     * execute a single row insert for many rows at once by folding them into multi-row VALUES statements
+     * @param sql single row insert ending in its VALUES placeholder group
+     * @param rows column values of each row
+     */
+    private void executeBatch(String sql, List<List<Column>> rows) throws SQLException {
+        int split = sql.lastIndexOf("VALUES") + "VALUES".length();
+        String prefix = sql.substring(0, split);
+        String group = sql.substring(split).trim();
+        for(int from=0;from<rows.size();from+=MAX_BATCH_ROWS){
+            int to = Math.min(from + MAX_BATCH_ROWS, rows.size());
+            StringBuilder batchSql = new StringBuilder(prefix).append(' ').append(group);
+            List<Column> cols = new ArrayList<>(rows.get(from));
+            for(int i=from+1;i<to;i++){
+                batchSql.append(',').append(group);
+                cols.addAll(rows.get(i));
+            }
+            execute(batchSql.toString(), cols);
+        }
+    }
+
+    /**
+     * Opens a cursor over a query returning ids on its own statement, so it can stay open while other queries run
+     * @param sql sql statement selecting the ids in its first column
+     * @param cols column values
+     * @param chunkSize how many ids to read per chunk
+     * @return the cursor, the caller must close it
+     */
+    private MemeIDCursor3000 cursor(String sql, List<Column> cols, int chunkSize) throws SQLException {
         PreparedStatement ps = conn.prepareStatement(sql);
+        try {
+            bind(ps, cols);
+            return MemeIDCursor3000.of(ps, chunkSize, this::endRead);
+        } catch (SQLException e) {
+            ps.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads every id left in a cursor into a list
+     * @param cursor the cursor to drain
+     * @return the ids
+     */
+    private List<Integer> drain(MemeIDCursor3000 cursor) throws SQLException {
+        List<Integer> retlist = new ArrayList<>();
+        for(int n=cursor.next();n>0;n=cursor.next()) {
+            for(int i=0;i<n;i++)
+                retlist.add(cursor.chunk()[i]);
+        }
+        return retlist;
+    }
+
+    /**
+     * Ends the read transaction of the writer so it does not keep an old snapshot open
+     */
+    private void endRead() {
+        if(grouped)
+            return;
+        try {
+            if(!conn.getAutoCommit())
+                conn.commit();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Gets the cached statement for the sql and binds the typed params to it
+     * @param sql sql statement to prepare
+     * @param cols column values
+     * @return the bound statement
+     */
+    private PreparedStatement prepare(String sql, List<Column> cols) throws SQLException {
+        PreparedStatement ps = statements.get(conn, sql);
+        bind(ps, cols);
+        return ps;
+    }
+
+    /**
+     * Binds the typed params to a statement
+     * @param ps statement to bind
+     * @param cols column values
+     */
+    private void bind(PreparedStatement ps, List<Column> cols) throws SQLException {
         for(int i=0;i<cols.size();i++){
             Column col = cols.get(i);
             switch(col.type){
                 case INT:
                     ps.setInt(i+1, (Integer) col.var);
                     break;
+                case LONG:
+                    ps.setLong(i+1, (Long) col.var);
+                    break;
                 case STR:
                     ps.setString(i+1, (String) col.var);
                     break;
             }
         }
-        ps.executeUpdate();
     }
 
     /**
      * rolls back the database
      */
     private void rollback() {
+        // Within a group only the current item is undone
+        if(grouped && itemOpen) {
+            onCommit.subList(itemActions, onCommit.size()).clear();
+            idAllocator.rolledBack();
+            // tags interned by earlier items are still in the transaction
+            tagDict.rolledBackTo(itemTags);
+            itemOpen = false;
+            try {
+                execute(Arrays.asList("ROLLBACK TO SAVEPOINT " + GROUP_ITEM, "RELEASE SAVEPOINT " + GROUP_ITEM));
+                errorMsg = "[ ROLLBACK ] " + errorMsg;
+                error("Rolled back the group commit item...");
+            } catch (SQLException ex) {
+                ex.printStackTrace();
+            }
+            return;
+        }
+
+        onCommit.clear();
+        idAllocator.rolledBack();
+        tagDict.rolledBack();
         try {
             conn.rollback();
             errorMsg = "[ ROLLBACK ] " + errorMsg;
@@ -711,22 +1419,63 @@ public class MemeDB3000 {
      * @return whether commit occurred
      */
     private Boolean commit() {
+        // Within a group the item is kept and its actions wait for the group to commit
+        if(grouped) {
+            if(!itemOpen)
+                return true;
+            try {
+                execute(Arrays.asList("RELEASE SAVEPOINT " + GROUP_ITEM));
+            } catch (SQLException e) {
+                e.printStackTrace();
+                error("Failed to release the group commit item");
+                rollback();
+                return false;
+            }
+            itemOpen = false;
+            return true;
+        }
+
         try {
             conn.commit();
         } catch (SQLException e) {
+            onCommit.clear();
+            idAllocator.rolledBack();
+            tagDict.rolledBack();
             error("Failed to commit");
             e.printStackTrace();
             return false;
         }
+        idAllocator.committed();
+        tagDict.committed();
+        for(Runnable action : onCommit)
+            action.run();
+        onCommit.clear();
+
+        // The table outgrew the Bloom filter, resize it so lookups stay mostly in memory
+        if(linkIndex.isSaturated()) {
+            try {
+                loadLinkIndex();
+            } catch (SQLException e) {
+                e.printStackTrace();
+                error("Failed to resize the link uniqueness index");
+            }
+        }
         return true;
     }
 
     /**
-     * Increments the ID count
+     * Queues an update to the in-memory structures that only applies once the current transaction commits
+     * @param action the update to run after commit
+     */
+    private void onCommit(Runnable action) {
+        onCommit.add(action);
+    }
+
+    /**
+     * Takes the next ID from the persisted sequence
      * @return the freshest ID
      */
-    private Integer getID() {
-        headID++;
-        return headID;
+    private Integer getID() throws SQLException {
+        return idAllocator.next(conn);
     }
 }
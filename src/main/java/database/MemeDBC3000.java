@@ -3,227 +3,663 @@ package database;
 import app.MemeConfigLoader3000;
 import datastructures.MemeDBMsg3000;
 import datastructures.MemeLogger3000;
+import datastructures.MemeTagQuery3000;
 
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 import static datastructures.MemeDBMsg3000.MsgDBType.*;
 
 /**
  *
- * Performs actions on the DB based off of instruction in the inputQ and puts the output into the outputQ
+ * Performs actions on the DB based off of instruction in the inputQ and puts the output into the outputQ.
+ * Mutations are serialized on a single writer connection while fetches run on a pool of read connections.
+ * Messages sharing a user, channel or meme ID are handled in the order they arrived, so replies keep that order too.
+ * Bursts of submissions already waiting in the inputQ are stored in one transaction (group commit).
+ * With deckChannels set, each channel is dealt memes from a shuffle deck per tag set, so it sees every match once
+ * before any repeats. Other fetches are answered from buffers of links drawn ahead of time for the most requested
+ * tag sets. Both learn about memes approved by a promote or stored directly once the change is committed.
+ * Online backups of a SQLite DB run on a thread and connection of their own, every backupIntervalMinutes or on a BACKUP message.
  */
 public class MemeDBC3000 extends Thread{
-    private MemeDB3000 db;
+    // how many cache IDs are read from the DB at a time during INITIALIZE
+    private static final int ID_CHUNK = 64;
+    // how many dealt memes may turn out to be gone before falling back to a random pick
+    private static final int DEAL_ATTEMPTS = 3;
+
+    private MemeStorageEngine3000 db;
     private MemeConfigLoader3000 config;
     private MemeLogger3000 logger;
     private BlockingQueue<MemeDBMsg3000> outputQ;
     private BlockingQueue<MemeDBMsg3000> inputQ;
+    private List<MemeStorageEngine3000> readers;
+    private BlockingQueue<MemeStorageEngine3000> idleReaders;
+    private ExecutorService writer;
+    private ExecutorService readPool;
+    // last message scheduled for each user, channel and meme ID, the next one with that key waits on it
+    private Map<String, CompletableFuture<Void>> lastByKey;
+    private Set<CompletableFuture<Void>> inFlight;
+    // most submissions stored in one transaction and how long one transaction may keep taking more
+    private int groupCommitSize;
+    private long groupCommitMillis;
+    // DB calls taking at least this long are logged, 0 logs none
+    private long slowCallMillis;
+    // null when the engine is not SQLite
+    private MemeBackup3000 backup;
+    private ScheduledExecutorService backupPool;
+    private MemeFetchBuffer3000 prefetch;
+    // null when deckChannels is 0
+    private MemeShuffleDecks3000 decks;
+    // refills the fetch buffers on its own read connection, the writer when the engine has no readers
+    private ExecutorService prefetchPool;
+    // null when refills run on the writer
+    private MemeStorageEngine3000 prefetchReader;
 
     public MemeDBC3000(MemeConfigLoader3000 config, MemeLogger3000 logger, BlockingQueue inQ, BlockingQueue outQ){
-        db = new MemeDB3000(config, logger);
+        db = MemeStorageEngine3000.create(config, logger);
         db.open();
         this.config = config;
+        this.logger = logger;
         this.outputQ = outQ;
         this.inputQ = inQ;
+
+        readers = new ArrayList<>();
+        for(int i=0;i<config.getDbReadWorkers();i++){
+            MemeStorageEngine3000 reader = db.openReader();
+            if(reader != null)
+                readers.add(reader);
+        }
+        idleReaders = new LinkedBlockingQueue<>(readers);
+        writer = Executors.newSingleThreadExecutor();
+        readPool = readers.isEmpty() ? null : Executors.newFixedThreadPool(readers.size());
+        lastByKey = new ConcurrentHashMap<>();
+        inFlight = ConcurrentHashMap.newKeySet();
+        groupCommitSize = config.getGroupCommitSize();
+        groupCommitMillis = config.getGroupCommitMillis();
+        slowCallMillis = config.getSlowCallMillis();
+        prefetch = new MemeFetchBuffer3000(config.getPrefetchTagSets(), config.getPrefetchDepth(), config.getPrefetchHotAfter());
+        prefetchReader = readers.isEmpty() ? null : db.openReader();
+        prefetchPool = prefetchReader == null ? writer : Executors.newSingleThreadExecutor();
+        decks = config.getDeckChannels() > 0 ? new MemeShuffleDecks3000(config.getDeckChannels(), config.getDecksPerChannel()) : null;
+
+        if(db instanceof MemeDB3000){
+            backup = new MemeBackup3000(config, logger);
+            backupPool = Executors.newSingleThreadScheduledExecutor();
+            long interval = config.getBackupIntervalMinutes();
+            if(interval > 0)
+                backupPool.scheduleWithFixedDelay(backup::backup, interval, interval, TimeUnit.MINUTES);
+        }
     }
 
     public void run(){
-        String link, username;
-        Integer id ;
-        List<String> tags;
         MemeDBMsg3000 msg;
         while(true){
             try {
                 msg = inputQ.take();
-                switch(msg.getType()) {
-                    case INITIALIZE:
-                        logger.println("Initializing...");
-                        // Check to see which memes are older and need to be re-cached
-                        List<Integer> ids = db.getAllOldMemeIDs();
-                        for(Integer theid : ids)
-                            db.demote(theid);
-
-                        // any cache memes need to be added to the Q
-                        ids = db.getAllCacheIds();
-                        for(Integer theid : ids){
-                            outputQ.put(new MemeDBMsg3000()
-                                    .type(REPLENISH_Q)
-                                    .id(theid)
-                            );
-                        }
+                if(msg.getType() == TERMINATE){
+                    logger.println("Terminating");
+                    shutdown();
+                    return;
+                }
+                if(msg.getType() == BACKUP){
+                    startBackup();
+                    continue;
+                }
+                dispatch(drainGroup(msg));
+            } catch (InterruptedException e) {
+                logger.println(MemeLogger3000.level.ERROR, e.getStackTrace().toString());
+                shutdown();
+                return;
+            }
+        }
+    }
 
-                        // send all the existing tags tot he info channel
-                        tags = db.getTags();
-                        outputQ.put(new MemeDBMsg3000()
-                                .type(ALL_TAGS)
-                                .tags(tags)
-                        );
+    /**
+     * Takes the submissions waiting in the inputQ right behind a submission, so they can share its transaction
+     * @param msg the message just taken from the inputQ
+     * @return the message and any submissions drained with it
+     */
+    private List<MemeDBMsg3000> drainGroup(MemeDBMsg3000 msg){
+        List<MemeDBMsg3000> msgs = new ArrayList<>();
+        msgs.add(msg);
+        if(!isSubmission(msg.getType()))
+            return msgs;
+        // only this thread takes from the inputQ, so the peeked message is the one polled
+        while(msgs.size() < groupCommitSize && inputQ.peek() != null && isSubmission(inputQ.peek().getType()))
+            msgs.add(inputQ.poll());
+        return msgs;
+    }
 
-                        // confirm with switchboard that DB inited
-                        outputQ.put(new MemeDBMsg3000().type(INIT_ACK));
-                        break;
+    /**
+     * Schedules messages on the writer or the read pool behind earlier messages that share a key with them
+     * @param msgs the message to handle, or a group of submissions to commit together
+     */
+    private void dispatch(List<MemeDBMsg3000> msgs){
+        MemeDBMsg3000 msg = msgs.get(0);
+        boolean read = readPool != null && msgs.size() == 1 && isRead(msg.getType());
+        List<String> keys = new ArrayList<>();
+        for(MemeDBMsg3000 m : msgs){
+            if(m.getUsername() != null)
+                keys.add("user:" + m.getUsername());
+            if(m.getChannelID() != null)
+                keys.add("channel:" + m.getChannelID());
+            if(m.getId() != null)
+                keys.add("id:" + m.getId());
+        }
+        if(!read)
+            keys.add("writer");
 
-                    case GET_TAGS:
-                        logger.println("Getting all tags");
-                        tags = db.getTags();
-                        outputQ.put(new MemeDBMsg3000()
-                                .type(ALL_TAGS)
-                                .tags(tags)
-                        );
-                        break;
+        List<CompletableFuture<Void>> prior = new ArrayList<>();
+        for(String key : keys){
+            CompletableFuture<Void> last = lastByKey.get(key);
+            if(last != null)
+                prior.add(last);
+        }
 
-                    case GET_MEME_ID:
-                        logger.println("Getting info for meme of ID " + msg.getId() + " to be approved");
-                        link = db.getCache(msg.getId());
-                        tags = db.getTags(msg.getId());
-                        if(link != null){
-                            outputQ.put(new MemeDBMsg3000()
-                                    .type(APPROVE_MEME)
-                                    .id(msg.getId())
-                                    .link(link)
-                                    .tags(tags)
-                            );
-                        }
-                        else
-                            getDBError(msg, false);
-                        break;
+        CompletableFuture<Void> done = CompletableFuture.allOf(prior.toArray(new CompletableFuture<?>[0]))
+                .thenRunAsync(() -> {
+                    if(read)
+                        handleRead(msg);
+                    else if(msgs.size() > 1)
+                        handleGroup(msgs);
+                    else
+                        handle(db, msg);
+                }, read ? readPool : writer);
 
-                    case GET_MEME_TAGS:
-                        logger.println("Getting all tags for meme of ID " + msg.getId());
-                        link = db.get(msg.getTags());
-                        if(link != null){
-                            outputQ.put(new MemeDBMsg3000()
-                                    .type(MEME)
-                                    .link(link)
-                                    .id(msg.getId())
-                                    .username(msg.getUsername())
-                                    .channelID(msg.getChannelID())
-                            );
-                        }
-                        else
-                            getDBError(msg, false);
-                        break;
+        inFlight.add(done);
+        done.whenComplete((v, e) -> inFlight.remove(done));
+        for(String key : new HashSet<>(keys)){
+            lastByKey.put(key, done);
+            done.whenComplete((v, e) -> lastByKey.remove(key, done));
+        }
+    }
 
-                    case STORE_MEME:
-                        logger.println("Storing meme " + msg.getLink());
-                            id = db.store(msg.getUsername(), msg.getLink(), msg.getTags());
-                            if(id != null){
-                                outputQ.put(new MemeDBMsg3000()
-                                        .type(SUBMIT_ACK)
-                                        .username(msg.getUsername())
-                                        .message("Stored meme to MemeDB")
-                                );
-                            }
-                            else
-                                getDBError(msg, false);
+    /**
+     * Handles a fetch on one of the read connections
+     * @param msg the message to handle
+     */
+    private void handleRead(MemeDBMsg3000 msg){
+        // the read pool has a thread per reader so one is free or about to be, the writer's connection is never borrowed
+        MemeStorageEngine3000 reader;
+        try {
+            reader = idleReaders.take();
+        } catch (InterruptedException e) {
+            logger.println(MemeLogger3000.level.ERROR, "Interrupted waiting for a reader, dropping a message of type " + msg.getType());
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            handle(reader, msg);
+        } finally {
+            idleReaders.add(reader);
+        }
+    }
 
-                        break;
+    /**
+     * Stores a group of submissions in one transaction. Each one runs in its own savepoint so a failure
+     * only undoes that submission, and replies go out once the transaction commits.
+     * When the group runs past its time budget the items so far are committed and the rest start a new transaction.
+     * @param msgs the submissions in the order they arrived
+     */
+    private void handleGroup(List<MemeDBMsg3000> msgs){
+        logger.println("Group committing " + msgs.size() + " submissions");
+        List<MemeDBMsg3000> replies = new ArrayList<>();
+        List<MemeDBMsg3000> stored = new ArrayList<>();
+        long start = System.currentTimeMillis();
+        db.startGroup();
+        for(MemeDBMsg3000 msg : msgs){
+            if(!replies.isEmpty() && System.currentTimeMillis() - start > groupCommitMillis){
+                finishGroup(replies, stored);
+                replies.clear();
+                stored.clear();
+                start = System.currentTimeMillis();
+                db.startGroup();
+            }
 
-                    case CACHE_MEME:
-                        logger.println("Caching meme " + msg.getLink());
-                        id = db.cache(msg.getUsername(), msg.getLink(), msg.getTags());
-                        if(id != null){
-                            outputQ.put(new MemeDBMsg3000()
-                                    .type(SUBMIT_ACK)
-                                    .id(id)
-                                    .username(msg.getUsername())
-                                    .message("Stored meme to the Cache. It is pending admin approval.")
-                            );
-                        }
-                        else
-                            getDBError(msg, false);
-                        break;
+            MemeDBResult3000<Boolean> started = call(db, msg, MemeStorageEngine3000::startGroupItem);
+            if(!started.isOk()){
+                replies.add(dbError(started, msg, false));
+                continue;
+            }
+            try {
+                replies.add(submit(msg, stored));
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                replies.add(new MemeDBMsg3000()
+                        .type(MemeDBMsg3000.MsgDBType.ERROR)
+                        .message("MemeDBC failed handling a message of type " + msg.getType() + ": " + e)
+                        .tags(msg.getTags())
+                        .username(msg.getUsername())
+                        .id(msg.getId()));
+            }
+        }
+        finishGroup(replies, stored);
+    }
 
-                    case PROMOTE_MEME:
-                        logger.println("Promoting meme " + msg.getId());
-                        username = db.promote(msg.getId(), msg.getUsername(), msg.getTags());
-                        link = db.get(msg.getId());
-                        if(link != null && username != null){
-                            outputQ.put(new MemeDBMsg3000()
-                                    .type(CURATE_RESULT)
-                                    .message("This meme has been approved with tags: " + msg.getTags().toString())
-                                    .id(msg.getId())
-                                    .link(link)
-                                    .username(username)
-                            );
-                        }
-                        else
-                            getDBError(msg, false);
-                        break;
+    /**
+     * Commits the group and puts the replies of its items into the outputQ.
+     * If the commit fails no item was stored, so every acknowledgement becomes an error.
+     * @param replies replies of the items in the group
+     * @param stored memes the group approved directly
+     */
+    private void finishGroup(List<MemeDBMsg3000> replies, List<MemeDBMsg3000> stored){
+        MemeDBResult3000<Boolean> committed = db.call(MemeStorageEngine3000::commitGroup);
+        if(committed.isOk())
+            approved(stored);
+        try {
+            for(MemeDBMsg3000 reply : replies){
+                if(!committed.isOk() && reply.getType() == SUBMIT_ACK){
+                    reply = new MemeDBMsg3000()
+                            .type(MemeDBMsg3000.MsgDBType.ERROR)
+                            .message(committed.getMessage())
+                            .username(reply.getUsername())
+                            .id(reply.getId());
+                }
+                outputQ.put(reply);
+            }
+        } catch (InterruptedException e) {
+            logger.println(MemeLogger3000.level.ERROR, e.getStackTrace().toString());
+        }
+    }
 
-                    case DEMOTE_MEME:
-                        logger.println("Demoting meme " + msg.getId());
-                        link = db.get(msg.getId());
-                        username = db.demote(msg.getId());
-                        if(link != null && username != null){
-                            outputQ.put(new MemeDBMsg3000()
-                                    .type(REPLENISH_Q)
-                                    .id(msg.getId())
-                                    .link(link)
-                                    .username(username)
-                            );
-                        }
-                        else
-                            getDBError(msg, false);
-                        break;
+    /**
+     * Stores or caches a submission
+     * @param msg a STORE_MEME or CACHE_MEME message
+     * @param stored gets the ID and tags of a stored meme, to announce once it is committed
+     * @return the acknowledgement or the error to send back
+     */
+    private MemeDBMsg3000 submit(MemeDBMsg3000 msg, List<MemeDBMsg3000> stored){
+        MemeDBResult3000<Integer> id;
+        if(msg.getType() == STORE_MEME){
+            logger.println("Storing meme " + msg.getLink());
+            id = call(db, msg, d -> d.store(msg.getUsername(), msg.getLink(), msg.getTags()));
+            if(!id.isOk())
+                return dbError(id, msg, false);
+            stored.add(new MemeDBMsg3000().id(id.getValue()).tags(msg.getTags()));
+            return new MemeDBMsg3000()
+                    .type(SUBMIT_ACK)
+                    .username(msg.getUsername())
+                    .message("Stored meme to MemeDB");
+        }
 
-                    case REJECT_MEME:
-                        logger.println("Rejecting meme " + msg.getId());
-                        link = db.getCache(msg.getId());
-                        username = db.reject(msg.getId());
-                        if(link != null && username != null){
-                            outputQ.put(new MemeDBMsg3000()
-                                    .type(CURATE_RESULT)
-                                    .message("This meme has been rejected.")
-                                    .id(msg.getId())
-                                    .link(link)
-                                    .username(username)
-                            );
-                        }
-                        else
-                            getDBError(msg, false);
-                        break;
+        logger.println("Caching meme " + msg.getLink());
+        id = call(db, msg, d -> d.cache(msg.getUsername(), msg.getLink(), msg.getTags()));
+        if(!id.isOk())
+            return dbError(id, msg, false);
+        return new MemeDBMsg3000()
+                .type(SUBMIT_ACK)
+                .id(id.getValue())
+                .username(msg.getUsername())
+                .message("Stored meme to the Cache. It is pending admin approval.");
+    }
 
-                    case TERMINATE:
-                        logger.println("Terminating");
-                        db.close();
-                        return;
+    /**
+     * Lets the fetch buffers and decks know about memes that are approved now
+     * @param memes ID and tags of each meme
+     */
+    private void approved(List<MemeDBMsg3000> memes){
+        for(MemeDBMsg3000 meme : memes){
+            prefetch.promoted(meme.getTags());
+            if(decks != null)
+                decks.promoted(meme.getId(), meme.getTags());
+        }
+    }
 
-                    default:
-                        logger.println(MemeLogger3000.level.ERROR, "MemeDBC cannot handle a message of type: " + msg.getType().toString());
+    /**
+     * @param type message type
+     * @return whether the message is a submission that can join a group commit
+     */
+    private boolean isSubmission(MemeDBMsg3000.MsgDBType type){
+        return type == STORE_MEME || type == CACHE_MEME;
+    }
+
+    /**
+     * @param type message type
+     * @return whether the message only reads from the DB
+     */
+    private boolean isRead(MemeDBMsg3000.MsgDBType type){
+        return type == GET_MEME_TAGS || type == GET_MEME_ID || type == GET_TAGS;
+    }
+
+    /**
+     * Resolves the tags a boolean query asks for the same way as the tags of a plain fetch.
+     * Excluded tags are kept as typed, a near miss would exclude memes the user never asked to filter out.
+     * @param db the connection to use
+     * @param query the query as requested
+     * @return the query over the resolved tags
+     */
+    private MemeTagQuery3000 resolveQuery(MemeStorageEngine3000 db, MemeTagQuery3000 query){
+        List<String> requested = query.getIncludedTags();
+        List<String> resolved = db.resolveTags(requested);
+        if(resolved == null || resolved.equals(requested))
+            return query;
+        Map<String, String> renames = new HashMap<>();
+        for(int i=0;i<requested.size();i++)
+            renames.put(requested.get(i), resolved.get(i));
+        MemeTagQuery3000 renamed = query.renameIncluded(renames::get);
+        logger.println("Resolved query " + query + " to " + renamed);
+        return renamed;
+    }
+
+    /**
+     * Deals the next meme of the channel's deck for the tags of a fetch
+     * @param db the connection to use
+     * @param msg the fetch
+     * @param tags resolved tags of the fetch
+     * @return the link or null if nothing could be dealt
+     */
+    private String deal(MemeStorageEngine3000 db, MemeDBMsg3000 msg, List<String> tags){
+        // a reader can deal a meme the writer just demoted, deal again when the row is gone
+        for(int attempt=0;attempt<DEAL_ATTEMPTS;attempt++){
+            Integer id = decks.deal(msg.getChannelID(), tags, members -> {
+                int[] ids = call(db, msg, d -> d.getIDs(members)).getValue();
+                return ids == null ? new int[0] : ids;
+            });
+            if(id == null)
+                return null;
+            String link = call(db, msg, d -> d.get(id)).getValue();
+            if(link != null)
+                return link;
+        }
+        return null;
+    }
+
+    /**
+     * Tops up the fetch buffer of a tag set in the background when it runs low
+     * @param tags tags of a fetch
+     */
+    private void refill(List<String> tags){
+        if(!prefetch.startRefill(tags))
+            return;
+        // runs on the writer thread itself when there is no prefetch reader
+        MemeStorageEngine3000 reader = prefetchReader == null ? db : prefetchReader;
+        prefetchPool.execute(() -> {
+            try {
+                long drawnAt = prefetch.generation();
+                for(int i=0;i<2*config.getPrefetchDepth();i++){
+                    Integer id = reader.call(d -> d.getID(tags)).getValue();
+                    if(id == null)
+                        break;
+                    String link = reader.call(d -> d.get(id)).getValue();
+                    if(link != null && !prefetch.offer(tags, id, link, drawnAt))
+                        break;
                 }
+            } finally {
+                prefetch.refilled(tags);
+            }
+        });
+    }
+
+    /**
+     * Starts a backup next to the message handling, the backup logs what it copied
+     */
+    private void startBackup(){
+        if(backup == null){
+            logger.println(MemeLogger3000.level.ERROR, "Online backups need the sqlite storage engine");
+            return;
+        }
+        logger.println("Starting a backup to " + backup.getTarget());
+        backupPool.execute(backup::backup);
+    }
+
+    /**
+     * Waits for every scheduled message to be handled and closes all connections
+     */
+    private void shutdown(){
+        CompletableFuture.allOf(inFlight.toArray(new CompletableFuture<?>[0])).join();
+        if(prefetch.getHits() + prefetch.getMisses() > 0)
+            logger.println("Fetch buffers answered " + prefetch.getHits() + " of " + (prefetch.getHits() + prefetch.getMisses()) + " tagged fetches");
+        if(prefetchPool != writer){
+            prefetchPool.shutdown();
+            try {
+                prefetchPool.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                logger.println(MemeLogger3000.level.ERROR, e.getStackTrace().toString());
+            }
+            prefetchReader.close();
+        }
+        if(backup != null){
+            // a running backup finishes unthrottled, one that has not started yet is dropped
+            backup.stop();
+            backupPool.shutdownNow();
+            try {
+                backupPool.awaitTermination(1, TimeUnit.MINUTES);
             } catch (InterruptedException e) {
                 logger.println(MemeLogger3000.level.ERROR, e.getStackTrace().toString());
-                db.close();
-                return;
             }
         }
+        writer.shutdown();
+        if(readPool != null)
+            readPool.shutdown();
+        for(MemeStorageEngine3000 reader : readers)
+            reader.close();
+        db.close();
     }
 
     /**
-     * Puts an error message into the output
-     * @param msg the error message from the DB
-     * @param fatal indicates if this error breaks the controller
-     * @throws InterruptedException
-     */
-    private void getDBError(MemeDBMsg3000 msg, Boolean fatal){
-        MemeDBMsg3000 errorMsg = new MemeDBMsg3000()
-                                    .type(MemeDBMsg3000.MsgDBType.ERROR)
-                                    .message((fatal ? "[ FATAL ] " : "") + db.getError())
-                                    .tags(msg.getTags())
-                                    .username(msg.getUsername())
-                                    .id(msg.getId());
+     * Performs the action of a message on a DB connection and puts the result into the outputQ
+     * @param db the connection to use
+     * @param msg the message to handle
+     */
+    private void handle(MemeStorageEngine3000 db, MemeDBMsg3000 msg){
+        MemeDBResult3000<String> found, done;
+        MemeDBResult3000<List<String>> tags;
         try {
-            outputQ.put(errorMsg);
+            switch(msg.getType()) {
+                case INITIALIZE:
+                    logger.println("Initializing...");
+                    // Move memes that are older back into the cache to be re-curated
+                    MemeDBResult3000<Integer> expired = call(db, msg, MemeStorageEngine3000::demoteExpired);
+                    if(!expired.isOk())
+                        outputQ.put(dbError(expired, msg, false));
+                    prefetch.clear();
+                    if(decks != null)
+                        decks.clear();
+
+                    // any cache memes need to be added to the Q, streamed so they go out while the scan runs
+                    try (MemeIDCursor3000 cursor = db.cacheIdCursor(ID_CHUNK)) {
+                        for(int n=cursor.next();n>0;n=cursor.next()){
+                            for(int i=0;i<n;i++){
+                                outputQ.put(new MemeDBMsg3000()
+                                        .type(REPLENISH_Q)
+                                        .id(cursor.chunk()[i])
+                                );
+                            }
+                        }
+                    } catch (SQLException e) {
+                        e.printStackTrace();
+                        logger.println(MemeLogger3000.level.ERROR, "Failed streaming the cache ids: " + e.getMessage());
+                    }
+
+                    // send all the existing tags tot he info channel
+                    tags = call(db, msg, MemeStorageEngine3000::getTags);
+                    outputQ.put(new MemeDBMsg3000()
+                            .type(ALL_TAGS)
+                            .tags(tags.getValue())
+                    );
+
+                    // confirm with switchboard that DB inited
+                    outputQ.put(new MemeDBMsg3000().type(INIT_ACK));
+                    break;
+
+                case GET_TAGS:
+                    logger.println("Getting all tags");
+                    tags = call(db, msg, MemeStorageEngine3000::getTags);
+                    outputQ.put(new MemeDBMsg3000()
+                            .type(ALL_TAGS)
+                            .tags(tags.getValue())
+                    );
+                    break;
+
+                case GET_MEME_ID:
+                    logger.println("Getting info for meme of ID " + msg.getId() + " to be approved");
+                    found = call(db, msg, d -> d.getCache(msg.getId()));
+                    tags = call(db, msg, d -> d.getTags(msg.getId()));
+                    if(found.isOk()){
+                        outputQ.put(new MemeDBMsg3000()
+                                .type(APPROVE_MEME)
+                                .id(msg.getId())
+                                .link(found.getValue())
+                                .tags(tags.getValue())
+                        );
+                    }
+                    else
+                        outputQ.put(dbError(found, msg, false));
+                    break;
+
+                case GET_MEME_TAGS:
+                    logger.println("Getting all tags for meme of ID " + msg.getId());
+                    String link = null;
+                    found = null;
+                    if(msg.getQuery() != null)
+                        found = call(db, msg, d -> d.get(resolveQuery(d, msg.getQuery())));
+                    else {
+                        // typos and partial tags go to the closest tags on approved memes
+                        List<String> resolved = call(db, msg, d -> d.resolveTags(msg.getTags())).getValue();
+                        if(resolved != null && !resolved.equals(msg.getTags()))
+                            logger.println("Resolved tags " + msg.getTags() + " to " + resolved);
+                        if(decks != null && msg.getChannelID() != null)
+                            link = deal(db, msg, resolved);
+                        else {
+                            link = prefetch.take(resolved);
+                            refill(resolved);
+                        }
+                        if(link == null)
+                            found = call(db, msg, d -> d.get(resolved));
+                    }
+                    if(found != null)
+                        link = found.getValue();
+                    if(link != null){
+                        outputQ.put(new MemeDBMsg3000()
+                                .type(MEME)
+                                .link(link)
+                                .id(msg.getId())
+                                .username(msg.getUsername())
+                                .channelID(msg.getChannelID())
+                        );
+                    }
+                    else
+                        outputQ.put(dbError(found, msg, false));
+                    break;
+
+                case STORE_MEME:
+                case CACHE_MEME:
+                    List<MemeDBMsg3000> stored = new ArrayList<>();
+                    outputQ.put(submit(msg, stored));
+                    approved(stored);
+                    break;
+
+                case PROMOTE_MEME:
+                    logger.println("Promoting meme " + msg.getId());
+                    done = call(db, msg, d -> d.promote(msg.getId(), msg.getUsername(), msg.getTags()));
+                    if(done.isOk())
+                        approved(Arrays.asList(msg));
+                    found = call(db, msg, d -> d.get(msg.getId()));
+                    if(done.isOk() && found.isOk()){
+                        outputQ.put(new MemeDBMsg3000()
+                                .type(CURATE_RESULT)
+                                .message("This meme has been approved with tags: " + msg.getTags().toString())
+                                .id(msg.getId())
+                                .link(found.getValue())
+                                .username(done.getValue())
+                        );
+                    }
+                    else
+                        outputQ.put(dbError(done.isOk() ? found : done, msg, false));
+                    break;
+
+                case DEMOTE_MEME:
+                    logger.println("Demoting meme " + msg.getId());
+                    found = call(db, msg, d -> d.get(msg.getId()));
+                    done = call(db, msg, d -> d.demote(msg.getId()));
+                    if(done.isOk()){
+                        prefetch.demoted(msg.getId());
+                        if(decks != null)
+                            decks.demoted(msg.getId());
+                    }
+                    if(found.isOk() && done.isOk()){
+                        outputQ.put(new MemeDBMsg3000()
+                                .type(REPLENISH_Q)
+                                .id(msg.getId())
+                                .link(found.getValue())
+                                .username(done.getValue())
+                        );
+                    }
+                    else
+                        outputQ.put(dbError(found.isOk() ? done : found, msg, false));
+                    break;
+
+                case REJECT_MEME:
+                    logger.println("Rejecting meme " + msg.getId());
+                    found = call(db, msg, d -> d.getCache(msg.getId()));
+                    done = call(db, msg, d -> d.reject(msg.getId()));
+                    if(found.isOk() && done.isOk()){
+                        outputQ.put(new MemeDBMsg3000()
+                                .type(CURATE_RESULT)
+                                .message("This meme has been rejected.")
+                                .id(msg.getId())
+                                .link(found.getValue())
+                                .username(done.getValue())
+                        );
+                    }
+                    else
+                        outputQ.put(dbError(found.isOk() ? done : found, msg, false));
+                    break;
+
+                default:
+                    logger.println(MemeLogger3000.level.ERROR, "MemeDBC cannot handle a message of type: " + msg.getType().toString());
+            }
         } catch (InterruptedException e) {
-            logger.println(MemeLogger3000.level.ERROR, "Cannot output error to outputQ." +
-                    "\nMsg type: " + msg.getType() +
-                    "\nTags: " + msg.getTags() +
-                    "\nUsername: " + msg.getUsername() +
-                    "\nID: " + msg.getId() +
-                    "\n Stacktrace: " + e.getStackTrace().toString());
+            logger.println(MemeLogger3000.level.ERROR, e.getStackTrace().toString());
+        } catch (RuntimeException e) {
+            // keep the controller alive, later messages with the same key are still waiting on this one
+            e.printStackTrace();
+            logger.println(MemeLogger3000.level.ERROR, "MemeDBC failed handling a message of type " + msg.getType() + ": " + e);
         }
     }
 
+    /**
+     * Runs one DB call for a message and warns when it took longer than slowCallMillis
+     * @param db the connection to use
+     * @param msg the message the call is for
+     * @param op the call
+     * @return the outcome of the call
+     */
+    private <T> MemeDBResult3000<T> call(MemeStorageEngine3000 db, MemeDBMsg3000 msg, Function<MemeStorageEngine3000, T> op){
+        MemeDBResult3000<T> result = db.call(op);
+        if(slowCallMillis > 0 && result.getMillis() >= slowCallMillis)
+            logger.println(MemeLogger3000.level.WARNING, "Slow DB call handling a message of type " + msg.getType() + ": " + result);
+        return result;
+    }
+
+    /**
+     * Builds the error message for a failed DB call
+     * @param result the failed call
+     * @param msg the message that failed
+     * @param fatal indicates if this error breaks the controller
+     * @return the error message
+     */
+    private MemeDBMsg3000 dbError(MemeDBResult3000<?> result, MemeDBMsg3000 msg, Boolean fatal){
+        return new MemeDBMsg3000()
+                .type(MemeDBMsg3000.MsgDBType.ERROR)
+                .message((fatal ? "[ FATAL ] " : "") + result.getMessage())
+                .tags(msg.getTags())
+                .username(msg.getUsername())
+                .id(msg.getId());
+    }
 }
@@ -0,0 +1,86 @@
+package database;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome of one storage engine call: its value, or the kind of failure and its message, and how long the call took.
+ * Built by {@link MemeStorageEngine3000#call(java.util.function.Function)} right after the call ran. A result never
+ * changes, so it stays correct after later calls overwrite the engine's error.
+ * @param <T> type of the value
+ */
+public class MemeDBResult3000<T> {
+    public enum Failure {
+        NOT_FOUND,  // no meme with the ID, or none with the tags
+        DUPLICATE,  // the link was already submitted
+        INVALID,    // the request cannot be stored as is, like a null tag
+        STORAGE     // the storage itself failed, like a SQL error or a broken log
+    }
+
+    private final T value;
+    private final Failure failure;
+    private final String message;
+    private final long nanos;
+
+    private MemeDBResult3000(T value, Failure failure, String message, long nanos) {
+        this.value = value;
+        this.failure = failure;
+        this.message = message;
+        this.nanos = nanos;
+    }
+
+    /**
+     * @param value value of the call
+     * @param nanos time the call took
+     * @return a successful result
+     */
+    static <T> MemeDBResult3000<T> ok(T value, long nanos) {
+        return new MemeDBResult3000<>(value, null, "", nanos);
+    }
+
+    /**
+     * @param failure kind of failure
+     * @param message error message of the engine, may be empty
+     * @param nanos time the call took
+     * @return a failed result
+     */
+    static <T> MemeDBResult3000<T> failed(Failure failure, String message, long nanos) {
+        return new MemeDBResult3000<>(null, failure, message == null ? "" : message, nanos);
+    }
+
+    public boolean isOk() {
+        return failure == null;
+    }
+
+    /**
+     * @return the value of the call, null if it failed
+     */
+    public T getValue() {
+        return value;
+    }
+
+    /**
+     * @return the kind of failure, null if the call succeeded
+     */
+    public Failure getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return the error message of a failed call, empty when the engine gave none
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    public long getMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    public String toString() {
+        return (isOk() ? "OK " + value : failure + " " + message) + " in " + getMillis() + " ms";
+    }
+}
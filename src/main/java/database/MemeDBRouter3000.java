@@ -0,0 +1,172 @@
+package database;
+
+import app.MemeConfigLoader3000;
+import datastructures.MemeDBMsg3000;
+import datastructures.MemeLogger3000;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static datastructures.MemeDBMsg3000.MsgDBType.*;
+
+/**
+ * Splits the memes into shards, one DB file per shard key listed in dbShards (usually guild IDs), and routes every
+ * message in the inputQ to the controller of its shard. Each shard has its own controller, writer and indexes,
+ * so a busy shard does not hold up the others. Messages without a shard key, or with a key that is not listed,
+ * go to the default shard, which keeps the DB files as configured. Replies carry the shard key of the controller
+ * that sent them, and follow-up messages about the same meme must carry it back. Fetches use the guild they were
+ * sent from, DM submissions the first guild the submitter is a member of. Pending memes of every shard are curated in
+ * the one approval channel.
+ */
+public class MemeDBRouter3000 extends Thread{
+    private static final String DEFAULT_SHARD = "";
+
+    /**
+     * A shard controller and the thread moving its replies into the shared outputQ
+     */
+    private class Shard extends Thread{
+        private final String key;
+        private final BlockingQueue<MemeDBMsg3000> inputQ;
+        private final BlockingQueue<MemeDBMsg3000> outputQ;
+        private final MemeDBC3000 controller;
+
+        Shard(String key){
+            this.key = key;
+            inputQ = new LinkedBlockingQueue<>();
+            outputQ = new LinkedBlockingQueue<>();
+            controller = new MemeDBC3000(config.shard(key), logger, inputQ, outputQ);
+        }
+
+        public void run(){
+            try {
+                while(true){
+                    MemeDBMsg3000 msg = outputQ.take();
+                    // put here by the router once the controller is done
+                    if(msg.getType() == TERMINATE)
+                        return;
+                    // the switchboard waits for one INIT_ACK, sent once every shard initialized
+                    if(msg.getType() == INIT_ACK && initAcks.decrementAndGet() != 0)
+                        continue;
+                    output.put(msg.shard(key.isEmpty() ? null : key));
+                }
+            } catch (InterruptedException e) {
+                logger.println(MemeLogger3000.level.ERROR, e.getStackTrace().toString());
+            }
+        }
+    }
+
+    private MemeConfigLoader3000 config;
+    private MemeLogger3000 logger;
+    private BlockingQueue<MemeDBMsg3000> input;
+    private BlockingQueue<MemeDBMsg3000> output;
+    private Map<String, Shard> shards;
+    // INIT_ACKs still to come before the switchboard gets its own
+    private AtomicInteger initAcks;
+
+    public MemeDBRouter3000(MemeConfigLoader3000 config, MemeLogger3000 logger, BlockingQueue<MemeDBMsg3000> inQ, BlockingQueue<MemeDBMsg3000> outQ){
+        this(config, logger, inQ, outQ, Arrays.asList(config.getDbShards().split(",")));
+    }
+
+    /**
+     * @param shardKeys keys of the shards next to the default one, blank keys are skipped
+     */
+    MemeDBRouter3000(MemeConfigLoader3000 config, MemeLogger3000 logger, BlockingQueue<MemeDBMsg3000> inQ, BlockingQueue<MemeDBMsg3000> outQ, List<String> shardKeys){
+        this.config = config;
+        this.logger = logger;
+        this.input = inQ;
+        this.output = outQ;
+        shards = new LinkedHashMap<>();
+        initAcks = new AtomicInteger(0);
+
+        open(DEFAULT_SHARD);
+        for(String key : shardKeys){
+            if(!key.trim().isEmpty() && !shards.containsKey(key.trim()))
+                open(key.trim());
+        }
+    }
+
+    public void run(){
+        MemeDBMsg3000 msg;
+        while(true){
+            try {
+                msg = input.take();
+                switch(msg.getType()){
+                    case TERMINATE:
+                        logger.println("Terminating " + shards.size() + " shards");
+                        shutdown();
+                        return;
+
+                    case INITIALIZE:
+                        initAcks.addAndGet(shards.size());
+                        broadcast(msg);
+                        break;
+
+                    case BACKUP:
+                        broadcast(msg);
+                        break;
+
+                    default:
+                        shard(msg.getShard()).inputQ.put(msg);
+                }
+            } catch (InterruptedException e) {
+                logger.println(MemeLogger3000.level.ERROR, e.getStackTrace().toString());
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the keys of the open shards, the default shard first as an empty key
+     */
+    public List<String> getShardKeys(){
+        return new ArrayList<>(shards.keySet());
+    }
+
+    /**
+     * @param key shard key, null for the default shard
+     * @return the shard of the key, the default shard when the key has none
+     */
+    private Shard shard(String key){
+        Shard shard = key == null ? null : shards.get(key);
+        return shard != null ? shard : shards.get(DEFAULT_SHARD);
+    }
+
+    /**
+     * Opens a shard and starts its controller
+     * @param key shard key
+     */
+    private void open(String key){
+        logger.println("Opening DB shard " + (key.isEmpty() ? "(default)" : key));
+        Shard shard = new Shard(key);
+        shards.put(key, shard);
+        shard.controller.start();
+        shard.start();
+    }
+
+    /**
+     * Sends a message to every shard
+     * @param msg the message
+     */
+    private void broadcast(MemeDBMsg3000 msg) throws InterruptedException {
+        for(Shard shard : shards.values())
+            shard.inputQ.put(msg);
+    }
+
+    /**
+     * Stops every shard controller, then the threads forwarding their replies
+     */
+    private void shutdown() throws InterruptedException {
+        broadcast(new MemeDBMsg3000().type(TERMINATE));
+        for(Shard shard : shards.values()){
+            shard.controller.join();
+            shard.outputQ.put(new MemeDBMsg3000().type(TERMINATE));
+            shard.join();
+        }
+    }
+}
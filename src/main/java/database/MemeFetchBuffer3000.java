@@ -0,0 +1,226 @@
+package database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Buffers of random meme links drawn ahead of time for the most requested tag sets, so a popular fetch is answered
+ * from memory. Each entry is an independent random draw, so serving from a buffer keeps picks uniform.
+ * A promote empties the buffers it adds a member to, a demote drops its meme from every buffer, and a refill that
+ * raced with either is dropped instead of buffering memes that may be stale.
+ */
+public class MemeFetchBuffer3000 {
+
+    /**
+     * Ring of buffered draws for one tag set
+     */
+    private static class Buffer {
+        final List<String> tags;
+        final int[] ids;
+        final String[] links;
+        int head;
+        int size;
+        boolean refilling;
+
+        Buffer(List<String> tags, int depth) {
+            this.tags = tags;
+            ids = new int[depth];
+            links = new String[depth];
+            head = 0;
+            size = 0;
+            refilling = false;
+        }
+
+        void add(int id, String link) {
+            int tail = (head + size++) % ids.length;
+            ids[tail] = id;
+            links[tail] = link;
+        }
+
+        String poll() {
+            String link = links[head];
+            links[head] = null;
+            head = (head + 1) % ids.length;
+            size--;
+            return link;
+        }
+
+        void remove(int id) {
+            int kept = 0;
+            for(int i = 0; i < size; i++) {
+                int from = (head + i) % ids.length;
+                if(ids[from] == id)
+                    continue;
+                int to = (head + kept++) % ids.length;
+                ids[to] = ids[from];
+                links[to] = links[from];
+            }
+            for(int i = kept; i < size; i++)
+                links[(head + i) % ids.length] = null;
+            size = kept;
+        }
+
+        void clear() {
+            Arrays.fill(links, null);
+            head = 0;
+            size = 0;
+        }
+    }
+
+    private final int depth;
+    private final int hotAfter;
+    // requests per tag set, only the recently requested ones are remembered
+    private final LinkedHashMap<String, Integer> requests;
+    private final LinkedHashMap<String, Buffer> buffers;
+    // bumped by every change of membership so refills that started before it know their draws may be stale
+    private long generation;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param tagSets most tag sets buffered, 0 turns buffering off
+     * @param depth links kept per tag set
+     * @param hotAfter requests of a tag set before it gets a buffer
+     */
+    MemeFetchBuffer3000(int tagSets, int depth, int hotAfter) {
+        this.depth = depth;
+        this.hotAfter = hotAfter;
+        requests = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                return size() > 4 * tagSets;
+            }
+        };
+        buffers = new LinkedHashMap<String, Buffer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Buffer> eldest) {
+                return size() > tagSets;
+            }
+        };
+        generation = 0;
+        hits = 0;
+        misses = 0;
+    }
+
+    /**
+     * Takes a buffered link for a fetch and counts the request
+     * @param tags tags of the fetch
+     * @return a random link with all of the tags or null when none is buffered
+     */
+    public synchronized String take(List<String> tags) {
+        String key = key(tags);
+        Buffer buffer = buffers.get(key);
+        if(buffer != null && buffer.size > 0) {
+            hits++;
+            return buffer.poll();
+        }
+        misses++;
+        int count = requests.merge(key, 1, Integer::sum);
+        if(buffer == null && count >= hotAfter && depth > 0)
+            buffers.put(key, new Buffer(sortedTags(tags), depth));
+        return null;
+    }
+
+    /**
+     * Claims the refill of a tag set's buffer, the caller must hand it back through {@link #refilled(List)}
+     * @param tags tags of the fetch
+     * @return whether the buffer is running low and nobody is refilling it yet
+     */
+    public synchronized boolean startRefill(List<String> tags) {
+        Buffer buffer = buffers.get(key(tags));
+        if(buffer == null || buffer.refilling || buffer.size > depth / 2)
+            return false;
+        buffer.refilling = true;
+        return true;
+    }
+
+    /**
+     * Take before drawing memes for a refill and hand to {@link #offer(List, int, String, long)}
+     * @return the current generation
+     */
+    public synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Buffers a meme drawn for a tag set unless membership changed since the draw started
+     * @param tags tags of the buffer
+     * @param id ID of the meme
+     * @param link link of the meme
+     * @param drawnAt generation taken before the draw
+     * @return whether the buffer wants more
+     */
+    public synchronized boolean offer(List<String> tags, int id, String link, long drawnAt) {
+        Buffer buffer = buffers.get(key(tags));
+        if(buffer == null || drawnAt != generation || buffer.size >= depth)
+            return false;
+        buffer.add(id, link);
+        return buffer.size < depth;
+    }
+
+    /**
+     * Ends a refill claimed with {@link #startRefill(List)}
+     * @param tags tags of the buffer
+     */
+    public synchronized void refilled(List<String> tags) {
+        Buffer buffer = buffers.get(key(tags));
+        if(buffer != null)
+            buffer.refilling = false;
+    }
+
+    /**
+     * A meme was approved, every buffer whose tags it has is missing it from its draws
+     * @param tags tags of the promoted meme
+     */
+    public synchronized void promoted(List<String> tags) {
+        generation++;
+        for(Buffer buffer : buffers.values()) {
+            if(tags != null && tags.containsAll(buffer.tags))
+                buffer.clear();
+        }
+    }
+
+    /**
+     * A meme went back to the cache and must not be served anymore
+     * @param id ID of the demoted meme
+     */
+    public synchronized void demoted(int id) {
+        generation++;
+        for(Buffer buffer : buffers.values())
+            buffer.remove(id);
+    }
+
+    /**
+     * Empties every buffer
+     */
+    public synchronized void clear() {
+        generation++;
+        for(Buffer buffer : buffers.values())
+            buffer.clear();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @param tags tags of a fetch in any order
+     * @return the same key for every order and repetition of the tags
+     */
+    private static String key(List<String> tags) {
+        return String.join("\u0000", sortedTags(tags));
+    }
+
+    private static List<String> sortedTags(List<String> tags) {
+        return tags == null ? Collections.emptyList() : new ArrayList<>(new TreeSet<>(tags));
+    }
+}
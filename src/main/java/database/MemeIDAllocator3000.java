@@ -0,0 +1,107 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Hands out meme IDs from blocks reserved in a persisted sequence table (hi/lo).
+ * A block is reserved by bumping the sequence inside the caller's transaction, so it becomes durable
+ * together with the first rows that use it and is dropped again if that transaction rolls back.
+ * The sequence only ever grows, IDs of rejected memes are never handed out again, and writers in
+ * other threads or processes serialize on SQLite's write lock while reserving.
+ */
+public class MemeIDAllocator3000 {
+    private final String seqTableName;
+    private final String name;
+    private final int blockSize;
+    // the block being handed out is [next, limit)
+    private int next;
+    private int limit;
+    // whether the block was reserved in the transaction that is still open
+    private boolean pending;
+
+    /**
+     * @param seqTableName table holding the sequences
+     * @param name name of the sequence in the table
+     * @param blockSize how many IDs are reserved at once
+     */
+    MemeIDAllocator3000(String seqTableName, String name, int blockSize) {
+        this.seqTableName = seqTableName;
+        this.name = name;
+        this.blockSize = blockSize;
+        reset();
+    }
+
+    /**
+     * Gets the next free ID, reserving a new block when the current one runs out
+     * @param conn writer connection with autocommit off, the reservation joins its transaction
+     * @return the ID
+     */
+    public synchronized int next(Connection conn) throws SQLException {
+        if(next >= limit)
+            reserve(conn);
+        return next++;
+    }
+
+    /**
+     * The transaction that reserved the current block committed, the block is durable
+     */
+    public synchronized void committed() {
+        pending = false;
+    }
+
+    /**
+     * The transaction that reserved the current block rolled back, so the block was never persisted
+     * and another writer may reserve it. Drop what is left of it.
+     */
+    public synchronized void rolledBack() {
+        if(pending)
+            reset();
+    }
+
+    /**
+     * Forgets the current block, the next ID comes from a fresh reservation
+     */
+    public synchronized void reset() {
+        next = 0;
+        limit = 0;
+        pending = false;
+    }
+
+    /**
+     * Bumps the sequence by one block and takes the IDs below the new value.
+     * The write comes first so no other writer can move the sequence between it and the read.
+     * @param conn writer connection
+     */
+    private void reserve(Connection conn) throws SQLException {
+        int updated;
+        try (PreparedStatement ps = conn.prepareStatement("UPDATE " + seqTableName + " SET next = next + ? WHERE name = ?")) {
+            ps.setInt(1, blockSize);
+            ps.setString(2, name);
+            updated = ps.executeUpdate();
+        }
+
+        // The sequence is missing, start it above every ID in use
+        if(updated == 0) {
+            try (PreparedStatement ps = conn.prepareStatement("INSERT INTO " + seqTableName + " (name, next) " +
+                    "SELECT ?, COALESCE(MAX(id), 0) + 1 + ? FROM (SELECT id FROM " + MemeDB3000.memeTableName + " UNION ALL SELECT id FROM " + MemeDB3000.cacheTableName + ")")) {
+                ps.setString(1, name);
+                ps.setInt(2, blockSize);
+                ps.executeUpdate();
+            }
+        }
+
+        try (PreparedStatement ps = conn.prepareStatement("SELECT next FROM " + seqTableName + " WHERE name = ?")) {
+            ps.setString(1, name);
+            try (ResultSet rs = ps.executeQuery()) {
+                if(!rs.next())
+                    throw new SQLException("Sequence " + name + " missing from " + seqTableName);
+                limit = rs.getInt("next");
+            }
+        }
+        next = limit - blockSize;
+        pending = true;
+    }
+}
@@ -0,0 +1,143 @@
+package database;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * Streams meme IDs in fixed-size chunks of primitive ints,
+ * so a scan over a large table never holds more than one chunk in memory.
+ */
+public abstract class MemeIDCursor3000 implements AutoCloseable {
+    private final int[] chunk;
+    private long count;
+
+    /**
+     * @param chunkSize how many IDs are read per chunk
+     */
+    protected MemeIDCursor3000(int chunkSize) {
+        this.chunk = new int[chunkSize];
+        count = 0;
+    }
+
+    /**
+     * Opens a cursor over the first column of a query
+     * @param ps statement the cursor owns and closes, with its params already bound
+     * @param chunkSize how many IDs are read per chunk
+     * @param onClose run once the cursor is closed
+     * @return the cursor
+     * @throws SQLException
+     */
+    static MemeIDCursor3000 of(PreparedStatement ps, int chunkSize, Runnable onClose) throws SQLException {
+        return new ResultSetCursor(ps, chunkSize, onClose);
+    }
+
+    /**
+     * Opens a cursor over IDs already in memory
+     * @param ids the IDs, copied so later changes to the array do not show up in the scan
+     * @param chunkSize how many IDs are read per chunk
+     * @return the cursor
+     */
+    static MemeIDCursor3000 of(int[] ids, int chunkSize) {
+        return new ArrayCursor(ids, chunkSize);
+    }
+
+    /**
+     * Reads the next chunk of IDs into the buffer returned by {@link #chunk()}
+     * @return how many IDs were read, 0 once the scan is over
+     * @throws SQLException
+     */
+    public int next() throws SQLException {
+        int size = fill(chunk);
+        count += size;
+        return size;
+    }
+
+    /**
+     * @return the buffer filled by {@link #next()}, reused between chunks
+     */
+    public int[] chunk() {
+        return chunk;
+    }
+
+    /**
+     * @return how many IDs have been read so far
+     */
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public abstract void close();
+
+    /**
+     * Reads up to a chunk of IDs from the source
+     * @param chunk buffer to fill from the start
+     * @return how many IDs were read
+     * @throws SQLException
+     */
+    protected abstract int fill(int[] chunk) throws SQLException;
+
+    private static class ResultSetCursor extends MemeIDCursor3000 {
+        private final PreparedStatement ps;
+        private final ResultSet rs;
+        private final Runnable onClose;
+        private boolean done;
+
+        ResultSetCursor(PreparedStatement ps, int chunkSize, Runnable onClose) throws SQLException {
+            super(chunkSize);
+            this.ps = ps;
+            this.onClose = onClose;
+            ps.setFetchSize(chunkSize);
+            this.rs = ps.executeQuery();
+            done = false;
+        }
+
+        @Override
+        protected int fill(int[] chunk) throws SQLException {
+            int size = 0;
+            while(!done && size < chunk.length) {
+                if(rs.next())
+                    chunk[size++] = rs.getInt(1);
+                else
+                    done = true;
+            }
+            return size;
+        }
+
+        @Override
+        public void close() {
+            try {
+                rs.close();
+                ps.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            onClose.run();
+        }
+    }
+
+    private static class ArrayCursor extends MemeIDCursor3000 {
+        private final int[] ids;
+        private int position;
+
+        ArrayCursor(int[] ids, int chunkSize) {
+            super(chunkSize);
+            this.ids = Arrays.copyOf(ids, ids.length);
+            position = 0;
+        }
+
+        @Override
+        protected int fill(int[] chunk) {
+            int size = Math.min(chunk.length, ids.length - position);
+            System.arraycopy(ids, position, chunk, 0, size);
+            position += size;
+            return size;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package database;
+
+import datastructures.MemeBloomFilter3000;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Hashes canonicalized links for the link uniqueness table and keeps a Bloom filter of
+ * every hash in that table, so most new links are known to be unique without a DB lookup.
+ */
+public class MemeLinkIndex3000 {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    // smallest filter built on open, so a fresh DB can take submissions before it is resized
+    private static final long MIN_ENTRIES = 1 << 16;
+
+    private MemeBloomFilter3000 filter;
+
+    MemeLinkIndex3000() {
+        filter = new MemeBloomFilter3000(MIN_ENTRIES);
+    }
+
+    /**
+     * Drops the filter and sizes a new one for the number of links about to be loaded
+     * @param expectedEntries links currently in the uniqueness table
+     */
+    public synchronized void reset(long expectedEntries) {
+        filter = new MemeBloomFilter3000(Math.max(expectedEntries * 2, MIN_ENTRIES));
+    }
+
+    /**
+     * Records a link hash as taken
+     * @param hash hash of the canonical link
+     */
+    public synchronized void add(long hash) {
+        filter.add(hash);
+    }
+
+    /**
+     * @param hash hash of the canonical link
+     * @return false when the link is definitely new, true when the DB has to be checked
+     */
+    public synchronized boolean mightContain(long hash) {
+        return filter.mightContain(hash);
+    }
+
+    /**
+     * @return whether the filter holds more links than it was sized for and should be rebuilt
+     */
+    public synchronized boolean isSaturated() {
+        return filter.isSaturated();
+    }
+
+    /**
+     * Normalizes the parts of a link that do not change what it points to:
+     * surrounding whitespace, the case of the scheme and host, the fragment and a trailing slash
+     * @param link link as submitted
+     * @return canonical form of the link
+     */
+    public static String canonicalize(String link) {
+        String canon = link.trim();
+        int fragment = canon.indexOf('#');
+        if(fragment >= 0)
+            canon = canon.substring(0, fragment);
+
+        int scheme = canon.indexOf("://");
+        if(scheme > 0) {
+            int pathStart = canon.indexOf('/', scheme + 3);
+            if(pathStart < 0)
+                pathStart = canon.length();
+            canon = canon.substring(0, pathStart).toLowerCase() + canon.substring(pathStart);
+        }
+
+        if(canon.endsWith("/"))
+            canon = canon.substring(0, canon.length() - 1);
+        return canon;
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-8 bytes of the canonical link, with a final avalanche mix
+     * @param link link as submitted
+     * @return hash of the canonical link
+     */
+    public static long hash(String link) {
+        long h = FNV_OFFSET;
+        for(byte b : canonicalize(link).getBytes(StandardCharsets.UTF_8)) {
+            h ^= (b & 0xff);
+            h *= FNV_PRIME;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,570 @@
+package database;
+
+import app.MemeConfigLoader3000;
+import datastructures.MemeLogger3000;
+import datastructures.MemeTagParser3000;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage engine that serves every fetch from memory and persists every mutation as a record appended to a
+ * memory-mapped log file, without going through JDBC. The log is replayed at open to rebuild the memes, the tag
+ * index and the sampler, and it is compacted down to the live memes once most of its records are dead.
+ * Records are written straight into the mapping, so appending one allocates nothing beyond the in-memory meme.
+ * A mutation is forced to disk before it returns, except inside a group commit, which is forced once at its commit.
+ */
+public class MemeLogDB3000 extends MemeMemoryDB3000 {
+
+    // "MEME" followed by the format version
+    private static final int MAGIC = 0x4d454d45;
+    private static final int VERSION = 1;
+    private static final int HEADER = 8;
+    // length, type byte and meme ID that every record starts with
+    private static final int RECORD_HEADER = 4 + 1 + Integer.BYTES;
+    private static final long INITIAL_SIZE = 1 << 20;
+    // compaction is not worth it for small logs
+    private static final int COMPACT_MIN_RECORDS = 4096;
+    // string lengths are unsigned shorts, this one marks null
+    private static final int NULL_STRING = 0xFFFF;
+
+    private static final byte STORE = 1;
+    private static final byte CACHE = 2;
+    private static final byte PROMOTE = 3;
+    private static final byte DEMOTE = 4;
+    private static final byte REJECT = 5;
+    private static final byte HEAD = 6;
+
+    private MemeLogger3000 logger;
+    private Path path;
+    private LogFile log;
+    // records in the log, live or dead
+    private int records;
+    // set after a failed append, memory no longer matches the log until it is replayed again
+    private boolean failed;
+    // appends are forced by commitGroup instead of one by one
+    private boolean grouped;
+    private boolean replaying;
+    private int replayID;
+    private long replayEpoch;
+
+    /**
+     * Constructor
+     * @param config the config object
+     */
+    MemeLogDB3000(MemeConfigLoader3000 config, MemeLogger3000 logger) {
+        super(config, logger);
+        this.logger = logger;
+        path = location(config);
+    }
+
+    /**
+     * @param config the config object
+     * @return the log file, next to the SQLite DB unless logStoreLocation is set
+     */
+    static Path location(MemeConfigLoader3000 config) {
+        String location = config.getLogStoreLocation();
+        if(location == null || location.isEmpty())
+            location = config.getDatabaseLocation() + ".memelog";
+        return Paths.get(location);
+    }
+
+    public synchronized Boolean open() {
+        clear();
+        records = 0;
+        failed = false;
+        grouped = false;
+        long start = System.currentTimeMillis();
+        try {
+            if(path.getParent() != null)
+                Files.createDirectories(path.getParent());
+            log = new LogFile(path);
+            replay();
+        } catch (IOException e) {
+            error("Failed to open meme log " + path + ": " + e.getMessage());
+            return false;
+        }
+        logger.println("Replayed " + records + " meme log records in " + (System.currentTimeMillis() - start) + "ms");
+        return super.open();
+    }
+
+    public synchronized Boolean close() {
+        if(log != null) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                error("Failed to close meme log " + path + ": " + e.getMessage());
+                return false;
+            } finally {
+                log = null;
+            }
+        }
+        return super.close();
+    }
+
+    public synchronized Integer store(String username, String link, List<String> tags) {
+        if(!writable())
+            return null;
+        Integer id = super.store(username, link, tags);
+        if(id == null)
+            return null;
+        try {
+            int start = log.begin(STORE, maxSize(link, username, null, tags));
+            log.buf.putInt(id);
+            log.buf.putLong(approvedMemes().get(id).epoch);
+            log.putString(link);
+            log.putString(username);
+            log.putTags(tags);
+            log.end(start);
+            records++;
+        } catch (IOException e) {
+            return appendFailed(e);
+        }
+        return appended(id);
+    }
+
+    public synchronized Integer cache(String username, String link, List<String> tags) {
+        if(!writable())
+            return null;
+        Integer id = super.cache(username, link, tags);
+        if(id == null)
+            return null;
+        try {
+            appendCache(id, link, username, tags);
+        } catch (IOException e) {
+            return appendFailed(e);
+        }
+        return appended(id);
+    }
+
+    public synchronized String promote(Integer id, String curatorName, List<String> tags) {
+        if(!writable())
+            return null;
+        String submitter = super.promote(id, curatorName, tags);
+        if(submitter == null)
+            return null;
+        try {
+            appendPromote(id, approvedMemes().get(id).epoch, curatorName, tags);
+        } catch (IOException e) {
+            return appendFailed(e);
+        }
+        return appended(submitter);
+    }
+
+    public synchronized String demote(Integer id) {
+        if(!writable())
+            return null;
+        String submitter = super.demote(id);
+        if(submitter == null)
+            return null;
+        try {
+            appendID(DEMOTE, id);
+        } catch (IOException e) {
+            return appendFailed(e);
+        }
+        return appended(submitter);
+    }
+
+    public synchronized String reject(Integer id) {
+        if(!writable())
+            return null;
+        String submitter = super.reject(id);
+        if(submitter == null)
+            return null;
+        try {
+            appendID(REJECT, id);
+        } catch (IOException e) {
+            return appendFailed(e);
+        }
+        return appended(submitter);
+    }
+
+    public synchronized void startGroup() {
+        grouped = true;
+    }
+
+    /**
+     * Flushes the log to disk once the whole group is in
+     * @return whether the log reached the disk
+     */
+    public synchronized Boolean commitGroup() {
+        grouped = false;
+        if(!writable())
+            return false;
+        log.buf.force();
+        return true;
+    }
+
+    /**
+     * Rewrites the log with only the records needed to rebuild the live memes, then swaps it in
+     * @throws IOException when the new log could not be written, the old one is kept
+     */
+    synchronized void compact() throws IOException {
+        long start = System.currentTimeMillis();
+        int before = records;
+        Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+        Files.deleteIfExists(compacted);
+
+        LogFile current = log;
+        log = new LogFile(compacted);
+        records = 0;
+        try {
+            // rejected memes may have held the highest IDs, keep them from being handed out again
+            appendID(HEAD, getHeadID());
+            for(Map.Entry<Integer, Meme> entry : cachedMemes().entrySet())
+                appendCache(entry.getKey(), entry.getValue().link, entry.getValue().submitter, entry.getValue().tags);
+            for(Map.Entry<Integer, Meme> entry : approvedMemes().entrySet()) {
+                Meme meme = entry.getValue();
+                appendCache(entry.getKey(), meme.link, meme.submitter, meme.tags);
+                appendPromote(entry.getKey(), meme.epoch, meme.curator, meme.tags);
+            }
+            log.close();
+        } catch (IOException e) {
+            log.close();
+            log = current;
+            records = before;
+            Files.deleteIfExists(compacted);
+            throw e;
+        }
+
+        current.close();
+        Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log = new LogFile(path);
+        log.buf.position(log.end());
+        logger.println("Compacted meme log from " + before + " to " + records + " records in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * @return number of records in the log
+     */
+    synchronized int getRecordCount() {
+        return records;
+    }
+
+    Integer nextID() {
+        if(!replaying)
+            return super.nextID();
+        seenID(replayID);
+        return replayID;
+    }
+
+    long now() {
+        return replaying ? replayEpoch : super.now();
+    }
+
+    /**
+     * Rebuilds the memes by applying every complete record of the log in order,
+     * stopping at the first record that does not apply
+     */
+    private void replay() {
+        MappedByteBuffer buf = log.buf;
+        int position = HEADER;
+        replaying = true;
+        try {
+            while(true) {
+                int length = recordLength(buf, position);
+                if(length == 0)
+                    break;
+                buf.position(position + 5);
+                if(!apply(buf.get(position + 4), buf)) {
+                    error("Meme log " + path + " has a bad record at offset " + position + ", ignoring the rest");
+                    break;
+                }
+                records++;
+                position += length;
+            }
+        } finally {
+            replaying = false;
+        }
+        buf.position(position);
+    }
+
+    /**
+     * A zero length is the end of the log. A length running past the mapping is a torn write, and one that is
+     * negative or too short for the record header is a corrupted tail, all of which end the log too.
+     * @param buf the log
+     * @param position offset of a record
+     * @return the length of the record, 0 when the log ends there
+     */
+    private static int recordLength(MappedByteBuffer buf, int position) {
+        if(position + RECORD_HEADER > buf.capacity())
+            return 0;
+        int length = buf.getInt(position);
+        if(length < RECORD_HEADER || length > buf.capacity() - position)
+            return 0;
+        return length;
+    }
+
+    /**
+     * @param type type of the record
+     * @param buf the log, positioned after the record header
+     * @return whether the record applied cleanly
+     */
+    private boolean apply(byte type, MappedByteBuffer buf) {
+        replayID = buf.getInt();
+        switch(type) {
+            case STORE: {
+                replayEpoch = buf.getLong();
+                String link = getString(buf);
+                String submitter = getString(buf);
+                return super.store(submitter, link, getTags(buf)) != null;
+            }
+            case CACHE: {
+                String link = getString(buf);
+                String submitter = getString(buf);
+                return super.cache(submitter, link, getTags(buf)) != null;
+            }
+            case PROMOTE: {
+                replayEpoch = buf.getLong();
+                String curator = getString(buf);
+                return super.promote(replayID, curator, getTags(buf)) != null;
+            }
+            case DEMOTE:
+                return super.demote(replayID) != null;
+            case REJECT:
+                return super.reject(replayID) != null;
+            case HEAD:
+                seenID(replayID);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void appendCache(Integer id, String link, String submitter, List<String> tags) throws IOException {
+        int start = log.begin(CACHE, maxSize(link, submitter, null, tags));
+        log.buf.putInt(id);
+        log.putString(link);
+        log.putString(submitter);
+        log.putTags(tags);
+        log.end(start);
+        records++;
+    }
+
+    private void appendPromote(Integer id, long epoch, String curator, List<String> tags) throws IOException {
+        int start = log.begin(PROMOTE, maxSize(null, null, curator, tags));
+        log.buf.putInt(id);
+        log.buf.putLong(epoch);
+        log.putString(curator);
+        log.putTags(tags);
+        log.end(start);
+        records++;
+    }
+
+    private void appendID(byte type, Integer id) throws IOException {
+        int start = log.begin(type, 0);
+        log.buf.putInt(id);
+        log.end(start);
+        records++;
+    }
+
+    /**
+     * @return whether mutations may be appended
+     */
+    private boolean writable() {
+        if(log == null) {
+            error("Meme log " + path + " is not open");
+            return false;
+        }
+        if(failed) {
+            error("Meme log " + path + " failed a write, reopen the storage to recover");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Forces the record to disk unless a group commit will, and compacts the log once dead records dominate
+     * @param result what the mutation returns
+     * @return the result
+     */
+    private <T> T appended(T result) {
+        if(!grouped)
+            log.buf.force();
+        int live = 1 + cachedMemes().size() + 2 * approvedMemes().size();
+        if(records >= COMPACT_MIN_RECORDS && records > 2 * live) {
+            try {
+                compact();
+            } catch (IOException e) {
+                logger.println(MemeLogger3000.level.ERROR, "Failed to compact meme log " + path + ": " + e.getMessage());
+            }
+        }
+        return result;
+    }
+
+    private <T> T appendFailed(IOException e) {
+        failed = true;
+        error("Failed to append to meme log " + path + ": " + e.getMessage());
+        return null;
+    }
+
+    /**
+     * @return an upper bound on the bytes a record with these strings takes after its ID
+     */
+    private static int maxSize(String link, String submitter, String curator, List<String> tags) {
+        int size = Long.BYTES + 3 * Short.BYTES + Short.BYTES;
+        size += 3 * (length(link) + length(submitter) + length(curator));
+        if(tags != null) {
+            for(String tag : tags)
+                size += Short.BYTES + 3 * tag.length();
+        }
+        return size;
+    }
+
+    private static int length(String s) {
+        return s == null ? 0 : s.length();
+    }
+
+    private static String getString(MappedByteBuffer buf) {
+        int length = buf.getShort() & 0xFFFF;
+        if(length == NULL_STRING)
+            return null;
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the tags of a record, lowercased since records from before tags were lowercased keep their case
+     */
+    private static List<String> getTags(MappedByteBuffer buf) {
+        int count = buf.getShort() & 0xFFFF;
+        List<String> tags = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            String tag = getString(buf);
+            if(tag != null)
+                tag = MemeTagParser3000.lowercase(tag);
+            if(tag == null || !tags.contains(tag))
+                tags.add(tag);
+        }
+        return tags;
+    }
+
+    /**
+     * The log file and its mapping. Records are a length, a type byte and the payload, and the length is written
+     * last so a record torn by a crash reads as the end of the log.
+     */
+    private static class LogFile {
+        private final FileChannel channel;
+        private MappedByteBuffer buf;
+
+        LogFile(Path path) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(channel.size(), INITIAL_SIZE));
+            if(buf.getInt(0) == 0) {
+                buf.putInt(0, MAGIC);
+                buf.putInt(4, VERSION);
+            } else if(buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+                channel.close();
+                throw new IOException("not a meme log of version " + VERSION);
+            }
+            buf.position(HEADER);
+        }
+
+        /**
+         * @return the offset right after the last complete record
+         */
+        int end() {
+            int position = HEADER;
+            for(int length = recordLength(buf, position); length != 0; length = recordLength(buf, position))
+                position += length;
+            return position;
+        }
+
+        /**
+         * Starts a record, growing the mapping when it may not fit
+         * @param type type of the record
+         * @param payload upper bound on the bytes written after the ID
+         * @return offset of the record, to hand to {@link #end(int)}
+         */
+        int begin(byte type, int payload) throws IOException {
+            // the record plus the zero length that ends the log
+            long needed = (long) buf.position() + 4 + 1 + Integer.BYTES + payload + 4;
+            if(needed > Integer.MAX_VALUE)
+                throw new IOException("meme log is full");
+            if(needed > buf.capacity()) {
+                int position = buf.position();
+                long size = buf.capacity();
+                while(size < needed)
+                    size *= 2;
+                buf.force();
+                buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(size, Integer.MAX_VALUE));
+                buf.position(position);
+            }
+            int start = buf.position();
+            buf.putInt(0);
+            buf.put(type);
+            return start;
+        }
+
+        /**
+         * Finishes a record by writing its length
+         * @param start offset returned by {@link #begin(byte, int)}
+         */
+        void end(int start) {
+            // a replay that stopped at a bad record leaves its bytes behind, keep them out of the next replay
+            buf.putInt(buf.position(), 0);
+            buf.putInt(start, buf.position() - start);
+        }
+
+        /**
+         * Writes a string as UTF-8 straight into the mapping
+         * @param s the string, may be null
+         */
+        void putString(String s) throws IOException {
+            if(s == null) {
+                buf.putShort((short) NULL_STRING);
+                return;
+            }
+            int lengthAt = buf.position();
+            buf.putShort((short) 0);
+            for(int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if(c < 0x80) {
+                    buf.put((byte) c);
+                } else if(c < 0x800) {
+                    buf.put((byte) (0xC0 | c >> 6));
+                    buf.put((byte) (0x80 | c & 0x3F));
+                } else if(Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    buf.put((byte) (0xF0 | cp >> 18));
+                    buf.put((byte) (0x80 | cp >> 12 & 0x3F));
+                    buf.put((byte) (0x80 | cp >> 6 & 0x3F));
+                    buf.put((byte) (0x80 | cp & 0x3F));
+                } else {
+                    buf.put((byte) (0xE0 | c >> 12));
+                    buf.put((byte) (0x80 | c >> 6 & 0x3F));
+                    buf.put((byte) (0x80 | c & 0x3F));
+                }
+            }
+            int length = buf.position() - lengthAt - Short.BYTES;
+            if(length >= NULL_STRING)
+                throw new IOException("string of " + length + " bytes is too long for the meme log");
+            buf.putShort(lengthAt, (short) length);
+        }
+
+        void putTags(List<String> tags) throws IOException {
+            int count = tags == null ? 0 : tags.size();
+            if(count >= NULL_STRING)
+                throw new IOException(count + " tags are too many for the meme log");
+            buf.putShort((short) count);
+            for(int i = 0; i < count; i++)
+                putString(tags.get(i));
+        }
+
+        void close() throws IOException {
+            buf.force();
+            channel.close();
+        }
+    }
+}
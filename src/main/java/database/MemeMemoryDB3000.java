@@ -0,0 +1,355 @@
+package database;
+
+import app.MemeConfigLoader3000;
+import datastructures.MemeIDSet3000;
+import datastructures.MemeLogger3000;
+import datastructures.MemeTagQuery3000;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static datastructures.MemeLogger3000.level.ERROR;
+
+/**
+ * Storage engine that keeps every meme in memory and never touches the disk, for load tests and trying out layouts.
+ * Data lives as long as the engine object, closing and reopening it keeps the memes.
+ */
+public class MemeMemoryDB3000 implements MemeStorageEngine3000 {
+
+    static class Meme {
+        String link;
+        String submitter;
+        String curator;
+        List<String> tags;
+        long epoch;
+
+        Meme(String link, String submitter, String curator, List<String> tags, long epoch) {
+            this.link = link;
+            this.submitter = submitter;
+            this.curator = curator;
+            this.tags = tags;
+            this.epoch = epoch;
+        }
+    }
+
+    private MemeConfigLoader3000 config;
+    private MemeLogger3000 logger;
+    private String errorMsg;
+    // kind of the failure in errorMsg
+    private MemeDBResult3000.Failure failure;
+    private Duration maxAge;
+    // both kept in ID order, like the tables they stand in for
+    private TreeMap<Integer, Meme> memes;
+    private TreeMap<Integer, Meme> cache;
+    // canonical link to the ID of the meme holding it
+    private Map<String, Integer> links;
+    private MemeTagIndex3000 tagIndex;
+    private MemeSampler3000 sampler;
+    private int headID;
+
+    /**
+     * Constructor
+     * @param config the config object
+     */
+    MemeMemoryDB3000(MemeConfigLoader3000 config, MemeLogger3000 logger) {
+        this.config = config;
+        this.logger = logger;
+        errorMsg = "";
+        failure = MemeDBResult3000.Failure.STORAGE;
+        maxAge = MemeDB3000.parseMaxAge(config, logger);
+        memes = new TreeMap<>();
+        cache = new TreeMap<>();
+        links = new HashMap<>();
+        tagIndex = new MemeTagIndex3000();
+        sampler = new MemeSampler3000(tagIndex);
+        headID = 0;
+    }
+
+    public synchronized String getError() {
+        return errorMsg;
+    }
+
+    public synchronized MemeDBResult3000.Failure getFailure() {
+        return failure;
+    }
+
+    public synchronized Boolean open() {
+        errorMsg = "";
+        logger.println("In-memory storage open with " + memes.size() + " memes and " + cache.size() + " cached memes");
+        return true;
+    }
+
+    public synchronized Boolean close() {
+        errorMsg = "";
+        return true;
+    }
+
+    public synchronized String get(List<String> tags) {
+        errorMsg = "";
+        Integer id = sampler.pick(tags);
+        return id == null ? null : memes.get(id).link;
+    }
+
+    public synchronized String get(MemeTagQuery3000 query) {
+        errorMsg = "";
+        MemeIDSet3000 ids = tagIndex.match(query);
+        if(ids.isEmpty())
+            return null;
+        return memes.get(ids.get(ThreadLocalRandom.current().nextInt(ids.size()))).link;
+    }
+
+    public synchronized Integer getID(List<String> tags) {
+        errorMsg = "";
+        return sampler.pick(tags);
+    }
+
+    public synchronized int[] getIDs(List<String> tags) {
+        errorMsg = "";
+        return sampler.matching(tags);
+    }
+
+    public synchronized List<String> resolveTags(List<String> tags) {
+        errorMsg = "";
+        return MemeDB3000.resolveTags(tagIndex, tags);
+    }
+
+    public synchronized String get(Integer id) {
+        errorMsg = "";
+        Meme meme = memes.get(id);
+        return meme == null ? null : meme.link;
+    }
+
+    public synchronized String getCache(Integer id) {
+        errorMsg = "";
+        Meme meme = cache.get(id);
+        return meme == null ? null : meme.link;
+    }
+
+    public synchronized List<String> getTags() {
+        return getTags(null);
+    }
+
+    public synchronized List<String> getTags(Integer id) {
+        errorMsg = "";
+        if(id == null)
+            return new ArrayList<>(tagIndex.getTagCounts());
+
+        Meme meme = memes.containsKey(id) ? memes.get(id) : cache.get(id);
+        return meme == null ? new ArrayList<>() : new ArrayList<>(meme.tags);
+    }
+
+    public synchronized List<Integer> getAllCacheIds() {
+        errorMsg = "";
+        return new ArrayList<>(cache.keySet());
+    }
+
+    public synchronized MemeIDCursor3000 cacheIdCursor(int chunkSize) {
+        errorMsg = "";
+        int[] ids = new int[cache.size()];
+        int i = 0;
+        for(Integer id : cache.keySet())
+            ids[i++] = id;
+        return MemeIDCursor3000.of(ids, chunkSize);
+    }
+
+    public synchronized List<Integer> getAllOldMemeIDs() {
+        errorMsg = "";
+        long cutoff = MemeDB3000.expiryCutoff(config, maxAge);
+        List<Integer> ids = new ArrayList<>();
+        for(Map.Entry<Integer, Meme> entry : memes.entrySet()) {
+            if(entry.getValue().epoch < cutoff)
+                ids.add(entry.getKey());
+        }
+        return ids;
+    }
+
+    public synchronized Integer demoteExpired() {
+        errorMsg = "";
+        List<Integer> ids = getAllOldMemeIDs();
+        for(Integer id : ids)
+            demote(id);
+        if(!ids.isEmpty())
+            logger.println("Demoted " + ids.size() + " expired memes");
+        return ids.size();
+    }
+
+    public synchronized Integer store(String username, String link, List<String> tags) {
+        errorMsg = "";
+        if(!uniqueLink(link) || !validTags(tags))
+            return null;
+        Integer id = nextID();
+        memes.put(id, new Meme(link, username, username, sortedTags(tags), now()));
+        links.put(MemeLinkIndex3000.canonicalize(link), id);
+        tagIndex.add(id, tags);
+        sampler.add(id);
+        return id;
+    }
+
+    public synchronized Integer cache(String username, String link, List<String> tags) {
+        errorMsg = "";
+        if(!uniqueLink(link) || !validTags(tags))
+            return null;
+        Integer id = nextID();
+        cache.put(id, new Meme(link, username, null, sortedTags(tags), 0));
+        links.put(MemeLinkIndex3000.canonicalize(link), id);
+        return id;
+    }
+
+    public synchronized String promote(Integer id, String curatorName, List<String> tags) {
+        errorMsg = "";
+        Meme meme = cache.get(id);
+        if(meme == null) {
+            error(MemeDBResult3000.Failure.NOT_FOUND, "Failed to find a meme with an ID of " + id);
+            return null;
+        }
+        if(!validTags(tags))
+            return null;
+
+        cache.remove(id);
+        memes.put(id, new Meme(meme.link, meme.submitter, curatorName, sortedTags(tags), now()));
+        tagIndex.add(id, tags);
+        sampler.add(id);
+        return meme.submitter;
+    }
+
+    public synchronized String demote(Integer id) {
+        errorMsg = "";
+        Meme meme = memes.remove(id);
+        if(meme == null) {
+            error(MemeDBResult3000.Failure.NOT_FOUND, "Failed to find a meme with an ID of " + id);
+            return null;
+        }
+        cache.put(id, new Meme(meme.link, meme.submitter, null, meme.tags, 0));
+        tagIndex.remove(id);
+        sampler.remove(id);
+        return meme.submitter;
+    }
+
+    public synchronized String reject(Integer id) {
+        errorMsg = "";
+        Meme meme = cache.remove(id);
+        if(meme == null) {
+            error(MemeDBResult3000.Failure.NOT_FOUND, "Failed to find a meme in the cache: (" + id + ")");
+            return null;
+        }
+        links.remove(MemeLinkIndex3000.canonicalize(meme.link));
+        return meme.submitter;
+    }
+
+    /**
+     * @return the ID for a new meme
+     */
+    Integer nextID() {
+        return ++headID;
+    }
+
+    /**
+     * Makes sure new IDs are handed out above an ID that was already used
+     * @param id the used ID
+     */
+    void seenID(int id) {
+        headID = Math.max(headID, id);
+    }
+
+    /**
+     * @return the highest ID handed out so far
+     */
+    int getHeadID() {
+        return headID;
+    }
+
+    /**
+     * @return the approval time for a meme promoted or stored now
+     */
+    long now() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * @return the approved memes by ID, not to be modified
+     */
+    Map<Integer, Meme> approvedMemes() {
+        return Collections.unmodifiableMap(memes);
+    }
+
+    /**
+     * @return the cached memes by ID, not to be modified
+     */
+    Map<Integer, Meme> cachedMemes() {
+        return Collections.unmodifiableMap(cache);
+    }
+
+    /**
+     * Forgets every meme
+     */
+    void clear() {
+        memes.clear();
+        cache.clear();
+        links.clear();
+        tagIndex.clear();
+        sampler.clear();
+        headID = 0;
+    }
+
+    /**
+     * Print the error message and store it
+     * @param error
+     */
+    void error(String error) {
+        error(MemeDBResult3000.Failure.STORAGE, error);
+    }
+
+    /**
+     * Print the error message and store it with its kind
+     * @param failure kind of failure
+     * @param error
+     */
+    void error(MemeDBResult3000.Failure failure, String error) {
+        this.failure = failure;
+        errorMsg = error;
+        logger.println(ERROR, errorMsg);
+    }
+
+    /**
+     * Validates the uniqueness of the link across approved and cached memes
+     * @param link
+     * @return boolean dictating uniqueness
+     */
+    private boolean uniqueLink(String link) {
+        Integer id = links.get(MemeLinkIndex3000.canonicalize(link));
+        if(id == null)
+            return true;
+        Meme meme = memes.containsKey(id) ? memes.get(id) : cache.get(id);
+        error(MemeDBResult3000.Failure.DUPLICATE, "This meme was already submitted by " + meme.submitter);
+        return false;
+    }
+
+    /**
+     * Tags are required to be non-null, the same as in the tag lookup table
+     * @param tags tags of a meme, null for none
+     * @return whether the tags can be stored
+     */
+    private boolean validTags(List<String> tags) {
+        if(tags != null && tags.contains(null)) {
+            error(MemeDBResult3000.Failure.INVALID, "Encountered an error inserting tags " + tags + " into DB");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param tags tags as submitted, may be null
+     * @return the tags in the order they are listed in
+     */
+    private static List<String> sortedTags(List<String> tags) {
+        List<String> sorted = tags == null ? new ArrayList<>() : new ArrayList<>(tags);
+        Collections.sort(sorted);
+        return sorted;
+    }
+}
@@ -0,0 +1,275 @@
+package database;
+
+import datastructures.MemeLogger3000;
+import datastructures.MemeTagParser3000;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Brings the schema of a DB up to date with numbered migrations.
+ * The level a DB is at is kept in SQLite's user_version, each migration runs in its own
+ * transaction together with the bump of that level, so a crash never leaves one half applied.
+ */
+public class MemeMigrator3000 {
+
+    /**
+     * One schema upgrade, must be safe to run again on a DB that already has its changes
+     */
+    interface Migration {
+        void apply(Connection conn) throws SQLException;
+    }
+
+    private static class Step {
+        int version;
+        String description;
+        Migration migration;
+
+        Step(int version, String description, Migration migration) {
+            this.version = version;
+            this.description = description;
+            this.migration = migration;
+        }
+    }
+
+    private MemeLogger3000 logger;
+    private List<Step> steps;
+
+    /**
+     * Constructor, registers every migration of the meme schema in order
+     * @param logger where the migration levels and times are logged
+     */
+    MemeMigrator3000(MemeLogger3000 logger) {
+        this.logger = logger;
+        this.steps = new ArrayList<>();
+
+        register(1, "covering indexes for tag intersection, link uniqueness and aging", conn -> {
+            // the tag strings move to the tag dictionary in migration 4
+            if(hasColumn(conn, MemeDB3000.tagLkpTableName, "tag")) {
+                sqls(
+                        "CREATE INDEX IF NOT EXISTS " + MemeDB3000.tagLkpTableName + "_tag_id ON " + MemeDB3000.tagLkpTableName + " (tag, id)",
+                        "CREATE INDEX IF NOT EXISTS " + MemeDB3000.tagLkpTableName + "_id_tag ON " + MemeDB3000.tagLkpTableName + " (id, tag)"
+                ).apply(conn);
+            }
+            sqls(
+                    "DROP INDEX IF EXISTS " + MemeDB3000.linkLkpTableName + "_hash",
+                    "CREATE INDEX IF NOT EXISTS " + MemeDB3000.linkLkpTableName + "_hash_link ON " + MemeDB3000.linkLkpTableName + " (hash, link, submitter)",
+                    "CREATE INDEX IF NOT EXISTS " + MemeDB3000.linkLkpTableName + "_id ON " + MemeDB3000.linkLkpTableName + " (id)",
+                    "CREATE INDEX IF NOT EXISTS " + MemeDB3000.memeTableName + "_timestamp ON " + MemeDB3000.memeTableName + " (timestamp)"
+            ).apply(conn);
+        });
+        register(2, "epoch millis column for aging", conn -> {
+            if(!hasColumn(conn, MemeDB3000.memeTableName, "epoch")) {
+                try (Statement statement = conn.createStatement()) {
+                    statement.execute("ALTER TABLE " + MemeDB3000.memeTableName + " ADD COLUMN epoch INTEGER");
+                }
+            }
+            backfillEpochs(conn);
+            sqls(
+                    "DROP INDEX IF EXISTS " + MemeDB3000.memeTableName + "_timestamp",
+                    "CREATE INDEX IF NOT EXISTS " + MemeDB3000.memeTableName + "_epoch ON " + MemeDB3000.memeTableName + " (epoch)"
+            ).apply(conn);
+        });
+        register(3, "persisted meme ID sequence", sqls(
+                "CREATE TABLE IF NOT EXISTS " + MemeDB3000.seqTableName + " (name TEXT PRIMARY KEY, next INTEGER NOT NULL)",
+                "INSERT OR IGNORE INTO " + MemeDB3000.seqTableName + " (name, next) SELECT '" + MemeDB3000.MEME_SEQ + "', COALESCE(MAX(id), 0) + 1 FROM " +
+                        "(SELECT id FROM " + MemeDB3000.memeTableName + " UNION ALL SELECT id FROM " + MemeDB3000.cacheTableName + ")"
+        ));
+        register(4, "tag dictionary with integer tag IDs in the tag lookup", conn -> {
+            String tagLkp = MemeDB3000.tagLkpTableName, tagDict = MemeDB3000.tagDictTableName;
+            sqls("CREATE TABLE IF NOT EXISTS " + tagDict + " (tagId INTEGER PRIMARY KEY, tag TEXT NOT NULL UNIQUE)").apply(conn);
+            if(hasColumn(conn, tagLkp, "tag")) {
+                // SQLite cannot change a column in place, rebuild the table with tag IDs
+                sqls(
+                        "INSERT OR IGNORE INTO " + tagDict + " (tag) SELECT DISTINCT tag FROM " + tagLkp,
+                        "CREATE TABLE " + tagLkp + "_new (id INTEGER NOT NULL, tagId INTEGER NOT NULL)",
+                        "INSERT INTO " + tagLkp + "_new (id, tagId) SELECT t.id, d.tagId FROM " + tagLkp + " t JOIN " + tagDict + " d ON d.tag = t.tag",
+                        "DROP TABLE " + tagLkp,
+                        "ALTER TABLE " + tagLkp + "_new RENAME TO " + tagLkp
+                ).apply(conn);
+            }
+            sqls(
+                    "CREATE INDEX IF NOT EXISTS " + tagLkp + "_tagId_id ON " + tagLkp + " (tagId, id)",
+                    "CREATE INDEX IF NOT EXISTS " + tagLkp + "_id_tagId ON " + tagLkp + " (id, tagId)"
+            ).apply(conn);
+        });
+        register(5, "lowercase tags, merging tags that only differ in case", MemeMigrator3000::lowercaseTags);
+    }
+
+    /**
+     * @return the level the DB is at once every migration is applied
+     */
+    public int getLatestVersion() {
+        return steps.isEmpty() ? 0 : steps.get(steps.size() - 1).version;
+    }
+
+    /**
+     * Reads the migration level of a DB
+     * @param conn connection to the DB
+     * @return the level, 0 for a DB that was never migrated
+     */
+    public static int getVersion(Connection conn) throws SQLException {
+        try (Statement statement = conn.createStatement(); ResultSet rs = statement.executeQuery("PRAGMA user_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * Applies every migration above the level of the DB, committing after each one
+     * @param conn connection to the DB with autocommit off
+     * @return the level the DB ended at
+     */
+    public int migrate(Connection conn) throws SQLException {
+        int version = getVersion(conn);
+        logger.println("DB schema at migration level " + version + " of " + getLatestVersion());
+
+        for(Step step : steps) {
+            if(step.version <= version)
+                continue;
+
+            long start = System.currentTimeMillis();
+            try {
+                step.migration.apply(conn);
+                try (Statement statement = conn.createStatement()) {
+                    statement.execute("PRAGMA user_version=" + step.version);
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+            version = step.version;
+            logger.println("Applied migration " + step.version + " (" + step.description + ") in " + (System.currentTimeMillis() - start) + "ms");
+        }
+        return version;
+    }
+
+    /**
+     * Adds a migration, versions must be registered in increasing order
+     * @param version level the DB is at after the migration
+     * @param description what the migration changes
+     * @param migration the upgrade itself
+     */
+    private void register(int version, String description, Migration migration) {
+        if(version <= getLatestVersion())
+            throw new IllegalArgumentException("Migration " + version + " registered out of order");
+        steps.add(new Step(version, description, migration));
+    }
+
+    /**
+     * @param conn connection to the DB
+     * @param table table to look in
+     * @param column column to look for
+     * @return whether the table already has the column
+     */
+    private static boolean hasColumn(Connection conn, String table, String column) throws SQLException {
+        try (Statement statement = conn.createStatement(); ResultSet rs = statement.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while(rs.next()) {
+                if(column.equalsIgnoreCase(rs.getString("name")))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Fills the epoch column of approved memes from their timestamp strings,
+     * memes with a timestamp that does not parse keep a NULL epoch and age out like memes without one
+     * @param conn connection to the DB
+     */
+    private static void backfillEpochs(Connection conn) throws SQLException {
+        try (Statement statement = conn.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT id, timestamp FROM " + MemeDB3000.memeTableName + " WHERE epoch IS NULL AND timestamp IS NOT NULL");
+             PreparedStatement update = conn.prepareStatement("UPDATE " + MemeDB3000.memeTableName + " SET epoch = ? WHERE id = ?")) {
+            while(rs.next()) {
+                try {
+                    update.setLong(1, Timestamp.valueOf(rs.getString("timestamp").trim()).getTime());
+                } catch (IllegalArgumentException e) {
+                    continue;
+                }
+                update.setInt(2, rs.getInt("id"));
+                update.addBatch();
+            }
+            update.executeBatch();
+        }
+    }
+
+    /**
+     * Lowercases the tags in the tag dictionary the way submitted tags are, merging tags that then collide into one ID.
+     * The surviving ID is the one already lowercase, else the lowest, and memes carrying several of the merged tags
+     * keep a single lookup row.
+     * @param conn connection to the DB
+     */
+    private static void lowercaseTags(Connection conn) throws SQLException {
+        String tagLkp = MemeDB3000.tagLkpTableName, tagDict = MemeDB3000.tagDictTableName;
+        // tag IDs by lowercased tag, each list lowest ID first
+        Map<String, List<Integer>> variants = new LinkedHashMap<>();
+        Map<Integer, String> tags = new LinkedHashMap<>();
+        try (Statement statement = conn.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT tagId, tag FROM " + tagDict + " ORDER BY tagId")) {
+            while(rs.next()) {
+                tags.put(rs.getInt("tagId"), rs.getString("tag"));
+                variants.computeIfAbsent(MemeTagParser3000.lowercase(rs.getString("tag")), k -> new ArrayList<>()).add(rs.getInt("tagId"));
+            }
+        }
+
+        try (PreparedStatement move = conn.prepareStatement("INSERT INTO " + tagLkp + " (id, tagId) SELECT DISTINCT id, ? FROM " + tagLkp +
+                     " WHERE tagId = ? AND id NOT IN (SELECT id FROM " + tagLkp + " WHERE tagId = ?)");
+             PreparedStatement dropLkp = conn.prepareStatement("DELETE FROM " + tagLkp + " WHERE tagId = ?");
+             PreparedStatement dropTag = conn.prepareStatement("DELETE FROM " + tagDict + " WHERE tagId = ?");
+             PreparedStatement rename = conn.prepareStatement("UPDATE " + tagDict + " SET tag = ? WHERE tagId = ?")) {
+            for(Map.Entry<String, List<Integer>> entry : variants.entrySet()) {
+                String lower = entry.getKey();
+                List<Integer> ids = entry.getValue();
+                Integer keep = ids.get(0);
+                for(Integer id : ids) {
+                    if(tags.get(id).equals(lower))
+                        keep = id;
+                }
+                if(ids.size() == 1 && tags.get(keep).equals(lower))
+                    continue;
+
+                for(Integer id : ids) {
+                    if(id.equals(keep))
+                        continue;
+                    move.setInt(1, keep);
+                    move.setInt(2, id);
+                    move.setInt(3, keep);
+                    move.executeUpdate();
+                    dropLkp.setInt(1, id);
+                    dropLkp.executeUpdate();
+                    dropTag.setInt(1, id);
+                    dropTag.executeUpdate();
+                }
+                if(!tags.get(keep).equals(lower)) {
+                    rename.setString(1, lower);
+                    rename.setInt(2, keep);
+                    rename.executeUpdate();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param sqls statements to run in order
+     * @return a migration that runs the statements
+     */
+    private static Migration sqls(String... sqls) {
+        List<String> list = Arrays.asList(sqls);
+        return conn -> {
+            try (Statement statement = conn.createStatement()) {
+                for(String sql : list)
+                    statement.execute(sql);
+            }
+        };
+    }
+}
@@ -0,0 +1,130 @@
+package database;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-through cache of meme rows by ID, shared by the writer and the read connections.
+ * Least recently used rows are evicted once the cache is full. Every mutation invalidates the IDs it touches,
+ * and a load that raced with an invalidation is dropped instead of caching a row that is already stale.
+ */
+public class MemeRowCache3000 {
+
+    /**
+     * A meme as stored in the meme table or the cache table, with its tags
+     */
+    public static class Row {
+        public final String link;
+        public final String submitter;
+        public final String curator;
+        public final List<String> tags;
+        // true when the row is in the meme table, false when it is in the cache table
+        public final boolean approved;
+
+        Row(String link, String submitter, String curator, List<String> tags, boolean approved) {
+            this.link = link;
+            this.submitter = submitter;
+            this.curator = curator;
+            this.tags = Collections.unmodifiableList(tags);
+            this.approved = approved;
+        }
+    }
+
+    private final LinkedHashMap<Integer, Row> rows;
+    private final int capacity;
+    // bumped by every invalidation so loads that started before it know their row may be stale
+    private long generation;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param capacity most rows kept, 0 turns the cache off
+     */
+    MemeRowCache3000(int capacity) {
+        this.capacity = capacity;
+        this.rows = new LinkedHashMap<Integer, Row>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Row> eldest) {
+                return size() > MemeRowCache3000.this.capacity;
+            }
+        };
+        generation = 0;
+        hits = 0;
+        misses = 0;
+    }
+
+    /**
+     * @param id ID of the meme
+     * @return the cached row or null on a miss
+     */
+    public synchronized Row get(Integer id) {
+        Row row = rows.get(id);
+        if(row != null)
+            hits++;
+        else
+            misses++;
+        return row;
+    }
+
+    /**
+     * Take before loading a row from the DB and hand to {@link #put(Integer, Row, long)}
+     * @return the current generation
+     */
+    public synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Caches a row loaded from the DB unless one of the rows was invalidated since the load started
+     * @param id ID of the meme
+     * @param row the loaded row
+     * @param loadedAt generation taken before the load
+     */
+    public synchronized void put(Integer id, Row row, long loadedAt) {
+        if(loadedAt == generation && capacity > 0)
+            rows.put(id, row);
+    }
+
+    /**
+     * Replaces the row of a meme with its state after a committed change,
+     * loads that started before the change are dropped
+     * @param id ID of the meme
+     * @param row the row as committed
+     */
+    public synchronized void update(Integer id, Row row) {
+        generation++;
+        if(capacity > 0)
+            rows.put(id, row);
+    }
+
+    /**
+     * Drops the row of a meme that was just changed
+     * @param id ID of the meme
+     */
+    public synchronized void invalidate(Integer id) {
+        generation++;
+        rows.remove(id);
+    }
+
+    /**
+     * Drops every row
+     */
+    public synchronized void clear() {
+        generation++;
+        rows.clear();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return rows.size();
+    }
+}
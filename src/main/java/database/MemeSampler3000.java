@@ -0,0 +1,118 @@
+package database;
+
+import datastructures.MemeIDSet3000;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks uniformly random approved memes without scanning the meme table.
+ * Keeps a dense array of approved IDs that is patched on promote and demote, and
+ * samples within a tag filter by rejection against the tag index postings.
+ */
+public class MemeSampler3000 {
+    // how many draws from the smallest posting before falling back to a full intersection
+    private static final int MAX_REJECTIONS = 32;
+
+    private final MemeTagIndex3000 tagIndex;
+    private final Map<Integer, Integer> positions;
+    private int[] ids;
+    private int size;
+
+    MemeSampler3000(MemeTagIndex3000 tagIndex) {
+        this.tagIndex = tagIndex;
+        positions = new HashMap<>();
+        ids = new int[16];
+        size = 0;
+    }
+
+    /**
+     * Adds an approved meme to the sample space
+     * @param id of the meme
+     */
+    public synchronized void add(Integer id) {
+        if(positions.containsKey(id))
+            return;
+        if(size == ids.length)
+            ids = Arrays.copyOf(ids, ids.length * 2);
+        positions.put(id, size);
+        ids[size++] = id;
+    }
+
+    /**
+     * Removes a meme from the sample space by swapping the last ID into its slot
+     * @param id of the meme
+     */
+    public synchronized void remove(Integer id) {
+        Integer pos = positions.remove(id);
+        if(pos == null)
+            return;
+        int last = ids[--size];
+        if(pos != size) {
+            ids[pos] = last;
+            positions.put(last, pos);
+        }
+    }
+
+    /**
+     * @return a uniformly random approved meme ID or null if there are none
+     */
+    public synchronized Integer pick() {
+        if(size == 0)
+            return null;
+        return ids[ThreadLocalRandom.current().nextInt(size)];
+    }
+
+    /**
+     * Picks a uniformly random approved meme carrying all of the tags
+     * @param tags tags the meme must have, null or empty for any meme
+     * @return a meme ID or null if no meme has all the tags
+     */
+    public Integer pick(List<String> tags) {
+        if(tags == null || tags.isEmpty())
+            return pick();
+
+        Random rand = ThreadLocalRandom.current();
+        Integer id = tagIndex.sample(tags, MAX_REJECTIONS, rand);
+        if(id != null)
+            return id;
+
+        // the filter is too selective for rejection sampling, intersect the postings instead
+        MemeIDSet3000 matches = tagIndex.match(tags);
+        if(matches.isEmpty())
+            return null;
+        return matches.get(rand.nextInt(matches.size()));
+    }
+
+    /**
+     * @param tags tags the memes must have, null or empty for every meme
+     * @return the IDs of every approved meme carrying all of the tags
+     */
+    public int[] matching(List<String> tags) {
+        if(tags == null || tags.isEmpty()) {
+            synchronized(this) {
+                return Arrays.copyOf(ids, size);
+            }
+        }
+        return tagIndex.match(tags).toArray();
+    }
+
+    /**
+     * @return number of approved memes
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Drops all IDs from the sample space
+     */
+    public synchronized void clear() {
+        positions.clear();
+        size = 0;
+    }
+}
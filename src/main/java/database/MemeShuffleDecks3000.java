@@ -0,0 +1,193 @@
+package database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+/**
+ * Shuffle decks of approved meme IDs per channel and tag set, so a channel sees every matching meme once
+ * before any comes up again. A deck is a shuffled array of the matching IDs dealt in order, reshuffled from
+ * the current members once it runs out. Promotes are shuffled into the undealt part of the decks they match
+ * and demotes are taken out of every deck. Only the most recently active channels keep their decks.
+ */
+public class MemeShuffleDecks3000 {
+
+    private static class Deck {
+        final List<String> tags;
+        int[] ids;
+        int next;
+
+        Deck(List<String> tags, int[] ids) {
+            this.tags = tags;
+            this.ids = ids;
+            next = 0;
+        }
+    }
+
+    // how often a deal is retried when promotes or demotes keep landing while the deck is shuffled
+    private static final int DEAL_ATTEMPTS = 3;
+
+    private final int decksPerChannel;
+    private final LinkedHashMap<Long, LinkedHashMap<String, Deck>> channels;
+    // bumped by every promote and demote so a deck shuffled from older members is not dealt from
+    private long generation;
+
+    /**
+     * @param maxChannels most channels with decks, 0 turns the decks off
+     * @param decksPerChannel most tag sets with a deck in one channel
+     */
+    MemeShuffleDecks3000(int maxChannels, int decksPerChannel) {
+        this.decksPerChannel = decksPerChannel;
+        channels = new LinkedHashMap<Long, LinkedHashMap<String, Deck>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, LinkedHashMap<String, Deck>> eldest) {
+                return size() > maxChannels;
+            }
+        };
+        generation = 0;
+    }
+
+    /**
+     * Deals the next meme of a channel's deck, shuffling a new deck when there is none or it ran out
+     * @param channel the channel fetching
+     * @param tags tags of the fetch
+     * @param members finds the IDs of every approved meme with the tags, called without holding the decks
+     * @return the ID of the meme or null if no meme has all of the tags
+     */
+    public Integer deal(Long channel, List<String> tags, Function<List<String>, int[]> members) {
+        List<String> sorted = sortedTags(tags);
+        String key = String.join("\u0000", sorted);
+        for(int attempt = 0; attempt < DEAL_ATTEMPTS; attempt++) {
+            long shuffledAt;
+            synchronized(this) {
+                Deck deck = deck(channel, key);
+                if(deck != null && deck.next < deck.ids.length)
+                    return deck.ids[deck.next++];
+                shuffledAt = generation;
+            }
+
+            int[] ids = members.apply(sorted);
+            shuffle(ids, ThreadLocalRandom.current());
+
+            synchronized(this) {
+                if(shuffledAt != generation)
+                    continue;
+                if(ids.length == 0)
+                    return null;
+                Deck deck = new Deck(sorted, ids);
+                decks(channel).put(key, deck);
+                return deck.ids[deck.next++];
+            }
+        }
+        // the decks keep changing under us, deal this one fetch from the current members
+        int[] ids = members.apply(sorted);
+        return ids.length == 0 ? null : ids[ThreadLocalRandom.current().nextInt(ids.length)];
+    }
+
+    /**
+     * Shuffles an approved meme into the undealt part of every deck whose tags it has
+     * @param id ID of the promoted meme
+     * @param tags tags of the promoted meme
+     */
+    public synchronized void promoted(int id, List<String> tags) {
+        generation++;
+        Random rand = ThreadLocalRandom.current();
+        for(Map<String, Deck> decks : channels.values()) {
+            for(Deck deck : decks.values()) {
+                if(tags == null || !tags.containsAll(deck.tags) || indexOf(deck.ids, id) >= 0)
+                    continue;
+                int[] ids = Arrays.copyOf(deck.ids, deck.ids.length + 1);
+                // swap it with a random undealt meme, the same step a shuffle takes
+                int pos = deck.next + rand.nextInt(ids.length - deck.next);
+                ids[ids.length - 1] = ids[pos];
+                ids[pos] = id;
+                deck.ids = ids;
+            }
+        }
+    }
+
+    /**
+     * Takes a meme that is no longer approved out of every deck
+     * @param id ID of the demoted meme
+     */
+    public synchronized void demoted(int id) {
+        generation++;
+        for(Map<String, Deck> decks : channels.values()) {
+            for(Deck deck : decks.values()) {
+                int pos = indexOf(deck.ids, id);
+                if(pos < 0)
+                    continue;
+                int[] ids = deck.ids;
+                if(pos < deck.next) {
+                    // already dealt, close the gap in the dealt part
+                    System.arraycopy(ids, pos + 1, ids, pos, deck.next - pos - 1);
+                    ids[deck.next - 1] = ids[ids.length - 1];
+                    deck.next--;
+                } else {
+                    ids[pos] = ids[ids.length - 1];
+                }
+                deck.ids = Arrays.copyOf(ids, ids.length - 1);
+            }
+        }
+    }
+
+    /**
+     * Drops every deck
+     */
+    public synchronized void clear() {
+        generation++;
+        channels.clear();
+    }
+
+    /**
+     * @return number of channels with decks
+     */
+    public synchronized int size() {
+        return channels.size();
+    }
+
+    private Deck deck(Long channel, String key) {
+        LinkedHashMap<String, Deck> decks = channels.get(channel);
+        return decks == null ? null : decks.get(key);
+    }
+
+    private LinkedHashMap<String, Deck> decks(Long channel) {
+        return channels.computeIfAbsent(channel, c -> new LinkedHashMap<String, Deck>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Deck> eldest) {
+                return size() > decksPerChannel;
+            }
+        });
+    }
+
+    /**
+     * Fisher-Yates shuffle
+     */
+    private static void shuffle(int[] ids, Random rand) {
+        for(int i = ids.length - 1; i > 0; i--) {
+            int j = rand.nextInt(i + 1);
+            int swap = ids[i];
+            ids[i] = ids[j];
+            ids[j] = swap;
+        }
+    }
+
+    private static int indexOf(int[] ids, int id) {
+        for(int i = 0; i < ids.length; i++) {
+            if(ids[i] == id)
+                return i;
+        }
+        return -1;
+    }
+
+    private static List<String> sortedTags(List<String> tags) {
+        return tags == null ? Collections.emptyList() : new ArrayList<>(new TreeSet<>(tags));
+    }
+}
@@ -0,0 +1,93 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches prepared statements by their SQL text so each statement is only parsed once per connection.
+ * Least recently used statements are closed once the cache is full.
+ */
+public class MemeStatementCache3000 {
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private final LinkedHashMap<String, PreparedStatement> statements;
+    private final int capacity;
+    private long hits;
+    private long misses;
+
+    MemeStatementCache3000() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    MemeStatementCache3000(int capacity) {
+        this.capacity = capacity;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true);
+        hits = 0;
+        misses = 0;
+    }
+
+    /**
+     * Gets the prepared statement for the SQL, preparing and caching it on a miss
+     * @param conn connection to prepare the statement on
+     * @param sql sql statement text
+     * @return a prepared statement owned by the cache, do not close it
+     * @throws SQLException
+     */
+    public synchronized PreparedStatement get(Connection conn, String sql) throws SQLException {
+        PreparedStatement ps = statements.get(sql);
+        if(ps != null && !ps.isClosed()) {
+            hits++;
+            return ps;
+        }
+        misses++;
+        ps = conn.prepareStatement(sql);
+        statements.put(sql, ps);
+        evict();
+        return ps;
+    }
+
+    /**
+     * Closes and forgets every cached statement
+     */
+    public synchronized void close() {
+        for(PreparedStatement ps : statements.values()) {
+            try {
+                ps.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+        statements.clear();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return statements.size();
+    }
+
+    /**
+     * Closes the least recently used statements until the cache fits its capacity
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, PreparedStatement>> it = statements.entrySet().iterator();
+        while(statements.size() > capacity && it.hasNext()) {
+            try {
+                it.next().getValue().close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            it.remove();
+        }
+    }
+}
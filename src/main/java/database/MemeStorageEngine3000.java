@@ -0,0 +1,238 @@
+package database;
+
+import app.MemeConfigLoader3000;
+import datastructures.MemeLogger3000;
+import datastructures.MemeTagQuery3000;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Storage behind the DB controller. Memes live either in the meme table (approved) or the cache (pending approval),
+ * each with its submitter and tags. Methods return null on failure and leave the reason in {@link #getError()}.
+ * {@link #call(Function)} is a typed wrapper over that: it copies the value or the error the call left into a
+ * {@link MemeDBResult3000}, so callers need not read the engine again. Engines are not thread-safe: each is driven by
+ * a single thread, and fetches on other threads use their own handle from {@link #openReader()}.
+ */
+public interface MemeStorageEngine3000 {
+
+    /**
+     * Builds the engine named by the storageEngine property, SQLite when it is not set
+     * @param config the config object
+     * @param logger the logger
+     * @return the engine, not opened yet
+     */
+    static MemeStorageEngine3000 create(MemeConfigLoader3000 config, MemeLogger3000 logger) {
+        switch(config.getStorageEngine()) {
+            case "memory":
+                return new MemeMemoryDB3000(config, logger);
+            case "log":
+                return new MemeLogDB3000(config, logger);
+            case "sqlite":
+                return new MemeDB3000(config, logger);
+            default:
+                logger.println(MemeLogger3000.level.ERROR, "Unknown storage engine " + config.getStorageEngine() + ", using sqlite");
+                return new MemeDB3000(config, logger);
+        }
+    }
+
+    /**
+     * Error message of the last failed call
+     * @return
+     */
+    String getError();
+
+    /**
+     * Kind of the last failed call, only meaningful while {@link #getError()} is not empty
+     * @return the kind of failure
+     */
+    default MemeDBResult3000.Failure getFailure() {
+        return MemeDBResult3000.Failure.STORAGE;
+    }
+
+    /**
+     * Runs one call on the engine and captures its outcome, reading the error the call left before anything else
+     * runs. The lock only keeps two call()s from interleaving, it does not make the engine safe to share:
+     * a group commit spans many calls, and SQLite must not be used by another thread in the middle of one.
+     * A null value or Boolean false is a failure, NOT_FOUND when the engine left no error.
+     * @param op the call, given this engine
+     * @return the value or failure of the call with how long it took
+     */
+    default <T> MemeDBResult3000<T> call(Function<MemeStorageEngine3000, T> op) {
+        synchronized(this) {
+            long start = System.nanoTime();
+            T value = op.apply(this);
+            long nanos = System.nanoTime() - start;
+            if(value != null && !Boolean.FALSE.equals(value))
+                return MemeDBResult3000.ok(value, nanos);
+            String error = getError();
+            if(error == null || error.isEmpty())
+                return MemeDBResult3000.failed(MemeDBResult3000.Failure.NOT_FOUND, error, nanos);
+            return MemeDBResult3000.failed(getFailure(), error, nanos);
+        }
+    }
+
+    /**
+     * Opens the storage and loads whatever the engine keeps in memory
+     * @return whether the engine is ready
+     */
+    Boolean open();
+
+    /**
+     * Closes the storage
+     * @return whether the engine closed cleanly
+     */
+    Boolean close();
+
+    /**
+     * Opens a second handle that may serve fetches concurrently with mutations on this one
+     * @return the reader, or null when the engine has no separate readers
+     */
+    default MemeStorageEngine3000 openReader() {
+        return null;
+    }
+
+    /**
+     * Get a random approved meme that has all of the tags
+     * @param tags The tags that this meme must have
+     * @return link to a meme or null if none has every tag
+     */
+    String get(List<String> tags);
+
+    /**
+     * Get a random approved meme matching a boolean tag query
+     * @param query tags the meme must or must not have
+     * @return link to a meme or null if none matches
+     */
+    String get(MemeTagQuery3000 query);
+
+    /**
+     * Get the ID of a random approved meme that has all of the tags, drawn the same way as {@link #get(List)}
+     * @param tags The tags that this meme must have
+     * @return the ID or null if none has every tag
+     */
+    Integer getID(List<String> tags);
+
+    /**
+     * @param tags The tags that the memes must have, empty for every approved meme
+     * @return the IDs of every approved meme that has all of the tags, in no particular order
+     */
+    int[] getIDs(List<String> tags);
+
+    /**
+     * Resolves requested tags to the tags of approved memes they most likely mean, so typos and partial tags match
+     * @param tags tags as requested
+     * @return the resolved tags in the same order, a tag nothing is close to is kept as requested
+     */
+    List<String> resolveTags(List<String> tags);
+
+    /**
+     * @param id of a meme
+     * @return the link of the approved meme or null
+     */
+    String get(Integer id);
+
+    /**
+     * @param id of a meme
+     * @return the link of the cached meme or null
+     */
+    String getCache(Integer id);
+
+    /**
+     * @return every tag on an approved meme with its count, as "tag (count)"
+     */
+    List<String> getTags();
+
+    /**
+     * @param id of a meme
+     * @return the tags of the meme or all tags with counts when id is null
+     */
+    List<String> getTags(Integer id);
+
+    /**
+     * @return ids of every cached meme in ascending order
+     */
+    List<Integer> getAllCacheIds();
+
+    /**
+     * Streams the ids of every cached meme in ascending order, the caller must close the cursor
+     * @param chunkSize how many ids to read per chunk
+     * @return the cursor
+     */
+    MemeIDCursor3000 cacheIdCursor(int chunkSize) throws SQLException;
+
+    /**
+     * @return ids of approved memes past their expiry
+     */
+    List<Integer> getAllOldMemeIDs();
+
+    /**
+     * Moves every approved meme past its expiry back to the cache
+     * @return number of memes demoted or null in case of error
+     */
+    Integer demoteExpired();
+
+    /**
+     * Adds an approved meme
+     * @param username name of submitting user
+     * @param link A link to a meme
+     * @param tags Tags associated with this meme
+     * @return the id of the meme or null
+     */
+    Integer store(String username, String link, List<String> tags);
+
+    /**
+     * Adds a meme pending approval
+     * @param username user who submitted meme
+     * @param link link to meme
+     * @param tags tags for this meme
+     * @return the id of the meme or null
+     */
+    Integer cache(String username, String link, List<String> tags);
+
+    /**
+     * Approves a cached meme
+     * @param id of the meme
+     * @param curatorName name of curator
+     * @param tags tags of the promoted meme, replacing the submitted ones
+     * @return name of user who submitted the meme or null
+     */
+    String promote(Integer id, String curatorName, List<String> tags);
+
+    /**
+     * Moves an approved meme back to the cache
+     * @param id of the meme
+     * @return name of user who submitted the meme or null
+     */
+    String demote(Integer id);
+
+    /**
+     * Removes a cached meme so its link can be submitted again
+     * @param id of the meme
+     * @return name of user who submitted the meme or null
+     */
+    String reject(Integer id);
+
+    /**
+     * Starts a group commit, engines without transactions apply every mutation as it comes
+     */
+    default void startGroup() {
+    }
+
+    /**
+     * Starts the next item of a group commit
+     * @return whether the item could be started
+     */
+    default Boolean startGroupItem() {
+        return true;
+    }
+
+    /**
+     * Commits every item of the group that did not fail
+     * @return whether the commit occurred
+     */
+    default Boolean commitGroup() {
+        return true;
+    }
+}
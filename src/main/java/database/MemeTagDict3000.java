@@ -0,0 +1,110 @@
+package database;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory copy of the tag dictionary table, interning tag strings to the integer IDs stored in the tag lookup.
+ * Tags added by the writer's open transaction stay pending until it commits, so a rollback
+ * never leaves the dictionary pointing at IDs the DB does not have. Pending entries keep their order,
+ * so an item of a group commit that rolls back to its savepoint drops only the entries it added.
+ */
+public class MemeTagDict3000 {
+    private final Map<String, Integer> ids;
+    private final Map<Integer, String> names;
+    // in the order they were added, what rolledBackTo cuts from the end
+    private final Map<String, Integer> pending;
+
+    MemeTagDict3000() {
+        ids = new HashMap<>();
+        names = new HashMap<>();
+        pending = new LinkedHashMap<>();
+    }
+
+    /**
+     * @param tag tag string
+     * @return the ID of the tag or null if the tag is not in the dictionary yet
+     */
+    public synchronized Integer getId(String tag) {
+        Integer id = ids.get(tag);
+        return id != null ? id : pending.get(tag);
+    }
+
+    /**
+     * @param id ID of a tag
+     * @return the tag string or null if the ID is not known yet
+     */
+    public synchronized String getName(int id) {
+        return names.get(id);
+    }
+
+    /**
+     * Adds a committed dictionary entry, used while loading from the DB
+     * @param id ID of the tag
+     * @param tag tag string
+     */
+    public synchronized void add(int id, String tag) {
+        ids.put(tag, id);
+        names.put(id, tag);
+    }
+
+    /**
+     * Adds an entry written by the open transaction
+     * @param id ID of the tag
+     * @param tag tag string
+     */
+    public synchronized void addPending(int id, String tag) {
+        pending.put(tag, id);
+    }
+
+    /**
+     * The open transaction committed, its entries are now in the DB
+     */
+    public synchronized void committed() {
+        for(Map.Entry<String, Integer> entry : pending.entrySet())
+            add(entry.getValue(), entry.getKey());
+        pending.clear();
+    }
+
+    /**
+     * The open transaction rolled back, its entries never reached the DB
+     */
+    public synchronized void rolledBack() {
+        pending.clear();
+    }
+
+    /**
+     * @return a mark of the pending entries so far, to roll back to
+     */
+    public synchronized int mark() {
+        return pending.size();
+    }
+
+    /**
+     * Part of the open transaction rolled back to a savepoint, the entries added since the mark never reached the DB
+     * @param mark what {@link #mark()} returned when the savepoint was taken
+     */
+    public synchronized void rolledBackTo(int mark) {
+        Iterator<Map.Entry<String, Integer>> it = pending.entrySet().iterator();
+        for(int i=0;it.hasNext();i++){
+            it.next();
+            if(i >= mark)
+                it.remove();
+        }
+    }
+
+    /**
+     * Forgets every entry
+     */
+    public synchronized void clear() {
+        ids.clear();
+        names.clear();
+        pending.clear();
+    }
+
+    public synchronized int size() {
+        return ids.size();
+    }
+}
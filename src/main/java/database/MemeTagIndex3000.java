@@ -0,0 +1,341 @@
+package database;
+
+import datastructures.MemeIDSet3000;
+import datastructures.MemeTagQuery3000;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * In-memory inverted index from tag to the sorted IDs of approved memes carrying that tag.
+ * Multi-tag lookups are answered by intersecting the posting sets, smallest first.
+ * Postings are kept in tag order and their sizes double as the per-tag meme counts.
+ * A trie of the indexed tags resolves misspelled or partial tags to the closest indexed one.
+ * Boolean tag queries are evaluated with merges over the postings: intersections smallest first,
+ * exclusions subtracted from what is left, and only a bare exclusion is taken from the set of all approved memes.
+ */
+public class MemeTagIndex3000 {
+    private final TreeMap<String, MemeIDSet3000> postings;
+    private final Map<Integer, String[]> tagsById;
+    // every indexed meme, what a bare exclusion is subtracted from
+    private final MemeIDSet3000 approved;
+    // formatted "tag (count)" list, dropped whenever a count changes
+    private List<String> tagCounts;
+    private final MemeTagTrie3000 trie;
+
+    // edits allowed when resolving a tag of up to SHORT_TAG characters, and for longer tags
+    private static final int SHORT_TAG = 4;
+    private static final int SHORT_TAG_EDITS = 1;
+    private static final int LONG_TAG_EDITS = 2;
+    // shortest prefix completed to a tag, and how many of its heaviest completions are weighed
+    private static final int MIN_PREFIX = 3;
+    private static final int MAX_COMPLETIONS = 64;
+
+    MemeTagIndex3000() {
+        trie = new MemeTagTrie3000();
+        postings = new TreeMap<>();
+        tagsById = new HashMap<>();
+        approved = new MemeIDSet3000();
+        tagCounts = null;
+    }
+
+    /**
+     * Adds an approved meme and its tags to the index, replacing any tags it had before
+     * @param id of the meme
+     * @param tags tags of the meme
+     */
+    public synchronized void add(Integer id, List<String> tags) {
+        remove(id);
+        List<String> unique = new ArrayList<>();
+        if(tags != null) {
+            for(String tag : tags) {
+                if(!unique.contains(tag))
+                    unique.add(tag);
+            }
+        }
+        for(String tag : unique)
+            posting(tag).add(id);
+        tagsById.put(id, unique.toArray(new String[0]));
+        approved.add(id);
+        if(!unique.isEmpty())
+            tagCounts = null;
+    }
+
+    /**
+     * Adds a single tag to an approved meme, used while bulk loading the index
+     * @param id of the meme
+     * @param tag tag of the meme or null to only register the meme
+     */
+    public synchronized void addTag(Integer id, String tag) {
+        String[] tags = tagsById.get(id);
+        if(tags == null) {
+            tags = new String[0];
+            tagsById.put(id, tags);
+            approved.add(id);
+        }
+        if(tag == null || !posting(tag).add(id))
+            return;
+        String[] grown = Arrays.copyOf(tags, tags.length + 1);
+        grown[tags.length] = tag;
+        tagsById.put(id, grown);
+        tagCounts = null;
+    }
+
+    /**
+     * Removes a meme from the index
+     * @param id of the meme
+     * @return true if the meme was indexed
+     */
+    public synchronized boolean remove(Integer id) {
+        String[] tags = tagsById.remove(id);
+        if(tags == null)
+            return false;
+        approved.remove(id);
+        for(String tag : tags) {
+            MemeIDSet3000 set = postings.get(tag);
+            if(set != null) {
+                set.remove(id);
+                if(set.isEmpty()) {
+                    postings.remove(tag);
+                    trie.remove(tag);
+                }
+            }
+        }
+        if(tags.length > 0)
+            tagCounts = null;
+        return true;
+    }
+
+    /**
+     * Lists every tag on an approved meme with how many approved memes carry it
+     * @return "tag (count)" entries in tag order
+     */
+    public synchronized List<String> getTagCounts() {
+        if(tagCounts == null) {
+            List<String> counts = new ArrayList<>(postings.size());
+            for(Map.Entry<String, MemeIDSet3000> entry : postings.entrySet())
+                counts.add(entry.getKey() + " (" + entry.getValue().size() + ")");
+            tagCounts = Collections.unmodifiableList(counts);
+        }
+        return tagCounts;
+    }
+
+    /**
+     * Finds all approved memes carrying every one of the tags
+     * @param tags tags the memes must have
+     * @return a new set of matching IDs, empty if there are none
+     */
+    public synchronized MemeIDSet3000 match(List<String> tags) {
+        List<MemeIDSet3000> sets = new ArrayList<>();
+        for(String tag : tags) {
+            MemeIDSet3000 set = postings.get(tag);
+            if(set == null)
+                return new MemeIDSet3000();
+            sets.add(set);
+        }
+        if(sets.isEmpty())
+            return new MemeIDSet3000();
+
+        // intersect from the smallest posting up so the working set only shrinks
+        sets.sort((a, b) -> Integer.compare(a.size(), b.size()));
+        MemeIDSet3000 result = sets.get(0).copy();
+        for(int i=1;i<sets.size() && !result.isEmpty();i++)
+            result = result.intersect(sets.get(i));
+        return result;
+    }
+
+    /**
+     * Finds all approved memes matching a boolean tag query
+     * @param query the query
+     * @return a new set of matching IDs, every approved meme for an empty query
+     */
+    public synchronized MemeIDSet3000 match(MemeTagQuery3000 query) {
+        // evaluate() may hand back a posting itself, never give one out
+        return evaluate(query).copy();
+    }
+
+    /**
+     * @return the IDs matching the query, possibly a posting or the approved set, which must not be changed
+     */
+    private MemeIDSet3000 evaluate(MemeTagQuery3000 query) {
+        switch(query.getOp()) {
+            case TAG: {
+                MemeIDSet3000 set = postings.get(query.getTag());
+                return set == null ? new MemeIDSet3000() : set;
+            }
+            case NOT:
+                return approved.difference(evaluate(query.getChildren().get(0)));
+            case OR: {
+                // merging the small alternatives first keeps the early merges cheap
+                List<MemeTagQuery3000> alternatives = bySize(query.getChildren());
+                MemeIDSet3000 result = evaluate(alternatives.get(0));
+                for(int i=1;i<alternatives.size();i++)
+                    result = result.union(evaluate(alternatives.get(i)));
+                return result;
+            }
+            default: {
+                List<MemeTagQuery3000> required = new ArrayList<>();
+                List<MemeTagQuery3000> excluded = new ArrayList<>();
+                for(MemeTagQuery3000 child : query.getChildren()) {
+                    if(child.getOp() == MemeTagQuery3000.Op.NOT)
+                        excluded.add(child.getChildren().get(0));
+                    else
+                        required.add(child);
+                }
+                MemeIDSet3000 result = approved;
+                for(MemeTagQuery3000 child : bySize(required)) {
+                    if(result.isEmpty())
+                        return result;
+                    result = result == approved ? evaluate(child) : result.intersect(evaluate(child));
+                }
+                for(MemeTagQuery3000 child : excluded) {
+                    if(result.isEmpty())
+                        return result;
+                    result = result.difference(evaluate(child));
+                }
+                return result;
+            }
+        }
+    }
+
+    /**
+     * @return the queries ordered by how many memes they are estimated to match, fewest first
+     */
+    private List<MemeTagQuery3000> bySize(List<MemeTagQuery3000> queries) {
+        List<MemeTagQuery3000> sorted = new ArrayList<>(queries);
+        Map<MemeTagQuery3000, Integer> estimates = new HashMap<>();
+        for(MemeTagQuery3000 query : sorted)
+            estimates.put(query, estimate(query));
+        sorted.sort((a, b) -> Integer.compare(estimates.get(a), estimates.get(b)));
+        return sorted;
+    }
+
+    /**
+     * @return an upper bound of how many memes the query matches, from the posting sizes alone
+     */
+    private int estimate(MemeTagQuery3000 query) {
+        switch(query.getOp()) {
+            case TAG: {
+                MemeIDSet3000 set = postings.get(query.getTag());
+                return set == null ? 0 : set.size();
+            }
+            case NOT:
+                return approved.size();
+            case OR: {
+                long sum = 0;
+                for(MemeTagQuery3000 child : query.getChildren())
+                    sum += estimate(child);
+                return (int) Math.min(sum, approved.size());
+            }
+            default: {
+                int min = approved.size();
+                for(MemeTagQuery3000 child : query.getChildren()) {
+                    if(child.getOp() != MemeTagQuery3000.Op.NOT)
+                        min = Math.min(min, estimate(child));
+                }
+                return min;
+            }
+        }
+    }
+
+    /**
+     * Draws random IDs from the smallest posting until one carries all the other tags
+     * @param tags tags the meme must have
+     * @param attempts how many draws to try before giving up
+     * @param rand source of randomness
+     * @return a matching ID, or null if none was found within the attempts
+     */
+    public synchronized Integer sample(List<String> tags, int attempts, Random rand) {
+        List<MemeIDSet3000> sets = new ArrayList<>();
+        for(String tag : tags) {
+            MemeIDSet3000 set = postings.get(tag);
+            if(set == null)
+                return null;
+            sets.add(set);
+        }
+        sets.sort((a, b) -> Integer.compare(a.size(), b.size()));
+        MemeIDSet3000 smallest = sets.get(0);
+
+        for(int attempt=0;attempt<attempts;attempt++) {
+            int id = smallest.get(rand.nextInt(smallest.size()));
+            boolean hit = true;
+            for(int i=1;i<sets.size() && hit;i++)
+                hit = sets.get(i).contains(id);
+            if(hit)
+                return id;
+        }
+        return null;
+    }
+
+    /**
+     * Resolves a requested tag to the indexed tag it most likely means: the tag itself, else the closest tags
+     * by edit distance, else the completions of it as a prefix, the one on the most memes winning a tie
+     * @param tag the requested tag
+     * @return the indexed tag or null if nothing is close enough
+     */
+    public synchronized String resolve(String tag) {
+        if(tag == null || postings.containsKey(tag))
+            return tag;
+        List<String> candidates = trie.closest(tag, tag.length() <= SHORT_TAG ? SHORT_TAG_EDITS : LONG_TAG_EDITS);
+        if(candidates.isEmpty() && tag.length() >= MIN_PREFIX)
+            candidates = trie.complete(tag, MAX_COMPLETIONS, candidate -> postings.get(candidate).size());
+
+        String best = null;
+        for(String candidate : candidates) {
+            if(best == null)
+                best = candidate;
+            else {
+                int diff = postings.get(candidate).size() - postings.get(best).size();
+                if(diff > 0 || diff == 0 && candidate.compareTo(best) < 0)
+                    best = candidate;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @param id of the meme
+     * @return whether the meme is indexed as approved
+     */
+    public synchronized boolean contains(Integer id) {
+        return tagsById.containsKey(id);
+    }
+
+    /**
+     * @return number of indexed memes
+     */
+    public synchronized int size() {
+        return tagsById.size();
+    }
+
+    /**
+     * Drops everything in the index
+     */
+    public synchronized void clear() {
+        postings.clear();
+        trie.clear();
+        tagsById.clear();
+        approved.clear();
+        tagCounts = null;
+    }
+
+    /**
+     * @param tag a tag
+     * @return the posting of the tag, created empty for a new tag
+     */
+    private MemeIDSet3000 posting(String tag) {
+        MemeIDSet3000 set = postings.get(tag);
+        if(set == null) {
+            set = new MemeIDSet3000();
+            postings.put(tag, set);
+            trie.add(tag);
+        }
+        return set;
+    }
+}
@@ -0,0 +1,165 @@
+package database;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.ToIntFunction;
+
+/**
+ * Trie of tag strings for completing prefixes and finding the tags closest to a misspelled one.
+ * The closest tags are found by walking the trie with one row of the edit distance table per node,
+ * skipping every branch whose row is already past the best distance found so far.
+ */
+public class MemeTagTrie3000 {
+
+    private static class Node {
+        final Map<Character, Node> children = new HashMap<>(4);
+        // the tag ending at this node or null
+        String tag;
+    }
+
+    private final Node root;
+    private int size;
+
+    MemeTagTrie3000() {
+        root = new Node();
+        size = 0;
+    }
+
+    /**
+     * @param tag tag to add
+     * @return whether the tag was new
+     */
+    public boolean add(String tag) {
+        Node node = root;
+        for(int i = 0; i < tag.length(); i++)
+            node = node.children.computeIfAbsent(tag.charAt(i), c -> new Node());
+        if(node.tag != null)
+            return false;
+        node.tag = tag;
+        size++;
+        return true;
+    }
+
+    /**
+     * @param tag tag to remove
+     * @return whether the tag was in the trie
+     */
+    public boolean remove(String tag) {
+        if(!remove(root, tag, 0))
+            return false;
+        size--;
+        return true;
+    }
+
+    private boolean remove(Node node, String tag, int depth) {
+        if(depth == tag.length()) {
+            if(node.tag == null)
+                return false;
+            node.tag = null;
+            return true;
+        }
+        Node child = node.children.get(tag.charAt(depth));
+        if(child == null || !remove(child, tag, depth + 1))
+            return false;
+        // prune the branch once nothing ends below it
+        if(child.tag == null && child.children.isEmpty())
+            node.children.remove(tag.charAt(depth));
+        return true;
+    }
+
+    /**
+     * Finds the tags needing the fewest single character insertions, deletions or substitutions to become the word
+     * @param word the word to match
+     * @param maxDistance most edits allowed
+     * @return every tag at the smallest distance found, empty if none is within the max distance
+     */
+    public List<String> closest(String word, int maxDistance) {
+        List<String> found = new ArrayList<>();
+        int[] best = {maxDistance};
+        int[] row = new int[word.length() + 1];
+        for(int i = 0; i < row.length; i++)
+            row[i] = i;
+        if(root.tag != null && row[word.length()] <= maxDistance) {
+            best[0] = row[word.length()];
+            found.add(root.tag);
+        }
+        for(Map.Entry<Character, Node> child : root.children.entrySet())
+            closest(child.getValue(), child.getKey(), word, row, best, found);
+        return found;
+    }
+
+    private void closest(Node node, char c, String word, int[] previous, int[] best, List<String> found) {
+        int[] row = new int[previous.length];
+        row[0] = previous[0] + 1;
+        int min = row[0];
+        for(int i = 1; i < row.length; i++) {
+            int substitute = previous[i - 1] + (word.charAt(i - 1) == c ? 0 : 1);
+            row[i] = Math.min(substitute, Math.min(row[i - 1], previous[i]) + 1);
+            min = Math.min(min, row[i]);
+        }
+
+        int distance = row[row.length - 1];
+        if(node.tag != null && distance <= best[0]) {
+            if(distance < best[0]) {
+                found.clear();
+                best[0] = distance;
+            }
+            found.add(node.tag);
+        }
+        if(min > best[0])
+            return;
+        for(Map.Entry<Character, Node> child : node.children.entrySet())
+            closest(child.getValue(), child.getKey(), word, row, best, found);
+    }
+
+    /**
+     * Walks every tag below the prefix, keeping the heaviest ones seen so far in a heap of at most limit tags
+     * @param prefix start of the tags
+     * @param limit most tags returned
+     * @param weight weight of a tag, ties go to the tag first in alphabetical order
+     * @return the heaviest tags starting with the prefix, other than the prefix itself, heaviest first
+     */
+    public List<String> complete(String prefix, int limit, ToIntFunction<String> weight) {
+        Node node = root;
+        for(int i = 0; i < prefix.length() && node != null; i++)
+            node = node.children.get(prefix.charAt(i));
+        Comparator<String> order = Comparator.comparingInt(weight).thenComparing(Comparator.<String>reverseOrder());
+        // lightest on top, so it is the one dropped once the heap is over the limit
+        PriorityQueue<String> heaviest = new PriorityQueue<>(order);
+        if(node != null && limit > 0) {
+            for(Node child : node.children.values())
+                collect(child, limit, heaviest);
+        }
+        List<String> found = new ArrayList<>(heaviest);
+        found.sort(Collections.reverseOrder(order));
+        return found;
+    }
+
+    private void collect(Node node, int limit, PriorityQueue<String> heaviest) {
+        if(node.tag != null) {
+            heaviest.add(node.tag);
+            if(heaviest.size() > limit)
+                heaviest.poll();
+        }
+        for(Node child : node.children.values())
+            collect(child, limit, heaviest);
+    }
+
+    /**
+     * Drops every tag
+     */
+    public void clear() {
+        root.children.clear();
+        root.tag = null;
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,74 @@
+package datastructures;
+
+/**
+ * Bloom filter over 64-bit hashes. Answers "definitely not present" without false negatives,
+ * and "maybe present" with a false positive rate set by the bits given to each expected entry.
+ */
+public class MemeBloomFilter3000 {
+    private static final int BITS_PER_ENTRY = 10;
+    private static final int HASHES = 7;
+
+    private final long[] bits;
+    private final long bitCount;
+    private final long capacity;
+    private long count;
+
+    /**
+     * Creates a filter sized for the expected number of entries
+     * @param expectedEntries how many hashes will be added before the false positive rate degrades
+     */
+    public MemeBloomFilter3000(long expectedEntries) {
+        capacity = Math.max(expectedEntries, 64);
+        long words = (capacity * BITS_PER_ENTRY + 63) / 64;
+        bits = new long[(int) Math.min(words, Integer.MAX_VALUE - 8)];
+        bitCount = (long) bits.length * 64;
+        count = 0;
+    }
+
+    /**
+     * Adds a hash to the filter
+     * @param hash 64-bit hash of the entry
+     */
+    public synchronized void add(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for(int i=0;i<HASHES;i++) {
+            long bit = index(h1 + i * h2);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        count++;
+    }
+
+    /**
+     * @param hash 64-bit hash of the entry
+     * @return false if the hash was never added, true if it may have been
+     */
+    public synchronized boolean mightContain(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for(int i=0;i<HASHES;i++) {
+            long bit = index(h1 + i * h2);
+            if((bits[(int) (bit >>> 6)] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return how many hashes have been added
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @return whether more hashes were added than the filter was sized for
+     */
+    public synchronized boolean isSaturated() {
+        return count > capacity;
+    }
+
+    private long index(int combined) {
+        return (combined & 0x7fffffffL) % bitCount;
+    }
+}
@@ -18,6 +18,7 @@ public class MemeBotMsg3000 {
 	private String url;
 	private JSONObject json;
 	private String tags;
+	private String guildID;
 	/**
 	 * Create a message from variables
 	 * 
@@ -80,6 +81,10 @@ public class MemeBotMsg3000 {
 			tags = jObject.getString("approvedTags");
 		}
 		
+		if(jObject.has("guildID") && !jObject.isNull("guildID")) {
+			guildID = jObject.getString("guildID");
+		}
+		
 		json = jObject;
 	}
 
@@ -97,6 +102,7 @@ public class MemeBotMsg3000 {
 		j.put("admin", admin);
 		j.put("url", url);
 		j.put("tags", tags);
+		j.put("guildID", guildID);
 		return j;
 	}
 	
@@ -164,6 +170,17 @@ public class MemeBotMsg3000 {
 		this.url = url;
 	}
 
+	/**
+	 * @return ID of the guild the message belongs to, null if it has none
+	 */
+	public String getGuildID() {
+		return guildID;
+	}
+
+	public void setGuildID(String guildID) {
+		this.guildID = guildID;
+	}
+
 	public MemeBotMsg3000 user(String user) {
 		this.user = user;
 		return this;
@@ -198,5 +215,10 @@ public class MemeBotMsg3000 {
 		this.tags = tags;
 		return this;
 	}
+	
+	public MemeBotMsg3000 guildID(String guildID) {
+		this.guildID = guildID;
+		return this;
+	}
 
 }
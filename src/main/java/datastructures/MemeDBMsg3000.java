@@ -15,6 +15,7 @@ public class MemeDBMsg3000 {
         TERMINATE,              // Used to kill the controller and MemeDB
         INITIALIZE,             // Used to send all cache meme IDS out
         GET_TAGS,               // Used to get all available tags in the DB
+        BACKUP,                 // Used to start an online backup of the DB
 
         // To MemeServer message types
         INIT_ACK,               // Used to tell switchboard that DB initialization has completed
@@ -34,6 +35,9 @@ public class MemeDBMsg3000 {
     private List<String> tags;
     private String username;
     private Long channelID;
+    private String shard;
+    // boolean tag query of a fetch, null when the tags alone say what to fetch
+    private MemeTagQuery3000 query;
 
     // Default
     public MemeDBMsg3000() {
@@ -44,6 +48,8 @@ public class MemeDBMsg3000 {
         this.tags = null;
         this.username = null;
         this.channelID = null;
+        this.shard = null;
+        this.query = null;
     }
 
     public MemeDBMsg3000 type(MsgDBType type) {
@@ -81,6 +87,16 @@ public class MemeDBMsg3000 {
         return this;
     }
 
+    public MemeDBMsg3000 shard(String shard) {
+        this.shard = shard;
+        return this;
+    }
+
+    public MemeDBMsg3000 query(MemeTagQuery3000 query) {
+        this.query = query;
+        return this;
+    }
+
     public MsgDBType getType() {
         return type;
     }
@@ -108,4 +124,12 @@ public class MemeDBMsg3000 {
     public Long getChannelID() {
         return channelID;
     }
+
+    public String getShard() {
+        return shard;
+    }
+
+    public MemeTagQuery3000 getQuery() {
+        return query;
+    }
 }
@@ -0,0 +1,194 @@
+package datastructures;
+
+import java.util.Arrays;
+
+/**
+ * Compact, sorted set of meme IDs backed by a primitive int array
+ */
+public class MemeIDSet3000 {
+    private static final int DEFAULT_CAPACITY = 4;
+
+    private int[] ids;
+    private int size;
+
+    /**
+     * Creates an empty set
+     */
+    public MemeIDSet3000() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty set with room for capacity IDs before growing
+     * @param capacity initial capacity
+     */
+    public MemeIDSet3000(int capacity) {
+        ids = new int[Math.max(capacity, 1)];
+        size = 0;
+    }
+
+    /**
+     * Adds an ID, keeping the set sorted
+     * @param id meme ID
+     * @return true if the ID was not already in the set
+     */
+    public boolean add(int id) {
+        // appending in order is the common case when loading and allocating IDs
+        if(size == 0 || ids[size-1] < id) {
+            grow(size + 1);
+            ids[size++] = id;
+            return true;
+        }
+        int pos = Arrays.binarySearch(ids, 0, size, id);
+        if(pos >= 0)
+            return false;
+        pos = -(pos + 1);
+        grow(size + 1);
+        System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+        ids[pos] = id;
+        size++;
+        return true;
+    }
+
+    /**
+     * Removes an ID
+     * @param id meme ID
+     * @return true if the ID was in the set
+     */
+    public boolean remove(int id) {
+        int pos = Arrays.binarySearch(ids, 0, size, id);
+        if(pos < 0)
+            return false;
+        System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+        size--;
+        return true;
+    }
+
+    /**
+     * @param id meme ID
+     * @return whether the ID is in the set
+     */
+    public boolean contains(int id) {
+        return Arrays.binarySearch(ids, 0, size, id) >= 0;
+    }
+
+    /**
+     * @param index position in sorted order
+     * @return the ID at that position
+     */
+    public int get(int index) {
+        if(index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        return ids[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes every ID
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Intersects this set with another by merging the two sorted arrays
+     * @param other set to intersect with
+     * @return a new set holding the IDs in both sets
+     */
+    public MemeIDSet3000 intersect(MemeIDSet3000 other) {
+        MemeIDSet3000 result = new MemeIDSet3000(Math.min(size, other.size));
+        int i = 0, j = 0;
+        while(i < size && j < other.size) {
+            if(ids[i] < other.ids[j])
+                i++;
+            else if(ids[i] > other.ids[j])
+                j++;
+            else {
+                result.ids[result.size++] = ids[i];
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Unites this set with another by merging the two sorted arrays
+     * @param other set to unite with
+     * @return a new set holding the IDs in either set
+     */
+    public MemeIDSet3000 union(MemeIDSet3000 other) {
+        MemeIDSet3000 result = new MemeIDSet3000(size + other.size);
+        int i = 0, j = 0;
+        while(i < size || j < other.size) {
+            if(j == other.size || i < size && ids[i] < other.ids[j])
+                result.ids[result.size++] = ids[i++];
+            else if(i == size || ids[i] > other.ids[j])
+                result.ids[result.size++] = other.ids[j++];
+            else {
+                result.ids[result.size++] = ids[i];
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Subtracts another set from this one by merging the two sorted arrays
+     * @param other set of IDs to leave out
+     * @return a new set holding the IDs of this set that are not in the other
+     */
+    public MemeIDSet3000 difference(MemeIDSet3000 other) {
+        MemeIDSet3000 result = new MemeIDSet3000(size);
+        int i = 0, j = 0;
+        while(i < size) {
+            if(j == other.size || ids[i] < other.ids[j])
+                result.ids[result.size++] = ids[i++];
+            else if(ids[i] > other.ids[j])
+                j++;
+            else {
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return a copy of this set
+     */
+    public MemeIDSet3000 copy() {
+        MemeIDSet3000 copy = new MemeIDSet3000(size);
+        System.arraycopy(ids, 0, copy.ids, 0, size);
+        copy.size = size;
+        return copy;
+    }
+
+    /**
+     * @return the IDs as a right-sized array
+     */
+    public int[] toArray() {
+        return Arrays.copyOf(ids, size);
+    }
+
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+
+    /**
+     * Makes sure the backing array can hold at least minCapacity IDs
+     * @param minCapacity required capacity
+     */
+    private void grow(int minCapacity) {
+        if(minCapacity > ids.length)
+            ids = Arrays.copyOf(ids, Math.max(minCapacity, ids.length + (ids.length >> 1)));
+    }
+}
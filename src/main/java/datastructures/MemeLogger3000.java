@@ -39,7 +39,7 @@ public class MemeLogger3000 {
 		messageCount = 0L;
 		logName = loggerFileName;
 		// file name
-		outputFile = new File("logs\\" + logName + ".txt");
+		outputFile = new File("logs/" + logName + ".txt");
 		// if it already exists, rename it to something else
 		if (outputFile.exists()) {
 			String newName = "";
@@ -53,7 +53,7 @@ public class MemeLogger3000 {
 				e.printStackTrace();
 			}
 
-			outputFile.renameTo(new File("logs\\" + newName + ".txt"));
+			outputFile.renameTo(new File("logs/" + newName + ".txt"));
 		}
 
 		// create file
@@ -0,0 +1,83 @@
+package datastructures;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns a comma separated tag list typed into Discord into the tags stored and queried.
+ * One pass over the input splits on commas, trims, strips the characters the bot never keeps in a tag,
+ * lowercases and skips repeats, building each tag once with no intermediate split array or sets.
+ */
+public class MemeTagParser3000 {
+
+    private MemeTagParser3000() {
+    }
+
+    /**
+     * @param text comma separated tags, may be null
+     * @return the distinct non-empty tags in the order they first appear
+     */
+    public static List<String> parse(String text) {
+        List<String> tags = new ArrayList<>(4);
+        if(text == null)
+            return tags;
+        StringBuilder tag = new StringBuilder();
+        // length of the tag up to its last non-space character, what is left after trimming
+        int kept = 0;
+        for(int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ',';
+            if(c == ',') {
+                tag.setLength(kept);
+                add(tags, tag);
+                tag.setLength(0);
+                kept = 0;
+            } else if(Character.isWhitespace(c)) {
+                // leading spaces are dropped, inner ones kept once something follows them
+                if(kept > 0)
+                    tag.append(c);
+            } else if(!stripped(c)) {
+                tag.append(Character.toLowerCase(c));
+                kept = tag.length();
+            }
+        }
+        return tags;
+    }
+
+    /**
+     * Lowercases a tag the same way {@link #parse(String)} does, for tags stored before parsing lowercased them
+     * @param tag a tag
+     * @return the lowercased tag, the same instance when it has no uppercase characters
+     */
+    public static String lowercase(String tag) {
+        for(int i = 0; i < tag.length(); i++) {
+            if(Character.toLowerCase(tag.charAt(i)) != tag.charAt(i)) {
+                StringBuilder lower = new StringBuilder(tag.length());
+                for(int j = 0; j < tag.length(); j++)
+                    lower.append(Character.toLowerCase(tag.charAt(j)));
+                return lower.toString();
+            }
+        }
+        return tag;
+    }
+
+    /**
+     * @param c a character of a tag
+     * @return whether the character is dropped from tags
+     */
+    static boolean stripped(char c) {
+        return c == '"' || c == ';' || c == '[' || c == ']';
+    }
+
+    /**
+     * Adds a finished tag unless it is empty or already listed, tag lists are short enough to scan
+     */
+    private static void add(List<String> tags, StringBuilder tag) {
+        if(tag.length() == 0)
+            return;
+        for(int i = 0; i < tags.size(); i++) {
+            if(tags.get(i).contentEquals(tag))
+                return;
+        }
+        tags.add(tag.toString());
+    }
+}
@@ -0,0 +1,311 @@
+package datastructures;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Parsed tag query of a meme fetch. Commas join terms that must all match, | joins alternatives,
+ * a leading - excludes a term and parentheses group, so "cat|dog -nsfw" asks for a cat or dog meme that is not nsfw.
+ * A - only negates at the start of a term, after a comma, a space, a | or a (, so tags like spider-man keep their dash.
+ * Binding is tightest for -, then |, then commas. Parsing is lenient: empty terms and stray parentheses are skipped.
+ */
+public class MemeTagQuery3000 {
+    public enum Op {
+        TAG,    // a single tag
+        AND,    // every child matches
+        OR,     // any child matches
+        NOT     // the only child does not match
+    }
+
+    private final Op op;
+    private final String tag;
+    private final List<MemeTagQuery3000> children;
+
+    private MemeTagQuery3000(Op op, String tag, List<MemeTagQuery3000> children) {
+        this.op = op;
+        this.tag = tag;
+        this.children = Collections.unmodifiableList(children);
+    }
+
+    /**
+     * @param tag a tag
+     * @return query for memes with the tag
+     */
+    public static MemeTagQuery3000 tag(String tag) {
+        return new MemeTagQuery3000(Op.TAG, tag, new ArrayList<>());
+    }
+
+    /**
+     * @param tags tags that must all match
+     * @return query for memes with all of the tags
+     */
+    public static MemeTagQuery3000 allOf(List<String> tags) {
+        List<MemeTagQuery3000> children = new ArrayList<>();
+        for(String tag : tags)
+            children.add(tag(tag));
+        return combine(Op.AND, children);
+    }
+
+    /**
+     * Parses a query as typed by a user
+     * @param text the query
+     * @return the query, an AND without children when nothing could be parsed
+     */
+    public static MemeTagQuery3000 parse(String text) {
+        Parser parser = new Parser(text == null ? "" : text);
+        MemeTagQuery3000 query = parser.and();
+        // a ) closing nothing ends the group early, keep reading what follows it
+        while(parser.pos < parser.text.length()) {
+            parser.pos++;
+            MemeTagQuery3000 rest = parser.and();
+            if(!rest.isEmpty())
+                query = combine(Op.AND, new ArrayList<>(List.of(query, rest)));
+        }
+        return query;
+    }
+
+    public Op getOp() {
+        return op;
+    }
+
+    /**
+     * @return the tag of a TAG query, null otherwise
+     */
+    public String getTag() {
+        return tag;
+    }
+
+    public List<MemeTagQuery3000> getChildren() {
+        return children;
+    }
+
+    /**
+     * @return whether the query has no terms at all
+     */
+    public boolean isEmpty() {
+        return op == Op.AND && children.isEmpty();
+    }
+
+    /**
+     * @return whether the query only asks for memes with all of its tags, which a plain tag fetch can answer
+     */
+    public boolean isConjunction() {
+        if(op == Op.TAG)
+            return true;
+        if(op != Op.AND)
+            return false;
+        for(MemeTagQuery3000 child : children) {
+            if(child.op != Op.TAG)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return every tag in the query once, in the order they appear
+     */
+    public List<String> getTags() {
+        Set<String> tags = new LinkedHashSet<>();
+        collectTags(tags);
+        return new ArrayList<>(tags);
+    }
+
+    /**
+     * @return every tag the query asks for once, in the order they appear, leaving out tags only under a -
+     */
+    public List<String> getIncludedTags() {
+        Set<String> tags = new LinkedHashSet<>();
+        collectIncludedTags(tags);
+        return new ArrayList<>(tags);
+    }
+
+    private void collectTags(Set<String> tags) {
+        if(op == Op.TAG)
+            tags.add(tag);
+        for(MemeTagQuery3000 child : children)
+            child.collectTags(tags);
+    }
+
+    private void collectIncludedTags(Set<String> tags) {
+        if(op == Op.NOT)
+            return;
+        if(op == Op.TAG)
+            tags.add(tag);
+        for(MemeTagQuery3000 child : children)
+            child.collectIncludedTags(tags);
+    }
+
+    /**
+     * @param rename maps each tag to the tag to query instead
+     * @return the same query over the renamed tags
+     */
+    public MemeTagQuery3000 rename(Function<String, String> rename) {
+        if(op == Op.TAG)
+            return tag(rename.apply(tag));
+        List<MemeTagQuery3000> renamed = new ArrayList<>(children.size());
+        for(MemeTagQuery3000 child : children)
+            renamed.add(child.rename(rename));
+        return new MemeTagQuery3000(op, null, renamed);
+    }
+
+    /**
+     * @param rename maps each tag the query asks for to the tag to query instead
+     * @return the same query with the tags under a - kept as they are
+     */
+    public MemeTagQuery3000 renameIncluded(Function<String, String> rename) {
+        if(op == Op.NOT)
+            return this;
+        if(op == Op.TAG)
+            return tag(rename.apply(tag));
+        List<MemeTagQuery3000> renamed = new ArrayList<>(children.size());
+        for(MemeTagQuery3000 child : children)
+            renamed.add(child.renameIncluded(rename));
+        return new MemeTagQuery3000(op, null, renamed);
+    }
+
+    /**
+     * @return the query in the syntax it is parsed from
+     */
+    public String toString() {
+        switch(op) {
+            case TAG:
+                return tag;
+            case NOT:
+                return "-" + group(children.get(0), Op.NOT);
+            default:
+                List<String> parts = new ArrayList<>();
+                for(MemeTagQuery3000 child : children)
+                    parts.add(group(child, op));
+                return String.join(op == Op.OR ? "|" : ", ", parts);
+        }
+    }
+
+    public boolean equals(Object o) {
+        return o instanceof MemeTagQuery3000 && toString().equals(o.toString());
+    }
+
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    /**
+     * @return the child as written under a parent, in parentheses when it binds looser than the parent
+     */
+    private static String group(MemeTagQuery3000 child, Op parent) {
+        boolean looser = child.op == Op.AND || child.op == Op.OR && parent == Op.NOT;
+        return looser ? "(" + child + ")" : child.toString();
+    }
+
+    /**
+     * Builds an AND or OR, flattening children of the same kind and dropping the operator around a single child
+     */
+    private static MemeTagQuery3000 combine(Op op, List<MemeTagQuery3000> children) {
+        List<MemeTagQuery3000> flat = new ArrayList<>();
+        for(MemeTagQuery3000 child : children) {
+            if(child.op == op)
+                flat.addAll(child.children);
+            else if(!child.isEmpty())
+                flat.add(child);
+        }
+        if(flat.size() == 1)
+            return flat.get(0);
+        return new MemeTagQuery3000(op, null, flat);
+    }
+
+    private static class Parser {
+        private final String text;
+        private int pos;
+
+        Parser(String text) {
+            this.text = text;
+            pos = 0;
+        }
+
+        MemeTagQuery3000 and() {
+            List<MemeTagQuery3000> terms = new ArrayList<>();
+            while(true) {
+                skipSpaces();
+                if(pos >= text.length() || text.charAt(pos) == ')')
+                    break;
+                if(text.charAt(pos) == ',' || text.charAt(pos) == '|') {
+                    pos++;
+                    continue;
+                }
+                MemeTagQuery3000 term = or();
+                if(term != null)
+                    terms.add(term);
+            }
+            return combine(Op.AND, terms);
+        }
+
+        private MemeTagQuery3000 or() {
+            List<MemeTagQuery3000> alternatives = new ArrayList<>();
+            MemeTagQuery3000 term = unary();
+            if(term != null)
+                alternatives.add(term);
+            while(true) {
+                skipSpaces();
+                if(pos >= text.length() || text.charAt(pos) != '|')
+                    break;
+                pos++;
+                term = unary();
+                if(term != null)
+                    alternatives.add(term);
+            }
+            if(alternatives.isEmpty())
+                return null;
+            return combine(Op.OR, alternatives);
+        }
+
+        private MemeTagQuery3000 unary() {
+            skipSpaces();
+            if(pos >= text.length())
+                return null;
+            char c = text.charAt(pos);
+            if(c == '-') {
+                pos++;
+                MemeTagQuery3000 term = unary();
+                if(term == null)
+                    return null;
+                // a double negation cancels out
+                if(term.op == Op.NOT)
+                    return term.children.get(0);
+                return new MemeTagQuery3000(Op.NOT, null, new ArrayList<>(List.of(term)));
+            }
+            if(c == '(') {
+                pos++;
+                MemeTagQuery3000 group = and();
+                if(pos < text.length() && text.charAt(pos) == ')')
+                    pos++;
+                return group.isEmpty() ? null : group;
+            }
+            return tag();
+        }
+
+        private MemeTagQuery3000 tag() {
+            StringBuilder tag = new StringBuilder();
+            while(pos < text.length()) {
+                char c = text.charAt(pos);
+                if(c == ',' || c == '|' || c == '(' || c == ')')
+                    break;
+                if(Character.isWhitespace(c) && pos + 1 < text.length() && text.charAt(pos + 1) == '-')
+                    break;
+                // cleaned the same way as submitted tags
+                if(!MemeTagParser3000.stripped(c))
+                    tag.append(Character.toLowerCase(c));
+                pos++;
+            }
+            String trimmed = tag.toString().trim();
+            return trimmed.isEmpty() ? null : MemeTagQuery3000.tag(trimmed);
+        }
+
+        private void skipSpaces() {
+            while(pos < text.length() && Character.isWhitespace(text.charAt(pos)))
+                pos++;
+        }
+    }
+}
@@ -25,7 +25,8 @@ module.exports = {
 				if(channel != auth.channel){
 					if(data.content.includes('!meme') || data.content.includes('!request')){
 						//if not an allowed channel, treat it like a request
-						json = {"user":user, "channelID":channel, "command":"fetchMeme", "body":data.content.replace("!request ", "").replace("!meme ", "")}
+						// the guild picks the DB shard the meme is fetched from
+						json = {"user":user, "channelID":channel, "guildID":(data.guild ? data.guild.id : null), "command":"fetchMeme", "body":data.content.replace("!request ", "").replace("!meme ", "")}
 						
 						console.log(JSON.stringify(json))
 					}else if(/*check to see if its a DM*/data.channel.type == 'dm'){
@@ -37,9 +38,12 @@ module.exports = {
 						tags = data.content
 						
 						if(tags != ""){
+							// DMs have no guild, submissions go to the first guild the user is a member of
+							guild = bot.guilds.cache.array().find(g => g.members.cache.array().some(member => member.user.username == user)) || bot.guilds.cache.array()[0]
+							
 							// checks if user has the admin role
 							adminRole = false
-							bot.guilds.cache.array()[0].members.cache.array().forEach(member => {
+							guild.members.cache.array().forEach(member => {
 								if(member.user.username == user){
 									member.roles.cache.array().forEach(role => {
 										if(role.name == 'Meme curator'){
@@ -49,7 +53,7 @@ module.exports = {
 								}
 							});
 						
-							json = {'user':user, 'admin':adminRole, 'channelID':channel, 'url':url, 'body': tags, 'command': 'submitMeme'}
+							json = {'user':user, 'admin':adminRole, 'channelID':channel, 'guildID':guild.id, 'url':url, 'body': tags, 'command': 'submitMeme'}
 							console.log(JSON.stringify(json))
 						
 						}else{
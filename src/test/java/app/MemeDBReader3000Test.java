@@ -0,0 +1,106 @@
+package app;
+
+import datastructures.MemeBotMsg3000;
+import datastructures.MemeDBMsg3000;
+import datastructures.MemeLogger3000;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static datastructures.MemeDBMsg3000.MsgDBType.*;
+import static org.junit.Assert.*;
+
+public class MemeDBReader3000Test {
+    static MemeConfigLoader3000 config;
+    BlockingQueue<MemeBotMsg3000> botInputQ;
+    BlockingQueue<MemeBotMsg3000> botOutputQ;
+    BlockingQueue<MemeDBMsg3000> dbInputQ;
+    BlockingQueue<MemeDBMsg3000> dbOutputQ;
+    BlockingQueue<MemeDBMsg3000> approveQ;
+
+    @BeforeClass
+    public static void construct(){
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.scan("app");
+        context.refresh();
+        config = context.getBean(MemeConfigLoader3000.class);
+        context.close();
+    }
+
+    @Before
+    public void before(){
+        botInputQ = new LinkedBlockingQueue<>();
+        botOutputQ = new LinkedBlockingQueue<>();
+        dbInputQ = new LinkedBlockingQueue<>();
+        dbOutputQ = new LinkedBlockingQueue<>();
+        approveQ = new LinkedBlockingQueue<>();
+        MemeLogger3000 logger = new MemeLogger3000();
+
+        // neither reader ever stops on its own
+        MemeDBReader3000 dbReader = new MemeDBReader3000(logger, config, botInputQ, dbOutputQ, dbInputQ, approveQ);
+        dbReader.setDaemon(true);
+        dbReader.start();
+        MemeBotReader3000 botReader = new MemeBotReader3000(logger, botOutputQ, dbInputQ, approveQ);
+        botReader.setDaemon(true);
+        botReader.start();
+    }
+
+    /**
+     * @return the next message the readers sent to the DB of the given type
+     */
+    private MemeDBMsg3000 nextToDB(MemeDBMsg3000.MsgDBType type) throws InterruptedException {
+        for(MemeDBMsg3000 msg = dbInputQ.poll(5, TimeUnit.SECONDS); msg != null; msg = dbInputQ.poll(5, TimeUnit.SECONDS)){
+            if(msg.getType() == type)
+                return msg;
+        }
+        fail("No " + type + " sent to the DB");
+        return null;
+    }
+
+    @Test
+    public void curationShardTest() throws InterruptedException {
+        // the same ID is pending in two shards
+        dbOutputQ.put(new MemeDBMsg3000().type(REPLENISH_Q).id(1).shard("guildA"));
+        dbOutputQ.put(new MemeDBMsg3000().type(REPLENISH_Q).id(1).shard("guildB"));
+
+        MemeDBMsg3000 msg = nextToDB(GET_MEME_ID);
+        assertEquals((Integer) 1, msg.getId());
+        assertEquals("guildA", msg.getShard());
+
+        botOutputQ.put(new MemeBotMsg3000().command("approve").user("Ziggy").tags("bread"));
+        msg = nextToDB(PROMOTE_MEME);
+        assertEquals((Integer) 1, msg.getId());
+        assertEquals("guildA", msg.getShard());
+
+        dbOutputQ.put(new MemeDBMsg3000().type(CURATE_RESULT).id(1).link("a").username("Zabory").shard("guildA"));
+        assertEquals("guildA", nextToDB(GET_TAGS).getShard());
+
+        // the next pending meme has the same ID, it is still asked for by its own shard
+        msg = nextToDB(GET_MEME_ID);
+        assertEquals((Integer) 1, msg.getId());
+        assertEquals("guildB", msg.getShard());
+
+        botOutputQ.put(new MemeBotMsg3000().command("deny").user("Ziggy"));
+        msg = nextToDB(REJECT_MEME);
+        assertEquals((Integer) 1, msg.getId());
+        assertEquals("guildB", msg.getShard());
+    }
+
+    @Test
+    public void guildShardTest() throws InterruptedException {
+        botOutputQ.put(new MemeBotMsg3000(new JSONObject("{\"user\":\"Zabory\", \"channelID\":\"1\", \"guildID\":\"guildA\", \"command\":\"fetchMeme\", \"body\":\"bread\"}")));
+        assertEquals("guildA", nextToDB(GET_MEME_TAGS).getShard());
+
+        botOutputQ.put(new MemeBotMsg3000(new JSONObject("{\"user\":\"Zabory\", \"channelID\":\"1\", \"guildID\":null, \"command\":\"fetchMeme\", \"body\":\"bread\"}")));
+        assertNull(nextToDB(GET_MEME_TAGS).getShard());
+
+        botOutputQ.put(new MemeBotMsg3000(new JSONObject("{\"user\":\"Zabory\", \"admin\":false, \"channelID\":\"1\", \"guildID\":\"guildB\", \"url\":\"a\", \"command\":\"submitMeme\", \"body\":\"bread\"}")));
+        assertEquals("guildB", nextToDB(CACHE_MEME).getShard());
+    }
+}
@@ -2,19 +2,43 @@ package database;
 
 import app.MemeConfigLoader3000;
 import datastructures.MemeLogger3000;
+import datastructures.MemeTagQuery3000;
 import org.junit.*;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
 import org.springframework.context.annotation.AnnotationConfigApplicationContext;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
 import java.util.*;
 
 import static org.junit.Assert.*;
 
+/**
+ * Contract tests for the storage engines, every test runs against each engine.
+ * Tests of SQLite internals are skipped for the other engines.
+ */
+@RunWith(Parameterized.class)
 public class MemeDB3000Test {
-    static MemeDB3000 memebase;
     static MemeConfigLoader3000 config;
+    MemeStorageEngine3000 memebase;
+
+    @Parameterized.Parameter
+    public String engine;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> engines(){
+        return Arrays.asList(new Object[][]{{"sqlite"}, {"memory"}, {"log"}});
+    }
 
     @BeforeClass
     public static void construct(){
@@ -23,14 +47,38 @@ public class MemeDB3000Test {
         context.refresh();
         config = context.getBean(MemeConfigLoader3000.class);
         context.close();
-        memebase = new MemeDB3000(config, new MemeLogger3000());
     }
 
     @Before
-    public void before(){
+    public void before() throws IOException {
+        if(engine.equals("memory"))
+            memebase = new MemeMemoryDB3000(config, new MemeLogger3000());
+        else if(engine.equals("log")) {
+            Files.deleteIfExists(MemeLogDB3000.location(config));
+            memebase = new MemeLogDB3000(config, new MemeLogger3000());
+        } else
+            memebase = new MemeDB3000(config, new MemeLogger3000());
         assertTrue(memebase.open());
     }
 
+    /**
+     * Skips the rest of a test that checks SQLite internals
+     * @return the engine under test as the SQLite engine
+     */
+    private MemeDB3000 sqlite(){
+        Assume.assumeTrue(engine.equals("sqlite"));
+        return (MemeDB3000) memebase;
+    }
+
+    /**
+     * Skips the rest of a test that checks the log engine
+     * @return the engine under test as the log engine
+     */
+    private MemeLogDB3000 log(){
+        Assume.assumeTrue(engine.equals("log"));
+        return (MemeLogDB3000) memebase;
+    }
+
     @After
     public void after(){
         assertTrue(memebase.close());
@@ -40,6 +88,9 @@ public class MemeDB3000Test {
             conn.createStatement().execute("DELETE FROM " + config.getMemeTableName());
             conn.createStatement().execute("DELETE FROM " + config.getCacheTableName());
             conn.createStatement().execute("DELETE FROM " + config.getTagLkpTableName());
+            conn.createStatement().execute("DELETE FROM " + config.getLinkLkpTableName());
+            conn.createStatement().execute("DELETE FROM " + config.getSeqTableName());
+            conn.createStatement().execute("DELETE FROM " + config.getTagDictTableName());
             conn.close();
         } catch (SQLException throwables) {
             throwables.printStackTrace();
@@ -129,6 +180,94 @@ public class MemeDB3000Test {
         assertEquals(link3, memebase.get(Arrays.asList("animal", "oracle", "dog")));
     }
 
+    @Test
+    public void tagIndexTest() {
+        Integer ID1 = 1, ID2 = 2;
+        String link1 = "https://cdn.discordapp.com/attachments/647667357879107584/735884634818215936/p1Uoukq.jpeg",
+                link2 = "https://cdn.discordapp.com/attachments/647667357879107584/736409444577050764/MemeBot2000.jpg";
+        assertEquals(ID1, memebase.store("Ziggy", link1, Arrays.asList("meta", "books")));
+        assertEquals(ID2, memebase.cache("Ziggy", link2, Arrays.asList("meta", "server")));
+
+        // cached memes are not fetchable until promoted
+        assertEquals(link1, memebase.get(Arrays.asList("meta")));
+        assertEquals(null, memebase.get(Arrays.asList("server")));
+        assertEquals("Ziggy", memebase.promote(ID2, "Zabory", Arrays.asList("server", "diagram")));
+        assertEquals(link2, memebase.get(Arrays.asList("diagram", "server")));
+
+        // demoted memes drop out of the index
+        assertEquals("Ziggy", memebase.demote(ID1));
+        assertEquals(null, memebase.get(Arrays.asList("books")));
+
+        // the index is rebuilt from the DB on open
+        assertTrue(memebase.close());
+        assertTrue(memebase.open());
+        assertEquals(link2, memebase.get(Arrays.asList("server")));
+        assertEquals(null, memebase.get(Arrays.asList("meta")));
+    }
+
+    @Test
+    public void randomGetTest() {
+        Integer ID1 = 1, ID2 = 2, ID3 = 3;
+        String link1 = "https://cdn.discordapp.com/attachments/647667357879107584/735884634818215936/p1Uoukq.jpeg",
+                link2 = "https://cdn.discordapp.com/attachments/647667357879107584/736409444577050764/MemeBot2000.jpg",
+                link3 = "https://cdn.discordapp.com/attachments/647667357879107584/735864874932109322/xvOzIkw.jpeg";
+        assertEquals(ID1, memebase.store("Ziggy", link1, Arrays.asList("meta", "books")));
+        assertEquals(ID2, memebase.store("Ziggy", link2, new ArrayList<String>()));
+        assertEquals(ID3, memebase.store("Ziggy", link3, Arrays.asList("meta", "dog")));
+
+        // every approved meme, tagged or not, can come out of an untagged fetch
+        Set<String> seen = new HashSet<String>();
+        for(int i=0;i<200;i++)
+            seen.add(memebase.get(new ArrayList<String>()));
+        assertEquals(new HashSet<String>(Arrays.asList(link1, link2, link3)), seen);
+
+        seen.clear();
+        for(int i=0;i<200;i++)
+            seen.add(memebase.get(Arrays.asList("meta")));
+        assertEquals(new HashSet<String>(Arrays.asList(link1, link3)), seen);
+
+        assertEquals("Ziggy", memebase.demote(ID2));
+        for(int i=0;i<50;i++)
+            assertNotEquals(link2, memebase.get(new ArrayList<String>()));
+    }
+
+    @Test
+    public void statementCacheTest() {
+        MemeDB3000 memebase = sqlite();
+        Integer ID1 = 1;
+        String link1 = "https://cdn.discordapp.com/attachments/647667357879107584/735884634818215936/p1Uoukq.jpeg";
+        assertEquals(ID1, memebase.store("Ziggy", link1, Arrays.asList("meta", "books")));
+
+        // missing rows are not kept in the row cache, so every lookup runs the statement
+        long misses = memebase.getStatementCacheMisses();
+        long hits = memebase.getStatementCacheHits();
+        for(int i=0;i<10;i++)
+            assertEquals(null, memebase.get(ID1 + 1));
+
+        // only the first lookup prepares the statement
+        assertEquals(misses + 1, memebase.getStatementCacheMisses());
+        assertEquals(hits + 9, memebase.getStatementCacheHits());
+    }
+
+    @Test
+    public void unbatchedTagWriteTest() {
+        MemeDB3000 memebase = sqlite();
+        Integer ID1 = 1, ID2 = 2;
+        String link1 = "https://cdn.discordapp.com/attachments/647667357879107584/735884634818215936/p1Uoukq.jpeg",
+                link2 = "https://cdn.discordapp.com/attachments/647667357879107584/736409444577050764/MemeBot2000.jpg";
+        memebase.setBatchTagWrites(false);
+        try {
+            assertEquals(ID1, memebase.store("Ziggy", link1, Arrays.asList("meta", "books")));
+            assertEquals(ID2, memebase.cache("Ziggy", link2, Arrays.asList("server")));
+            assertEquals("Ziggy", memebase.promote(ID2, "Zabory", Arrays.asList("server", "diagram", "meta")));
+        } finally {
+            memebase.setBatchTagWrites(true);
+        }
+        assertEquals(Arrays.asList("books", "meta"), memebase.getTags(ID1));
+        assertEquals(Arrays.asList("diagram", "meta", "server"), memebase.getTags(ID2));
+        assertEquals(link2, memebase.get(Arrays.asList("meta", "diagram")));
+    }
+
     @Test
     public void getByIDTest() {
         Integer ID1 = 1, ID2 = 2, ID3 = 3, ID4 = 4;
@@ -169,6 +308,45 @@ public class MemeDB3000Test {
         assertEquals(null, memebase.store("Ziggy", link2, Arrays.asList("server", "diagram")));
     }
 
+    @Test
+    public void linkIndexTest() {
+        Integer ID1 = 1, ID2 = 2, ID3 = 3;
+        String link1 = "https://cdn.discordapp.com/attachments/647667357879107584/735884634818215936/p1Uoukq.jpeg",
+                link2 = "https://cdn.discordapp.com/attachments/647667357879107584/736409444577050764/MemeBot2000.jpg";
+        assertEquals(ID1, memebase.store("Ziggy", link1, Arrays.asList("meta", "books")));
+        assertEquals(ID2, memebase.cache("Owen", link2, Arrays.asList("server", "diagram")));
+
+        // the same link with a different scheme/host case or a fragment is still a duplicate
+        assertEquals(null, memebase.cache("Ethan", " HTTPS://CDN.DISCORDAPP.COM/attachments/647667357879107584/735884634818215936/p1Uoukq.jpeg#x", Arrays.asList("meta")));
+        assertEquals("This meme was already submitted by Ziggy", memebase.getError());
+
+        // rejecting frees the link up again
+        assertEquals("Owen", memebase.reject(ID2));
+        assertEquals(ID3, memebase.cache("Ethan", link2, Arrays.asList("server")));
+    }
+
+    @Test
+    public void linkBackfillTest() throws SQLException {
+        MemeDB3000 memebase = sqlite();
+        Integer ID1 = 1, ID2 = 2;
+        String link1 = "https://cdn.discordapp.com/attachments/647667357879107584/735884634818215936/p1Uoukq.jpeg",
+                link2 = "https://cdn.discordapp.com/attachments/647667357879107584/736409444577050764/MemeBot2000.jpg";
+        assertEquals(ID1, memebase.store("Ziggy", link1, Arrays.asList("meta", "books")));
+        assertEquals(ID2, memebase.cache("Ethan", link2, Arrays.asList("server")));
+
+        // lost link rows are rebuilt from the meme and cache tables on open
+        assertTrue(memebase.close());
+        Connection conn = DriverManager.getConnection("jdbc:sqlite:" + config.getDatabaseLocation());
+        conn.createStatement().execute("DELETE FROM " + config.getLinkLkpTableName());
+            conn.createStatement().execute("DELETE FROM " + config.getSeqTableName());
+        conn.close();
+        assertTrue(memebase.open());
+        assertEquals(null, memebase.store("Owen", link1, Arrays.asList("meta")));
+        assertEquals("This meme was already submitted by Ziggy", memebase.getError());
+        assertEquals(null, memebase.store("Owen", link2, Arrays.asList("meta")));
+        assertEquals("This meme was already submitted by Ethan", memebase.getError());
+    }
+
     @Test
     public void getTags() {
         Integer ID1 = 1, ID2 = 2, ID3 = 3, ID4 = 4;
@@ -213,6 +391,380 @@ public class MemeDB3000Test {
         }
     }
 
+    @Test
+    public void tagCountTest() {
+        Integer ID1 = 1, ID2 = 2, ID3 = 3;
+        String link1 = "https://cdn.discordapp.com/attachments/647667357879107584/735884634818215936/p1Uoukq.jpeg",
+                link2 = "https://cdn.discordapp.com/attachments/647667357879107584/736409444577050764/MemeBot2000.jpg",
+                link3 = "https://cdn.discordapp.com/attachments/647667357879107584/735864874932109322/xvOzIkw.jpeg";
+        assertEquals(ID1, memebase.store("Ziggy", link1, Arrays.asList("meta", "books")));
+        assertEquals(ID2, memebase.cache("Ziggy", link2, Arrays.asList("meta", "server")));
+        assertEquals(Arrays.asList("books (1)", "meta (1)"), memebase.getTags());
+
+        assertEquals("Ziggy", memebase.promote(ID2, "Zabory", Arrays.asList("meta", "server")));
+        assertEquals(Arrays.asList("books (1)", "meta (2)", "server (1)"), memebase.getTags());
+
+        assertEquals("Ziggy", memebase.demote(ID1));
+        assertEquals(Arrays.asList("meta (1)", "server (1)"), memebase.getTags());
+
+        assertEquals(ID3, memebase.cache("Ziggy", link3, Arrays.asList("dog")));
+        assertEquals("Ziggy", memebase.reject(ID3));
+        assertEquals("Ziggy", memebase.reject(ID1));
+        assertEquals(Arrays.asList("meta (1)", "server (1)"), memebase.getTags());
+    }
+
+    @Test
+    public void demoteExpiredTest() throws SQLException {
+        MemeDB3000 memebase = sqlite();
+        Integer ID1 = 1, ID2 = 2, ID3 = 3;
+        String link1 = "https://cdn.discordapp.com/attachments/647667357879107584/735884634818215936/p1Uoukq.jpeg",
+                link2 = "https://cdn.discordapp.com/attachments/647667357879107584/736409444577050764/MemeBot2000.jpg",
+                link3 = "https://cdn.discordapp.com/attachments/647667357879107584/735864874932109322/xvOzIkw.jpeg";
+        assertEquals(ID1, memebase.store("Ziggy", link1, Arrays.asList("meta", "books")));
+        assertEquals(ID2, memebase.store("Ziggy", link2, Arrays.asList("meta")));
+        assertEquals(ID3, memebase.store("Ziggy", link3, Arrays.asList("meta", "dog")));
+        assertEquals((Integer) 0, memebase.demoteExpired());
+
+        // memes without a timestamp count as expired
+        Connection conn = DriverManager.getConnection("jdbc:sqlite:" + config.getDatabaseLocation());
+        conn.createStatement().execute("UPDATE " + config.getMemeTableName() + " SET timestamp = NULL, epoch = NULL WHERE id < 3");
+        conn.close();
+
+        assertEquals((Integer) 2, memebase.demoteExpired());
+        assertEquals(null, memebase.get(ID1));
+        assertEquals(null, memebase.get(ID2));
+        assertEquals(link3, memebase.get(ID3));
+        assertEquals(link1, memebase.getCache(ID1));
+        assertEquals(Arrays.asList(ID1, ID2), memebase.getAllCacheIds());
+        assertEquals(Arrays.asList("dog (1)", "meta (1)"), memebase.getTags());
+        assertEquals((Integer) 0, memebase.demoteExpired());
+    }
+
+    @Test
+    public void maxAgeTest() throws SQLException {
+        MemeDB3000 memebase = sqlite();
+        Integer ID1 = 1, ID2 = 2;
+        String link1 = "https://cdn.discordapp.com/attachments/647667357879107584/735884634818215936/p1Uoukq.jpeg",
+                link2 = "https://cdn.discordapp.com/attachments/647667357879107584/736409444577050764/MemeBot2000.jpg";
+        assertEquals(ID1, memebase.store("Ziggy", link1, Arrays.asList("meta")));
+        assertEquals(ID2, memebase.store("Ziggy", link2, Arrays.asList("meta")));
+
+        Connection conn = DriverManager.getConnection("jdbc:sqlite:" + config.getDatabaseLocation());
+        conn.createStatement().execute("UPDATE " + config.getMemeTableName() + " SET epoch = epoch - 7200000 WHERE id = 1");
+        conn.close();
+
+        // both memes are newer than the fixed time, only the first is older than an hour
+        assertEquals((Integer) 0, memebase.demoteExpired());
+        memebase.setMaxAge(Duration.ofHours(1));
+        try {
+            assertEquals(Arrays.asList(ID1), memebase.getAllOldMemeIDs());
+            assertEquals((Integer) 1, memebase.demoteExpired());
+        } finally {
+            memebase.setMaxAge(null);
+        }
+        assertEquals(link2, memebase.get(ID2));
+    }
+
+    @Test
+    public void expiryBoundaryTest() throws SQLException {
+        MemeDB3000 memebase = sqlite();
+        Integer ID1 = 1, ID2 = 2;
+        assertEquals(ID1, memebase.store("Ziggy", "a", Arrays.asList("meta")));
+        assertEquals(ID2, memebase.store("Ziggy", "b", Arrays.asList("meta")));
+
+        // a clock that moves on every read, so statements reading it again would each see a later cutoff
+        long now = System.currentTimeMillis();
+        long[] ticks = {0};
+        Duration maxAge = Duration.ofHours(1);
+        long cutoff = now - maxAge.toMillis();
+        Connection conn = DriverManager.getConnection("jdbc:sqlite:" + config.getDatabaseLocation());
+        conn.createStatement().execute("UPDATE " + config.getMemeTableName() + " SET epoch = " + (cutoff - 1) + " WHERE id = 1");
+        conn.createStatement().execute("UPDATE " + config.getMemeTableName() + " SET epoch = " + (cutoff + 15) + " WHERE id = 2");
+        conn.close();
+
+        memebase.setMaxAge(maxAge);
+        memebase.setClock(() -> now + 10 * ticks[0]++);
+        try {
+            assertEquals((Integer) 1, memebase.demoteExpired());
+        } finally {
+            memebase.setMaxAge(null);
+            memebase.setClock(System::currentTimeMillis);
+        }
+        // the meme just before the cutoff moved to the cache, the one just after it stayed approved
+        assertNull(memebase.get(ID1));
+        assertEquals("a", memebase.getCache(ID1));
+        assertEquals("b", memebase.get(ID2));
+        assertNull(memebase.getCache(ID2));
+        assertEquals(Arrays.asList("meta (1)"), memebase.getTags());
+    }
+
+    @Test
+    public void epochBackfillTest() throws SQLException {
+        MemeDB3000 memebase = sqlite();
+        Integer ID1 = 1;
+        String link1 = "https://cdn.discordapp.com/attachments/647667357879107584/735884634818215936/p1Uoukq.jpeg";
+        assertEquals(ID1, memebase.store("Ziggy", link1, Arrays.asList("meta")));
+        assertTrue(memebase.close());
+
+        // a meme from before the epoch column gets its epoch from the timestamp string
+        Connection conn = DriverManager.getConnection("jdbc:sqlite:" + config.getDatabaseLocation());
+        conn.createStatement().execute("UPDATE " + config.getMemeTableName() + " SET timestamp = '1999-12-31 23:00:00.0', epoch = NULL");
+        conn.createStatement().execute("PRAGMA user_version=1");
+        conn.close();
+        assertTrue(memebase.open());
+
+        conn = DriverManager.getConnection("jdbc:sqlite:" + config.getDatabaseLocation());
+        ResultSet rs = conn.createStatement().executeQuery("SELECT epoch FROM " + config.getMemeTableName());
+        assertTrue(rs.next());
+        assertEquals(Timestamp.valueOf("1999-12-31 23:00:00").getTime(), rs.getLong("epoch"));
+        rs.close();
+
+        // the aging scan is a range over the epoch index
+        rs = conn.createStatement().executeQuery("EXPLAIN QUERY PLAN SELECT id FROM " + config.getMemeTableName() + " WHERE epoch IS NULL OR epoch < 0");
+        StringBuilder plan = new StringBuilder();
+        while(rs.next())
+            plan.append(rs.getString("detail")).append('\n');
+        rs.close();
+        conn.close();
+        assertTrue(plan.toString(), plan.toString().contains(config.getMemeTableName() + "_epoch"));
+
+        assertEquals((Integer) 1, memebase.demoteExpired());
+    }
+
+    @Test
+    public void idAllocatorTest() {
+        MemeDB3000 memebase = sqlite();
+        Integer ID1 = 1, ID2 = 2;
+        String link1 = "https://cdn.discordapp.com/attachments/647667357879107584/735884634818215936/p1Uoukq.jpeg",
+                link2 = "https://cdn.discordapp.com/attachments/647667357879107584/736409444577050764/MemeBot2000.jpg",
+                link3 = "https://cdn.discordapp.com/attachments/647667357879107584/735864874932109322/xvOzIkw.jpeg";
+        assertEquals(ID1, memebase.cache("Ziggy", link1, Arrays.asList("meta")));
+        assertEquals(ID2, memebase.cache("Ziggy", link2, Arrays.asList("meta")));
+        assertEquals("Ziggy", memebase.reject(ID2));
+
+        // the ID of a rejected meme is not handed out again after a restart
+        assertTrue(memebase.close());
+        assertTrue(memebase.open());
+        Integer reopened = memebase.cache("Ziggy", link2, Arrays.asList("meta"));
+        assertTrue(reopened > ID2);
+
+        // a second writer on the same DB reserves its own block
+        MemeDB3000 other = new MemeDB3000(config, new MemeLogger3000());
+        assertTrue(other.open());
+        try {
+            Integer otherID = other.cache("Owen", link3, Arrays.asList("dog"));
+            assertNotNull(otherID);
+            assertNotEquals(reopened, otherID);
+            assertEquals(link3, other.getCache(otherID));
+        } finally {
+            assertTrue(other.close());
+        }
+        assertEquals(link2, memebase.getCache(reopened));
+        assertEquals(Arrays.asList(ID1, reopened), memebase.getAllCacheIds().subList(0, 2));
+    }
+
+    @Test
+    public void groupCommitTest() {
+        MemeDB3000 memebase = sqlite();
+        Integer ID1 = 1, ID2 = 2, ID3 = 3;
+        String link1 = "https://cdn.discordapp.com/attachments/647667357879107584/735884634818215936/p1Uoukq.jpeg",
+                link2 = "https://cdn.discordapp.com/attachments/647667357879107584/736409444577050764/MemeBot2000.jpg",
+                link3 = "https://cdn.discordapp.com/attachments/647667357879107584/735864874932109322/xvOzIkw.jpeg";
+        memebase.startGroup();
+        assertTrue(memebase.startGroupItem());
+        assertEquals(ID1, memebase.store("Ziggy", link1, Arrays.asList("meta")));
+        // a duplicate of an item earlier in the same group is caught before the group commits
+        assertTrue(memebase.startGroupItem());
+        assertEquals(null, memebase.cache("Owen", link1, Arrays.asList("meta")));
+        // a failed item only rolls back its own rows
+        assertTrue(memebase.startGroupItem());
+        assertEquals(null, memebase.cache("Owen", link2, Arrays.asList("meta", null)));
+        assertTrue(memebase.startGroupItem());
+        Integer cached = memebase.cache("Ethan", link3, Arrays.asList("dog"));
+        assertNotNull(cached);
+        assertTrue(memebase.startGroupItem());
+        assertEquals(null, memebase.cache("Owen", link2, Arrays.asList("fresh", null)));
+
+        // nothing is visible to the in-memory indexes until the group commits
+        assertEquals(null, memebase.get(Arrays.asList("meta")));
+        assertTrue(memebase.commitGroup());
+        // the tag of the first item survived the rollback of the third, which used it too
+        assertNotNull(memebase.getTagDict().getId("meta"));
+        assertNotNull(memebase.getTagDict().getId("dog"));
+        assertNull(memebase.getTagDict().getId("fresh"));
+        assertEquals(link1, memebase.get(Arrays.asList("meta")));
+        assertEquals(link3, memebase.getCache(cached));
+        assertEquals(Arrays.asList("dog"), memebase.getTags(cached));
+
+        // the rolled back link is free again
+        Integer retried = memebase.cache("Owen", link2, Arrays.asList("meta"));
+        assertNotNull(retried);
+        assertEquals(Arrays.asList(cached, retried), memebase.getAllCacheIds());
+        assertTrue(ID2 <= cached && ID3 <= retried);
+    }
+
+    @Test
+    public void rowCacheTest() {
+        MemeDB3000 memebase = sqlite();
+        Integer ID1 = 1;
+        String link1 = "https://cdn.discordapp.com/attachments/647667357879107584/735884634818215936/p1Uoukq.jpeg";
+        assertEquals(ID1, memebase.cache("Ziggy", link1, Arrays.asList("meta", "books")));
+
+        // the approval flow reads the row it just wrote without going to the DB
+        long hits = memebase.getRowCacheHits(), misses = memebase.getRowCacheMisses();
+        assertEquals(link1, memebase.getCache(ID1));
+        assertEquals(Arrays.asList("books", "meta"), memebase.getTags(ID1));
+        assertEquals("Ziggy", memebase.promote(ID1, "Zabory", Arrays.asList("server", "meta")));
+        assertEquals(link1, memebase.get(ID1));
+        assertEquals(hits + 4, memebase.getRowCacheHits());
+        assertEquals(misses, memebase.getRowCacheMisses());
+
+        // every mutation leaves the cached row matching the DB
+        assertEquals(null, memebase.getCache(ID1));
+        assertEquals(Arrays.asList("meta", "server"), memebase.getTags(ID1));
+        assertEquals("Ziggy", memebase.demote(ID1));
+        assertEquals(null, memebase.get(ID1));
+        assertEquals(link1, memebase.getCache(ID1));
+        assertEquals("Ziggy", memebase.reject(ID1));
+        assertEquals(null, memebase.getCache(ID1));
+        assertEquals(new ArrayList<String>(), memebase.getTags(ID1));
+
+        // rows read back from the DB after a restart match what was cached
+        assertEquals((Integer) 2, memebase.store("Ziggy", link1, Arrays.asList("meta")));
+        assertTrue(memebase.close());
+        assertTrue(memebase.open());
+        misses = memebase.getRowCacheMisses();
+        assertEquals(link1, memebase.get(2));
+        assertEquals(Arrays.asList("meta"), memebase.getTags(2));
+        assertEquals(misses + 1, memebase.getRowCacheMisses());
+    }
+
+    @Test
+    public void tagDictMigrationTest() throws SQLException {
+        MemeDB3000 memebase = sqlite();
+        Integer ID1 = 1, ID2 = 2;
+        String link1 = "https://cdn.discordapp.com/attachments/647667357879107584/735884634818215936/p1Uoukq.jpeg",
+                link2 = "https://cdn.discordapp.com/attachments/647667357879107584/736409444577050764/MemeBot2000.jpg";
+        assertEquals(ID1, memebase.store("Ziggy", link1, Arrays.asList("meta", "books")));
+        assertEquals(ID2, memebase.cache("Ziggy", link2, Arrays.asList("meta", "server")));
+        assertTrue(memebase.close());
+
+        // put the tag lookup back the way it was before the tag dictionary
+        String tagLkp = config.getTagLkpTableName(), tagDict = config.getTagDictTableName();
+        Connection conn = DriverManager.getConnection("jdbc:sqlite:" + config.getDatabaseLocation());
+        conn.createStatement().execute("CREATE TABLE " + tagLkp + "_old AS SELECT t.id id, d.tag tag FROM " + tagLkp + " t JOIN " + tagDict + " d ON d.tagId = t.tagId");
+        conn.createStatement().execute("DROP TABLE " + tagLkp);
+        conn.createStatement().execute("ALTER TABLE " + tagLkp + "_old RENAME TO " + tagLkp);
+        conn.createStatement().execute("DROP TABLE " + tagDict);
+        conn.createStatement().execute("PRAGMA user_version=3");
+        conn.close();
+
+        assertTrue(memebase.open());
+        assertEquals(Arrays.asList("books", "meta"), memebase.getTags(ID1));
+        assertEquals(Arrays.asList("meta", "server"), memebase.getTags(ID2));
+        assertEquals(link1, memebase.get(Arrays.asList("books", "meta")));
+        assertEquals("Ziggy", memebase.promote(ID2, "Zabory", Arrays.asList("server", "diagram")));
+        assertEquals(Arrays.asList("books (1)", "diagram (1)", "meta (1)", "server (1)"), memebase.getTags());
+
+        // every tag string is stored once
+        conn = DriverManager.getConnection("jdbc:sqlite:" + config.getDatabaseLocation());
+        ResultSet rs = conn.createStatement().executeQuery("SELECT COUNT(*) c FROM " + tagDict);
+        assertTrue(rs.next());
+        assertEquals(4, rs.getInt("c"));
+        rs.close();
+        conn.close();
+    }
+
+    @Test
+    public void lowercaseTagMigrationTest() throws SQLException {
+        MemeDB3000 memebase = sqlite();
+        Integer ID1 = 1, ID2 = 2;
+        String link1 = "https://cdn.discordapp.com/attachments/647667357879107584/735884634818215936/p1Uoukq.jpeg",
+                link2 = "https://cdn.discordapp.com/attachments/647667357879107584/736409444577050764/MemeBot2000.jpg";
+        assertEquals(ID1, memebase.store("Ziggy", link1, Arrays.asList("cat", "books")));
+        assertEquals(ID2, memebase.cache("Ziggy", link2, Arrays.asList("meta")));
+        assertTrue(memebase.close());
+
+        // tags as they were stored before submissions were lowercased
+        String tagLkp = config.getTagLkpTableName(), tagDict = config.getTagDictTableName();
+        Connection conn = DriverManager.getConnection("jdbc:sqlite:" + config.getDatabaseLocation());
+        conn.createStatement().execute("INSERT INTO " + tagDict + " (tag) VALUES ('Cat'), ('META'), ('Dog'), ('DOG')");
+        conn.createStatement().execute("INSERT INTO " + tagLkp + " (id, tagId) SELECT " + ID1 + ", tagId FROM " + tagDict + " WHERE tag = 'Cat'");
+        conn.createStatement().execute("INSERT INTO " + tagLkp + " (id, tagId) SELECT " + ID2 + ", tagId FROM " + tagDict + " WHERE tag IN ('META', 'Dog', 'DOG')");
+        conn.createStatement().execute("PRAGMA user_version=4");
+        conn.close();
+
+        assertTrue(memebase.open());
+        assertEquals(Arrays.asList("books", "cat"), memebase.getTags(ID1));
+        assertEquals(Arrays.asList("dog", "meta"), memebase.getTags(ID2));
+        assertEquals(Arrays.asList("books (1)", "cat (1)"), memebase.getTags());
+        assertEquals(link1, memebase.get(Arrays.asList("cat")));
+
+        // each tag is stored once and each meme has it once
+        conn = DriverManager.getConnection("jdbc:sqlite:" + config.getDatabaseLocation());
+        ResultSet rs = conn.createStatement().executeQuery("SELECT COUNT(*) c FROM " + tagDict);
+        assertTrue(rs.next());
+        assertEquals(4, rs.getInt("c"));
+        rs.close();
+        rs = conn.createStatement().executeQuery("SELECT COUNT(*) c FROM " + tagLkp);
+        assertTrue(rs.next());
+        assertEquals(4, rs.getInt("c"));
+        rs.close();
+        conn.close();
+    }
+
+    @Test
+    public void idCursorTest() throws SQLException {
+        String link = "a";
+        for(int i=1;i<=5;i++){
+            assertEquals((Integer) i, memebase.cache("Ziggy", link, Arrays.asList("meta")));
+            link += "a";
+        }
+
+        try (MemeIDCursor3000 cursor = memebase.cacheIdCursor(2)) {
+            assertEquals(2, cursor.next());
+            assertArrayEquals(new int[]{1, 2}, cursor.chunk());
+            assertEquals(2, cursor.next());
+            assertArrayEquals(new int[]{3, 4}, cursor.chunk());
+            assertEquals(1, cursor.next());
+            assertEquals(5, cursor.chunk()[0]);
+            assertEquals(0, cursor.next());
+            assertEquals(5, cursor.getCount());
+        }
+
+        // the writer can still be used once the cursor is closed
+        assertEquals("Ziggy", memebase.promote(1, "Zabory", Arrays.asList("meta")));
+        assertEquals(new ArrayList<Integer>(), memebase.getAllOldMemeIDs());
+    }
+
+    @Test
+    public void migrationTest() throws SQLException {
+        MemeDB3000 memebase = sqlite();
+        int latest = new MemeMigrator3000(new MemeLogger3000()).getLatestVersion();
+        assertTrue(memebase.close());
+
+        // a DB from before the migrations is brought up to the latest level on open
+        Connection conn = DriverManager.getConnection("jdbc:sqlite:" + config.getDatabaseLocation());
+        conn.createStatement().execute("PRAGMA user_version=0");
+        assertEquals(0, MemeMigrator3000.getVersion(conn));
+        conn.close();
+        assertTrue(memebase.open());
+
+        conn = DriverManager.getConnection("jdbc:sqlite:" + config.getDatabaseLocation());
+        assertEquals(latest, MemeMigrator3000.getVersion(conn));
+
+        // the tag intersection reads only the index
+        ResultSet rs = conn.createStatement().executeQuery("EXPLAIN QUERY PLAN SELECT id FROM " + config.getTagLkpTableName() + " WHERE tagId = 1");
+        assertTrue(rs.next());
+        assertTrue(rs.getString("detail").contains("COVERING INDEX"));
+        rs.close();
+        conn.close();
+
+        // nothing is left to apply on the next open
+        assertTrue(memebase.close());
+        assertTrue(memebase.open());
+    }
+
     @Test
     public void getCacheIdsTest() {
         Integer ID1 = 1, ID2 = 2;
@@ -222,4 +774,265 @@ public class MemeDB3000Test {
         assertEquals(ID2, memebase.cache("Ziggy", link2, Arrays.asList("server", "diagram")));
         assertEquals(Arrays.asList(ID1, ID2), memebase.getAllCacheIds());
     }
+
+    @Test
+    public void logReplayTest() {
+        MemeLogDB3000 memebase = log();
+        String link1 = "https://cdn.discordapp.com/attachments/647667357879107584/735884634818215936/p1Uoukq.jpeg",
+                link2 = "https://cdn.discordapp.com/attachments/647667357879107584/736409444577050764/MemeBot2000.jpg",
+                link3 = "https://cdn.discordapp.com/attachments/647667357879107584/735864874932109322/xvOzIkw.jpeg";
+        assertEquals((Integer) 1, memebase.store("Ziggy", link1, Arrays.asList("meta", "b\u00e9\u00e5ks")));
+        assertEquals((Integer) 2, memebase.cache("Owen", link2, Arrays.asList("server")));
+        assertEquals((Integer) 3, memebase.cache("Ethan", link3, Arrays.asList("dog")));
+        assertEquals("Owen", memebase.promote(2, "Zabory", Arrays.asList("server", "diagram")));
+        assertEquals("Ziggy", memebase.demote(1));
+        assertEquals("Ethan", memebase.reject(3));
+        assertTrue(memebase.close());
+
+        // a fresh engine rebuilds the same memes from the log
+        MemeLogDB3000 reopened = new MemeLogDB3000(config, new MemeLogger3000());
+        assertTrue(reopened.open());
+        assertEquals(6, reopened.getRecordCount());
+        assertEquals(link1, reopened.getCache(1));
+        assertEquals(Arrays.asList("b\u00e9\u00e5ks", "meta"), reopened.getTags(1));
+        assertEquals(link2, reopened.get(2));
+        assertEquals(link2, reopened.get(Arrays.asList("server", "diagram")));
+        assertNull(reopened.getCache(3));
+        // the rejected link can be submitted again and IDs carry on after it
+        assertEquals((Integer) 4, reopened.cache("Ethan", link3, Arrays.asList("dog")));
+        assertTrue(reopened.close());
+    }
+
+    @Test
+    public void logLowercaseReplayTest() {
+        MemeLogDB3000 memebase = log();
+        String link = "https://cdn.discordapp.com/attachments/647667357879107584/735884634818215936/p1Uoukq.jpeg";
+        // records written before submissions were lowercased
+        assertEquals((Integer) 1, memebase.store("Ziggy", link, Arrays.asList("Cat", "cat", "BOOKS")));
+        assertTrue(memebase.close());
+
+        MemeLogDB3000 reopened = new MemeLogDB3000(config, new MemeLogger3000());
+        assertTrue(reopened.open());
+        assertEquals(Arrays.asList("books", "cat"), reopened.getTags(1));
+        assertEquals(link, reopened.get(Arrays.asList("cat", "books")));
+        assertTrue(reopened.close());
+    }
+
+    @Test
+    public void logCorruptTailTest() throws IOException {
+        MemeLogDB3000 memebase = log();
+        String link = "https://cdn.discordapp.com/attachments/647667357879107584/735884634818215936/p1Uoukq.jpeg";
+        assertEquals((Integer) 1, memebase.store("Ziggy", link, Arrays.asList("meta")));
+        assertTrue(memebase.close());
+
+        // a length shorter than a record header or negative is garbage left behind, not a record,
+        // even when a record type and ID follow it
+        int records = 1, id = 2;
+        for(int length : new int[]{3, -8}) {
+            try(FileChannel channel = FileChannel.open(MemeLogDB3000.location(config), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // walk the records past the file header to the zero length that ends the log
+                ByteBuffer buf = ByteBuffer.allocate(Integer.BYTES);
+                long end = 8;
+                while(true) {
+                    buf.clear();
+                    channel.read(buf, end);
+                    if(buf.getInt(0) == 0)
+                        break;
+                    end += buf.getInt(0);
+                }
+                // then the type of a HEAD record and an ID it would move the next one past
+                ByteBuffer tail = ByteBuffer.allocate(9);
+                tail.putInt(length).put((byte) 6).putInt(1000).flip();
+                channel.write(tail, end);
+            }
+
+            MemeLogDB3000 reopened = new MemeLogDB3000(config, new MemeLogger3000());
+            assertTrue(reopened.open());
+            assertEquals(records, reopened.getRecordCount());
+            assertEquals(link, reopened.get(1));
+            // the next record is appended over the garbage
+            assertEquals((Integer) id, reopened.cache("Owen", link + length, Arrays.asList("spam")));
+            assertEquals("Owen", reopened.reject(id));
+            assertTrue(reopened.close());
+            records += 2;
+            id++;
+        }
+
+        MemeLogDB3000 reopened = new MemeLogDB3000(config, new MemeLogger3000());
+        assertTrue(reopened.open());
+        assertEquals(5, reopened.getRecordCount());
+        assertEquals((Integer) 4, reopened.cache("Owen", link + "x", Arrays.asList("spam")));
+        assertTrue(reopened.close());
+    }
+
+    @Test
+    public void logCompactionTest() throws IOException {
+        MemeLogDB3000 memebase = log();
+        String link = "https://cdn.discordapp.com/attachments/647667357879107584/735884634818215936/p1Uoukq.jpeg";
+        assertEquals((Integer) 1, memebase.cache("Ziggy", link, Arrays.asList("meta")));
+        assertEquals("Ziggy", memebase.promote(1, "Zabory", Arrays.asList("meta", "books")));
+        for(int i = 0; i < 10; i++) {
+            Integer id = memebase.cache("Owen", link + i, Arrays.asList("spam"));
+            assertEquals("Owen", memebase.reject(id));
+        }
+        assertEquals(22, memebase.getRecordCount());
+
+        // only the ID head and the approved meme are left
+        memebase.compact();
+        assertEquals(3, memebase.getRecordCount());
+        assertEquals(link, memebase.get(1));
+        assertEquals((Integer) 12, memebase.cache("Owen", link + "x", Arrays.asList("spam")));
+        assertTrue(memebase.close());
+
+        MemeLogDB3000 reopened = new MemeLogDB3000(config, new MemeLogger3000());
+        assertTrue(reopened.open());
+        assertEquals(4, reopened.getRecordCount());
+        assertEquals(link, reopened.get(Arrays.asList("books")));
+        assertEquals(link + "x", reopened.getCache(12));
+        assertEquals((Integer) 13, reopened.cache("Owen", link + "y", Arrays.asList("spam")));
+        assertTrue(reopened.close());
+    }
+
+    @Test
+    public void backupTest() throws SQLException, IOException {
+        MemeDB3000 memebase = sqlite();
+        String link1 = "https://cdn.discordapp.com/attachments/647667357879107584/735884634818215936/p1Uoukq.jpeg",
+                link2 = "https://cdn.discordapp.com/attachments/647667357879107584/736409444577050764/MemeBot2000.jpg";
+        assertEquals((Integer) 1, memebase.store("Ziggy", link1, Arrays.asList("meta")));
+        assertEquals((Integer) 2, memebase.cache("Owen", link2, Arrays.asList("server")));
+
+        MemeBackup3000 backup = new MemeBackup3000(config, new MemeLogger3000());
+        Files.deleteIfExists(backup.getTarget());
+        MemeBackup3000.Result result = backup.backup();
+        assertNotNull(result);
+        assertTrue(result.pages > 0);
+        assertEquals(Files.size(backup.getTarget()), result.bytes);
+
+        // the writer keeps its connection through the backup
+        assertEquals("Owen", memebase.promote(2, "Zabory", Arrays.asList("server")));
+
+        Connection conn = DriverManager.getConnection("jdbc:sqlite:" + backup.getTarget());
+        ResultSet rs = conn.createStatement().executeQuery("SELECT link FROM " + config.getMemeTableName());
+        assertTrue(rs.next());
+        assertEquals(link1, rs.getString(1));
+        assertFalse(rs.next());
+        rs = conn.createStatement().executeQuery("SELECT COUNT(*) FROM " + config.getCacheTableName());
+        assertEquals(1, rs.getInt(1));
+        conn.close();
+        Files.delete(backup.getTarget());
+    }
+
+    @Test
+    public void getIDsTest() {
+        assertEquals((Integer) 1, memebase.store("Ziggy", "a", Arrays.asList("cat", "dog")));
+        assertEquals((Integer) 2, memebase.store("Ziggy", "b", Arrays.asList("cat")));
+        assertEquals((Integer) 3, memebase.cache("Ziggy", "c", Arrays.asList("cat")));
+        int[] ids = memebase.getIDs(Arrays.asList("cat"));
+        Arrays.sort(ids);
+        assertArrayEquals(new int[]{1, 2}, ids);
+        assertArrayEquals(new int[]{1}, memebase.getIDs(Arrays.asList("dog", "cat")));
+        assertEquals(2, memebase.getIDs(new ArrayList<>()).length);
+        assertEquals(0, memebase.getIDs(Arrays.asList("bird")).length);
+    }
+
+    @Test
+    public void resolveTagsTest() {
+        assertEquals((Integer) 1, memebase.store("Ziggy", "a", Arrays.asList("cats", "dog")));
+        assertEquals((Integer) 2, memebase.store("Ziggy", "b", Arrays.asList("cats", "hippopotamus")));
+        assertEquals((Integer) 3, memebase.store("Ziggy", "c", Arrays.asList("cat", "doggo")));
+
+        // the closest tag wins, then the one on more memes, then the first in order
+        assertEquals(Arrays.asList("cats", "dog", "dog", "cat"), memebase.resolveTags(Arrays.asList("catz", "do", "dogg", "cat")));
+        // too far off to be a typo, so the tag is completed as a prefix
+        assertEquals(Arrays.asList("hippopotamus"), memebase.resolveTags(Arrays.asList("hippo")));
+        assertEquals(Arrays.asList("zebra", "hi"), memebase.resolveTags(Arrays.asList("zebra", "hi")));
+        assertEquals("c", memebase.get(memebase.resolveTags(Arrays.asList("doggos"))));
+
+        // tags of memes that are no longer approved are not matched
+        assertEquals("Ziggy", memebase.demote(3));
+        assertEquals(Arrays.asList("doggos"), memebase.resolveTags(Arrays.asList("doggos")));
+    }
+
+    @Test
+    public void resolveCompletionTest() {
+        // far more completions than are weighed, the one on the most memes is still found
+        for(int i = 0; i < 100; i++)
+            assertEquals((Integer) (i + 1), memebase.store("Ziggy", "a" + i, Arrays.asList("hipster" + i)));
+        assertEquals((Integer) 101, memebase.store("Ziggy", "b", Arrays.asList("hipsterwave")));
+        assertEquals((Integer) 102, memebase.store("Ziggy", "c", Arrays.asList("hipsterwave")));
+        assertEquals(Arrays.asList("hipsterwave"), memebase.resolveTags(Arrays.asList("hip")));
+    }
+
+    @Test
+    public void queryTest() {
+        assertEquals((Integer) 1, memebase.store("Ziggy", "a", Arrays.asList("cat", "funny")));
+        assertEquals((Integer) 2, memebase.store("Ziggy", "b", Arrays.asList("dog", "nsfw")));
+        assertEquals((Integer) 3, memebase.store("Ziggy", "c", Arrays.asList("dog")));
+        assertEquals((Integer) 4, memebase.store("Ziggy", "d", Arrays.asList("bird", "nsfw")));
+
+        assertEquals("c", memebase.get(MemeTagQuery3000.parse("dog -nsfw")));
+        assertEquals("d", memebase.get(MemeTagQuery3000.parse("nsfw -(dog|cat)")));
+        assertEquals("a", memebase.get(MemeTagQuery3000.parse("-nsfw, -dog")));
+        assertNull(memebase.get(MemeTagQuery3000.parse("cat|bird -funny -nsfw")));
+        assertNull(memebase.get(MemeTagQuery3000.parse("unicorn|-(cat|dog|bird)")));
+
+        Set<String> links = new HashSet<>();
+        for(int i=0;i<200;i++)
+            links.add(memebase.get(MemeTagQuery3000.parse("cat|dog -nsfw")));
+        assertEquals(new HashSet<>(Arrays.asList("a", "c")), links);
+
+        // demoted memes drop out of every query
+        assertEquals("Ziggy", memebase.demote(3));
+        assertEquals("a", memebase.get(MemeTagQuery3000.parse("cat|dog -nsfw")));
+        assertNull(memebase.get(MemeTagQuery3000.parse("dog -nsfw")));
+    }
+
+    @Test
+    public void callTest() {
+        MemeDBResult3000<Integer> stored = memebase.call(db -> db.store("Ziggy", "a", Arrays.asList("cat")));
+        assertTrue(stored.isOk());
+        assertEquals((Integer) 1, stored.getValue());
+        assertNull(stored.getFailure());
+        assertTrue(stored.getNanos() >= 0);
+
+        MemeDBResult3000<Integer> duplicate = memebase.call(db -> db.cache("Zabory", "a", Arrays.asList("dog")));
+        assertFalse(duplicate.isOk());
+        assertEquals(MemeDBResult3000.Failure.DUPLICATE, duplicate.getFailure());
+        assertEquals("This meme was already submitted by Ziggy", duplicate.getMessage());
+
+        MemeDBResult3000<String> missing = memebase.call(db -> db.demote(5));
+        assertEquals(MemeDBResult3000.Failure.NOT_FOUND, missing.getFailure());
+        assertFalse(missing.getMessage().isEmpty());
+        // nothing matching is not found too, even though the engine has no error for it
+        assertEquals(MemeDBResult3000.Failure.NOT_FOUND, memebase.call(db -> db.get(Arrays.asList("dog"))).getFailure());
+    }
+
+    @Test
+    public void errorClearedTest() {
+        // every call starts without the error of the call before it
+        assertNull(memebase.reject(5));
+        assertFalse(memebase.getError().isEmpty());
+        assertEquals((Integer) 1, memebase.cache("Ziggy", "a", Arrays.asList("cat")));
+        assertEquals("", memebase.getError());
+
+        assertNull(memebase.demote(5));
+        assertNotNull(memebase.promote(1, "Zabory", Arrays.asList("cat")));
+        assertEquals("", memebase.getError());
+
+        assertNull(memebase.promote(5, "Zabory", Arrays.asList("cat")));
+        assertNotNull(memebase.demote(1));
+        assertEquals("", memebase.getError());
+
+        assertNull(memebase.demote(5));
+        assertNotNull(memebase.reject(1));
+        assertEquals("", memebase.getError());
+
+        assertNull(memebase.reject(5));
+        assertEquals((Integer) 0, memebase.demoteExpired());
+        assertEquals("", memebase.getError());
+
+        assertNull(memebase.reject(5));
+        assertNotNull(memebase.getAllCacheIds());
+        assertEquals("", memebase.getError());
+    }
 }
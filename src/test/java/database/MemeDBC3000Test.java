@@ -3,12 +3,16 @@ package database;
 import app.MemeConfigLoader3000;
 import datastructures.MemeDBMsg3000;
 import datastructures.MemeLogger3000;
+import datastructures.MemeTagQuery3000;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.springframework.context.annotation.AnnotationConfigApplicationContext;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
@@ -53,6 +57,8 @@ public class MemeDBC3000Test {
             conn.createStatement().execute("DELETE FROM " + config.getMemeTableName());
             conn.createStatement().execute("DELETE FROM " + config.getCacheTableName());
             conn.createStatement().execute("DELETE FROM " + config.getTagLkpTableName());
+            conn.createStatement().execute("DELETE FROM " + config.getLinkLkpTableName());
+            conn.createStatement().execute("DELETE FROM " + config.getSeqTableName());
             conn.close();
 
             controller.join();
@@ -257,6 +263,105 @@ public class MemeDBC3000Test {
         }
     }
 
+    @Test
+    public void initializeTest(){
+        try {
+            String link = "d";
+            for(int i=0;i<3;i++){
+                inputQ.put(new MemeDBMsg3000()
+                        .type(CACHE_MEME)
+                        .link(link)
+                        .username("Ziggy")
+                        .tags(Arrays.asList("dog"))
+                );
+                link += "d";
+            }
+            for(int i=0;i<3;i++)
+                outputQ.take();
+
+            inputQ.put(new MemeDBMsg3000().type(INITIALIZE));
+            for(int i=1;i<=3;i++){
+                MemeDBMsg3000 msg = (MemeDBMsg3000) outputQ.take();
+                assertEquals(REPLENISH_Q, msg.getType());
+                assertEquals((Integer) i, msg.getId());
+            }
+            assertEquals(ALL_TAGS, ((MemeDBMsg3000) outputQ.take()).getType());
+            assertEquals(INIT_ACK, ((MemeDBMsg3000) outputQ.take()).getType());
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            assertTrue(false);
+        }
+    }
+
+    @Test
+    public void submissionBurstTest(){
+        try {
+            // submissions that arrive together may share a transaction but are answered one by one
+            String link = "e";
+            for(int i=0;i<10;i++){
+                inputQ.put(new MemeDBMsg3000()
+                        .type(i % 2 == 0 ? CACHE_MEME : STORE_MEME)
+                        .link(i == 5 ? "e" : link)
+                        .username("user" + i)
+                        .tags(Arrays.asList("dog"))
+                );
+                link += "e";
+            }
+            for(int i=0;i<10;i++){
+                MemeDBMsg3000 msg = (MemeDBMsg3000) outputQ.take();
+                assertEquals("user" + i, msg.getUsername());
+                assertEquals(i == 5 ? ERROR : SUBMIT_ACK, msg.getType());
+            }
+
+            inputQ.put(new MemeDBMsg3000().type(GET_TAGS));
+            assertEquals(Arrays.asList("dog (4)"), ((MemeDBMsg3000) outputQ.take()).getTags());
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            assertTrue(false);
+        }
+    }
+
+    @Test
+    public void userOrderingTest(){
+        try {
+            // each user's fetch is queued right behind their own store and must see it
+            String link = "c";
+            for(int i=0;i<10;i++){
+                inputQ.put(new MemeDBMsg3000()
+                        .type(STORE_MEME)
+                        .link(link)
+                        .username("user" + i)
+                        .tags(Arrays.asList("tag" + i))
+                );
+                inputQ.put(new MemeDBMsg3000()
+                        .type(GET_MEME_TAGS)
+                        .username("user" + i)
+                        .channelID((long) i)
+                        .tags(Arrays.asList("tag" + i))
+                );
+                link += "c";
+            }
+
+            Map<String, List<MemeDBMsg3000>> replies = new HashMap<>();
+            for(int i=0;i<20;i++){
+                MemeDBMsg3000 msg = (MemeDBMsg3000) outputQ.take();
+                replies.computeIfAbsent(msg.getUsername(), k -> new ArrayList<>()).add(msg);
+            }
+            link = "c";
+            for(int i=0;i<10;i++){
+                List<MemeDBMsg3000> userReplies = replies.get("user" + i);
+                assertEquals(2, userReplies.size());
+                assertEquals(SUBMIT_ACK, userReplies.get(0).getType());
+                assertEquals(MEME, userReplies.get(1).getType());
+                assertEquals(link, userReplies.get(1).getLink());
+                link += "c";
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            assertTrue(false);
+        }
+    }
+
     @Test
     public void errorTest(){
 
@@ -466,4 +571,193 @@ public class MemeDBC3000Test {
         return msgs.get(rand.nextInt(msgs.size()-1));
     }
 
+
+    @Test
+    public void backupWhileServingTest() throws InterruptedException, IOException {
+        Path target = new MemeBackup3000(config, new MemeLogger3000()).getTarget();
+        Files.deleteIfExists(target);
+        String link = "https://cdn.discordapp.com/attachments/647667357879107584/735884634818215936/p1Uoukq.jpeg";
+        inputQ.put(new MemeDBMsg3000()
+                .type(STORE_MEME)
+                .link(link)
+                .username("Zabory")
+                .tags(Arrays.asList("bread")));
+        assertEquals(SUBMIT_ACK, ((MemeDBMsg3000) outputQ.take()).getType());
+
+        // fetches are still answered while the backup runs
+        inputQ.put(new MemeDBMsg3000().type(BACKUP));
+        inputQ.put(new MemeDBMsg3000()
+                .type(GET_MEME_TAGS)
+                .username("Zabory")
+                .channelID(1L)
+                .tags(Arrays.asList("bread")));
+        MemeDBMsg3000 msg = (MemeDBMsg3000) outputQ.take();
+        assertEquals(MEME, msg.getType());
+        assertEquals(link, msg.getLink());
+
+        for(int i = 0; i < 100 && !Files.exists(target); i++)
+            Thread.sleep(50);
+        assertTrue(Files.exists(target));
+        Files.delete(target);
+    }
+
+    @Test
+    public void prefetchTest() throws InterruptedException {
+        String link = "https://cdn.discordapp.com/attachments/647667357879107584/735884634818215936/p1Uoukq.jpeg";
+        inputQ.put(new MemeDBMsg3000().type(STORE_MEME).link(link).username("Zabory").tags(Arrays.asList("bread")));
+        assertEquals(SUBMIT_ACK, ((MemeDBMsg3000) outputQ.take()).getType());
+
+        // hot tag sets fetched outside of a channel are served from the buffer, which never outlives a demote
+        for(int i = 0; i < 20; i++){
+            inputQ.put(new MemeDBMsg3000().type(GET_MEME_TAGS).username("Zabory").tags(Arrays.asList("bread")));
+            MemeDBMsg3000 msg = (MemeDBMsg3000) outputQ.take();
+            assertEquals(MEME, msg.getType());
+            assertEquals(link, msg.getLink());
+        }
+        inputQ.put(new MemeDBMsg3000().type(DEMOTE_MEME).id(1));
+        assertEquals(REPLENISH_Q, ((MemeDBMsg3000) outputQ.take()).getType());
+        for(int i = 0; i < 5; i++){
+            inputQ.put(new MemeDBMsg3000().type(GET_MEME_TAGS).username("Zabory").tags(Arrays.asList("bread")));
+            assertEquals(ERROR, ((MemeDBMsg3000) outputQ.take()).getType());
+        }
+    }
+
+    /**
+     * Replaces the controller with one that deals channel fetches from shuffle decks, which are off by default
+     */
+    private void startWithDecks() throws InterruptedException {
+        inputQ.put(new MemeDBMsg3000().type(TERMINATE));
+        controller.join();
+        System.setProperty("deckChannels", "16");
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        try {
+            context.scan("app");
+            context.refresh();
+            controller = new MemeDBC3000(context.getBean(MemeConfigLoader3000.class), new MemeLogger3000(), inputQ, outputQ);
+        } finally {
+            System.clearProperty("deckChannels");
+            context.close();
+        }
+        controller.start();
+    }
+
+    @Test
+    public void shuffleDeckTest() throws InterruptedException {
+        startWithDecks();
+        String link = "https://cdn.discordapp.com/attachments/647667357879107584/735884634818215936/p1Uoukq";
+        for(int i = 0; i < 5; i++){
+            inputQ.put(new MemeDBMsg3000().type(STORE_MEME).link(link + i).username("Zabory").tags(Arrays.asList("bread")));
+            assertEquals(SUBMIT_ACK, ((MemeDBMsg3000) outputQ.take()).getType());
+        }
+
+        // every meme comes up once per round in a channel
+        for(int round = 0; round < 2; round++){
+            Set<String> seen = new HashSet<>();
+            for(int i = 0; i < 5; i++){
+                inputQ.put(new MemeDBMsg3000().type(GET_MEME_TAGS).username("Zabory").channelID(7L).tags(Arrays.asList("bread")));
+                MemeDBMsg3000 msg = (MemeDBMsg3000) outputQ.take();
+                assertEquals(MEME, msg.getType());
+                assertTrue(seen.add(msg.getLink()));
+            }
+        }
+    }
+
+    @Test
+    public void storedDealtTest() throws InterruptedException {
+        startWithDecks();
+        String link = "https://cdn.discordapp.com/attachments/647667357879107584/735884634818215936/p1Uoukq";
+        for(int i = 0; i < 3; i++){
+            inputQ.put(new MemeDBMsg3000().type(STORE_MEME).link(link + i).username("Zabory").tags(Arrays.asList("bread")));
+            assertEquals(SUBMIT_ACK, ((MemeDBMsg3000) outputQ.take()).getType());
+        }
+        inputQ.put(new MemeDBMsg3000().type(GET_MEME_TAGS).username("Zabory").channelID(7L).tags(Arrays.asList("bread")));
+        assertEquals(MEME, ((MemeDBMsg3000) outputQ.take()).getType());
+
+        // a meme stored while the deck is out is shuffled into what is left of it
+        inputQ.put(new MemeDBMsg3000().type(STORE_MEME).link(link + 3).username("Zabory").tags(Arrays.asList("bread")));
+        assertEquals(SUBMIT_ACK, ((MemeDBMsg3000) outputQ.take()).getType());
+        Set<String> dealt = new HashSet<>();
+        for(int i = 0; i < 3; i++){
+            inputQ.put(new MemeDBMsg3000().type(GET_MEME_TAGS).username("Zabory").channelID(7L).tags(Arrays.asList("bread")));
+            MemeDBMsg3000 msg = (MemeDBMsg3000) outputQ.take();
+            assertEquals(MEME, msg.getType());
+            assertTrue(dealt.add(msg.getLink()));
+        }
+        assertTrue(dealt.contains(link + 3));
+    }
+
+    @Test
+    public void storedPrefetchTest() throws InterruptedException {
+        inputQ.put(new MemeDBMsg3000().type(STORE_MEME).link("a").username("Zabory").tags(Arrays.asList("bread")));
+        assertEquals(SUBMIT_ACK, ((MemeDBMsg3000) outputQ.take()).getType());
+        for(int i = 0; i < 20; i++){
+            inputQ.put(new MemeDBMsg3000().type(GET_MEME_TAGS).username("Zabory").channelID(1L).tags(Arrays.asList("bread")));
+            assertEquals("a", ((MemeDBMsg3000) outputQ.take()).getLink());
+        }
+
+        // the buffer filled with the only meme is dropped once another one is stored
+        inputQ.put(new MemeDBMsg3000().type(STORE_MEME).link("b").username("Zabory").tags(Arrays.asList("bread")));
+        assertEquals(SUBMIT_ACK, ((MemeDBMsg3000) outputQ.take()).getType());
+        boolean seen = false;
+        for(int i = 0; i < 40 && !seen; i++){
+            inputQ.put(new MemeDBMsg3000().type(GET_MEME_TAGS).username("Zabory").channelID(1L).tags(Arrays.asList("bread")));
+            seen = "b".equals(((MemeDBMsg3000) outputQ.take()).getLink());
+        }
+        assertTrue(seen);
+    }
+
+    @Test
+    public void typoFetchTest() throws InterruptedException {
+        String link = "https://cdn.discordapp.com/attachments/647667357879107584/735884634818215936/p1Uoukq.jpeg";
+        inputQ.put(new MemeDBMsg3000().type(STORE_MEME).link(link).username("Zabory").tags(Arrays.asList("cats", "bread")));
+        assertEquals(SUBMIT_ACK, ((MemeDBMsg3000) outputQ.take()).getType());
+
+        inputQ.put(new MemeDBMsg3000().type(GET_MEME_TAGS).username("Zabory").channelID(1L).tags(Arrays.asList("catz", "brea")));
+        MemeDBMsg3000 msg = (MemeDBMsg3000) outputQ.take();
+        assertEquals(MEME, msg.getType());
+        assertEquals(link, msg.getLink());
+    }
+
+    @Test
+    public void queryFetchTest() throws InterruptedException {
+        inputQ.put(new MemeDBMsg3000().type(STORE_MEME).link("a").username("Zabory").tags(Arrays.asList("cats", "nsfw")));
+        assertEquals(SUBMIT_ACK, ((MemeDBMsg3000) outputQ.take()).getType());
+        inputQ.put(new MemeDBMsg3000().type(STORE_MEME).link("b").username("Zabory").tags(Arrays.asList("dogs")));
+        assertEquals(SUBMIT_ACK, ((MemeDBMsg3000) outputQ.take()).getType());
+
+        // the query's tags are resolved like a plain fetch's before it is evaluated
+        for(int i=0;i<10;i++){
+            MemeTagQuery3000 query = MemeTagQuery3000.parse("catz|dogz -nsfw");
+            inputQ.put(new MemeDBMsg3000().type(GET_MEME_TAGS).username("Zabory").channelID(1L).tags(query.getTags()).query(query));
+            MemeDBMsg3000 msg = (MemeDBMsg3000) outputQ.take();
+            assertEquals(MEME, msg.getType());
+            assertEquals("b", msg.getLink());
+        }
+
+        MemeTagQuery3000 query = MemeTagQuery3000.parse("cats -nsfw");
+        inputQ.put(new MemeDBMsg3000().type(GET_MEME_TAGS).username("Zabory").channelID(1L).tags(query.getTags()).query(query));
+        assertEquals(ERROR, ((MemeDBMsg3000) outputQ.take()).getType());
+    }
+
+    @Test
+    public void excludedNearMissTest() throws InterruptedException {
+        inputQ.put(new MemeDBMsg3000().type(STORE_MEME).link("a").username("Zabory").tags(Arrays.asList("cats", "nsfl")));
+        assertEquals(SUBMIT_ACK, ((MemeDBMsg3000) outputQ.take()).getType());
+
+        // no meme is nsfw, so excluding it must not exclude the nsfl meme one edit away
+        MemeTagQuery3000 query = MemeTagQuery3000.parse("cats -nsfw");
+        inputQ.put(new MemeDBMsg3000().type(GET_MEME_TAGS).username("Zabory").channelID(1L).tags(query.getTags()).query(query));
+        MemeDBMsg3000 msg = (MemeDBMsg3000) outputQ.take();
+        assertEquals(MEME, msg.getType());
+        assertEquals("a", msg.getLink());
+    }
+
+    @Test
+    public void curateErrorTest() throws InterruptedException {
+        // the reply names the call that failed, not whatever the engine did after it
+        inputQ.put(new MemeDBMsg3000().type(PROMOTE_MEME).id(7).username("Ziggy").tags(Arrays.asList("bread")));
+        MemeDBMsg3000 msg = (MemeDBMsg3000) outputQ.take();
+        assertEquals(ERROR, msg.getType());
+        assertEquals("Failed to find a meme with an ID of 7", msg.getMessage());
+    }
 }
@@ -0,0 +1,199 @@
+package database;
+
+import app.MemeConfigLoader3000;
+import datastructures.MemeDBMsg3000;
+import datastructures.MemeLogger3000;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static datastructures.MemeDBMsg3000.MsgDBType.*;
+import static org.junit.Assert.*;
+
+public class MemeDBRouter3000Test {
+    static MemeConfigLoader3000 config;
+    MemeDBRouter3000 router;
+    BlockingQueue<MemeDBMsg3000> inputQ;
+    BlockingQueue<MemeDBMsg3000> outputQ;
+
+    @BeforeClass
+    public static void construct(){
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.scan("app");
+        context.refresh();
+        config = context.getBean(MemeConfigLoader3000.class);
+        context.close();
+    }
+
+    @Before
+    public void before() throws IOException {
+        deleteShard("guildA");
+        deleteShard("guildB");
+        inputQ = new LinkedBlockingQueue<>(100);
+        outputQ = new LinkedBlockingQueue<>(100);
+        router = new MemeDBRouter3000(config, new MemeLogger3000(), inputQ, outputQ, Arrays.asList("guildA", " guildB ", ""));
+        router.start();
+    }
+
+    @After
+    public void after() throws InterruptedException, IOException {
+        inputQ.put(new MemeDBMsg3000().type(TERMINATE));
+        router.join();
+        deleteShard("guildA");
+        deleteShard("guildB");
+    }
+
+    /**
+     * Deletes the DB files of a shard
+     * @param key shard key
+     */
+    private void deleteShard(String key) throws IOException {
+        String location = config.shard(key).getDatabaseLocation();
+        for(String suffix : Arrays.asList("", "-wal", "-shm"))
+            Files.deleteIfExists(Paths.get(location + suffix));
+    }
+
+    @Test
+    public void shardLocationTest(){
+        assertEquals(config.getDatabaseLocation(), config.shard(null).getDatabaseLocation());
+        assertEquals("/tmp/memedb/test-guildA.db", config.shard("guildA").getDatabaseLocation());
+        assertEquals("/tmp/memedb/test-a_b.db", config.shard("a/b").getDatabaseLocation());
+    }
+
+    @Test
+    public void shardIsolationTest() throws InterruptedException {
+        String link = "https://cdn.discordapp.com/attachments/647667357879107584/735884634818215936/p1Uoukq.jpeg";
+
+        // the same link may be submitted once per shard, and IDs start over in each
+        for(String shard : Arrays.asList("guildA", "guildB")){
+            inputQ.put(new MemeDBMsg3000()
+                    .type(CACHE_MEME)
+                    .link(link)
+                    .username("Zabory")
+                    .tags(Arrays.asList("bread"))
+                    .shard(shard));
+            MemeDBMsg3000 msg = outputQ.take();
+            assertEquals(SUBMIT_ACK, msg.getType());
+            assertEquals((Integer) 1, msg.getId());
+            assertEquals(shard, msg.getShard());
+        }
+        assertEquals(Arrays.asList("", "guildA", "guildB"), router.getShardKeys());
+
+        inputQ.put(new MemeDBMsg3000().type(PROMOTE_MEME).id(1).username("Ziggy").tags(Arrays.asList("bread")).shard("guildA"));
+        assertEquals(CURATE_RESULT, outputQ.take().getType());
+
+        inputQ.put(new MemeDBMsg3000().type(GET_MEME_TAGS).username("Zabory").channelID(1L).tags(Arrays.asList("bread")).shard("guildA"));
+        MemeDBMsg3000 msg = outputQ.take();
+        assertEquals(MEME, msg.getType());
+        assertEquals(link, msg.getLink());
+
+        // the meme is still pending in the other shard
+        inputQ.put(new MemeDBMsg3000().type(GET_MEME_TAGS).username("Zabory").channelID(1L).tags(Arrays.asList("bread")).shard("guildB"));
+        assertEquals(ERROR, outputQ.take().getType());
+    }
+
+    @Test
+    public void unknownShardTest() throws InterruptedException {
+        // keys that are not configured stay in the default shard instead of opening a DB of their own
+        inputQ.put(new MemeDBMsg3000().type(CACHE_MEME).link("unknown-" + System.nanoTime()).username("Zabory").tags(Arrays.asList("bread")).shard("guildC"));
+        MemeDBMsg3000 msg = outputQ.take();
+        assertEquals(SUBMIT_ACK, msg.getType());
+        assertNull(msg.getShard());
+        assertEquals(Arrays.asList("", "guildA", "guildB"), router.getShardKeys());
+
+        inputQ.put(new MemeDBMsg3000().type(REJECT_MEME).id(msg.getId()).username("Ziggy"));
+        assertEquals(CURATE_RESULT, outputQ.take().getType());
+    }
+
+    @Test
+    public void curationShardTest() throws InterruptedException {
+        String linkA = "https://cdn.discordapp.com/attachments/1/1/a.jpeg";
+        String linkB = "https://cdn.discordapp.com/attachments/1/1/b.jpeg";
+
+        // both shards hand out ID 1, only the shard key tells the two pending memes apart
+        inputQ.put(new MemeDBMsg3000().type(CACHE_MEME).link(linkA).username("Zabory").tags(Arrays.asList("bread")).shard("guildA"));
+        MemeDBMsg3000 pendingA = outputQ.take();
+        inputQ.put(new MemeDBMsg3000().type(CACHE_MEME).link(linkB).username("Zabory").tags(Arrays.asList("bread")).shard("guildB"));
+        MemeDBMsg3000 pendingB = outputQ.take();
+        assertEquals(pendingA.getId(), pendingB.getId());
+
+        inputQ.put(new MemeDBMsg3000().type(PROMOTE_MEME).id(pendingA.getId()).username("Ziggy").tags(Arrays.asList("bread")).shard(pendingA.getShard()));
+        MemeDBMsg3000 msg = outputQ.take();
+        assertEquals(CURATE_RESULT, msg.getType());
+        assertEquals(linkA, msg.getLink());
+        assertEquals("guildA", msg.getShard());
+
+        inputQ.put(new MemeDBMsg3000().type(REJECT_MEME).id(pendingB.getId()).username("Ziggy").shard(pendingB.getShard()));
+        msg = outputQ.take();
+        assertEquals(CURATE_RESULT, msg.getType());
+        assertEquals(linkB, msg.getLink());
+        assertEquals("guildB", msg.getShard());
+
+        // the promoted meme is only in its own shard, the rejected one is gone from the other
+        inputQ.put(new MemeDBMsg3000().type(GET_MEME_TAGS).username("Zabory").channelID(1L).tags(Arrays.asList("bread")).shard("guildA"));
+        msg = outputQ.take();
+        assertEquals(MEME, msg.getType());
+        assertEquals(linkA, msg.getLink());
+        inputQ.put(new MemeDBMsg3000().type(GET_MEME_TAGS).username("Zabory").channelID(1L).tags(Arrays.asList("bread")).shard("guildB"));
+        assertEquals(ERROR, outputQ.take().getType());
+        inputQ.put(new MemeDBMsg3000().type(GET_MEME_ID).id(pendingB.getId()).shard("guildB"));
+        assertEquals(ERROR, outputQ.take().getType());
+    }
+
+    @Test
+    public void submitFetchTest() throws InterruptedException {
+        String linkA = "https://cdn.discordapp.com/attachments/1/1/a.jpeg";
+        String linkB = "https://cdn.discordapp.com/attachments/1/1/b.jpeg";
+
+        // a meme submitted for one guild is fetched there and nowhere else
+        inputQ.put(new MemeDBMsg3000().type(STORE_MEME).link(linkA).username("Ziggy").tags(Arrays.asList("bread")).shard("guildA"));
+        assertEquals(SUBMIT_ACK, outputQ.take().getType());
+        inputQ.put(new MemeDBMsg3000().type(STORE_MEME).link(linkB).username("Ziggy").tags(Arrays.asList("toast")).shard("guildB"));
+        assertEquals(SUBMIT_ACK, outputQ.take().getType());
+
+        inputQ.put(new MemeDBMsg3000().type(GET_MEME_TAGS).username("Zabory").channelID(1L).tags(Arrays.asList("bread")).shard("guildA"));
+        MemeDBMsg3000 msg = outputQ.take();
+        assertEquals(MEME, msg.getType());
+        assertEquals(linkA, msg.getLink());
+        assertEquals("guildA", msg.getShard());
+        inputQ.put(new MemeDBMsg3000().type(GET_MEME_TAGS).username("Zabory").channelID(1L).tags(Arrays.asList("toast")).shard("guildB"));
+        msg = outputQ.take();
+        assertEquals(MEME, msg.getType());
+        assertEquals(linkB, msg.getLink());
+        assertEquals("guildB", msg.getShard());
+
+        inputQ.put(new MemeDBMsg3000().type(GET_MEME_TAGS).username("Zabory").channelID(1L).tags(Arrays.asList("toast")).shard("guildA"));
+        assertEquals(ERROR, outputQ.take().getType());
+        inputQ.put(new MemeDBMsg3000().type(GET_MEME_TAGS).username("Zabory").channelID(1L).tags(Arrays.asList("bread")).shard("guildB"));
+        assertEquals(ERROR, outputQ.take().getType());
+    }
+
+    @Test
+    public void initializeOnceTest() throws InterruptedException {
+        inputQ.put(new MemeDBMsg3000().type(CACHE_MEME).link("a").username("Zabory").tags(Arrays.asList("bread")).shard("guildA"));
+        assertEquals(SUBMIT_ACK, outputQ.take().getType());
+
+        inputQ.put(new MemeDBMsg3000().type(INITIALIZE));
+        int acks = 0, replenished = 0;
+        for(MemeDBMsg3000 msg = outputQ.poll(5, TimeUnit.SECONDS); msg != null; msg = outputQ.poll(500, TimeUnit.MILLISECONDS)){
+            if(msg.getType() == INIT_ACK)
+                acks++;
+            if(msg.getType() == REPLENISH_Q){
+                assertEquals("guildA", msg.getShard());
+                replenished++;
+            }
+        }
+        assertEquals(1, acks);
+        assertEquals(1, replenished);
+    }
+}
@@ -0,0 +1,91 @@
+package database;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MemeFetchBuffer3000Test {
+    private static final List<String> TAGS = Arrays.asList("cat", "dog");
+
+    /**
+     * @return a buffer of up to 4 links for a tag set requested twice
+     */
+    private MemeFetchBuffer3000 hotBuffer() {
+        MemeFetchBuffer3000 buffer = new MemeFetchBuffer3000(2, 4, 2);
+        assertNull(buffer.take(TAGS));
+        assertFalse(buffer.startRefill(TAGS));
+        assertNull(buffer.take(Arrays.asList("dog", "cat", "dog")));
+        assertTrue(buffer.startRefill(TAGS));
+        return buffer;
+    }
+
+    @Test
+    public void refillTest() {
+        MemeFetchBuffer3000 buffer = hotBuffer();
+        // only one refill at a time
+        assertFalse(buffer.startRefill(TAGS));
+        long drawnAt = buffer.generation();
+        assertTrue(buffer.offer(TAGS, 1, "a", drawnAt));
+        assertTrue(buffer.offer(TAGS, 2, "b", drawnAt));
+        assertTrue(buffer.offer(TAGS, 3, "c", drawnAt));
+        assertFalse(buffer.offer(TAGS, 4, "d", drawnAt));
+        assertFalse(buffer.offer(TAGS, 5, "e", drawnAt));
+        buffer.refilled(TAGS);
+
+        // full, so no refill until half of it is served
+        assertFalse(buffer.startRefill(TAGS));
+        assertEquals("a", buffer.take(TAGS));
+        assertEquals("b", buffer.take(TAGS));
+        assertTrue(buffer.startRefill(TAGS));
+        assertEquals(2, buffer.getHits());
+        assertEquals(2, buffer.getMisses());
+    }
+
+    @Test
+    public void invalidationTest() {
+        MemeFetchBuffer3000 buffer = hotBuffer();
+        long drawnAt = buffer.generation();
+        buffer.offer(TAGS, 1, "a", drawnAt);
+        buffer.offer(TAGS, 2, "b", drawnAt);
+        buffer.offer(TAGS, 1, "a", drawnAt);
+
+        // a demoted meme is dropped wherever it was drawn
+        buffer.demoted(1);
+        assertEquals("b", buffer.take(TAGS));
+        assertNull(buffer.take(TAGS));
+
+        // draws started before the demote may hold it
+        assertFalse(buffer.offer(TAGS, 1, "a", drawnAt));
+        drawnAt = buffer.generation();
+        assertTrue(buffer.offer(TAGS, 2, "b", drawnAt));
+
+        // a promote without every tag of the set leaves it alone
+        buffer.promoted(Arrays.asList("cat"));
+        assertEquals("b", buffer.take(TAGS));
+        buffer.offer(TAGS, 2, "b", buffer.generation());
+        buffer.promoted(Arrays.asList("cat", "dog", "bird"));
+        assertNull(buffer.take(TAGS));
+    }
+
+    @Test
+    public void evictionTest() {
+        MemeFetchBuffer3000 buffer = hotBuffer();
+        for(String tag : Arrays.asList("a", "b")) {
+            buffer.take(Arrays.asList(tag));
+            buffer.take(Arrays.asList(tag));
+        }
+        // the two newer hot tag sets pushed out the first one
+        assertFalse(buffer.offer(TAGS, 1, "a", buffer.generation()));
+        assertTrue(buffer.offer(Arrays.asList("a"), 1, "a", buffer.generation()));
+    }
+
+    @Test
+    public void disabledTest() {
+        MemeFetchBuffer3000 buffer = new MemeFetchBuffer3000(0, 8, 1);
+        assertNull(buffer.take(TAGS));
+        assertFalse(buffer.startRefill(TAGS));
+    }
+}
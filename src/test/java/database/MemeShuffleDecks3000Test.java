@@ -0,0 +1,94 @@
+package database;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+public class MemeShuffleDecks3000Test {
+    private static final List<String> TAGS = Arrays.asList("cat");
+
+    /**
+     * @param decks the decks
+     * @param channel channel to deal in
+     * @param members current members
+     * @param count how many to deal
+     * @return the dealt IDs
+     */
+    private Set<Integer> deal(MemeShuffleDecks3000 decks, long channel, int[] members, int count) {
+        Set<Integer> dealt = new HashSet<>();
+        for(int i = 0; i < count; i++)
+            assertTrue(dealt.add(decks.deal(channel, TAGS, tags -> members.clone())));
+        return dealt;
+    }
+
+    @Test
+    public void noRepeatTest() {
+        MemeShuffleDecks3000 decks = new MemeShuffleDecks3000(4, 2);
+        int[] members = {1, 2, 3, 4, 5};
+        AtomicInteger shuffles = new AtomicInteger();
+        Function<List<String>, int[]> counted = tags -> {
+            shuffles.incrementAndGet();
+            return members.clone();
+        };
+
+        for(int round = 0; round < 3; round++) {
+            Set<Integer> dealt = new HashSet<>();
+            for(int i = 0; i < members.length; i++)
+                assertTrue(dealt.add(decks.deal(1L, TAGS, counted)));
+            assertEquals(5, dealt.size());
+        }
+        // one shuffle per round, every other deal comes straight from the deck
+        assertEquals(3, shuffles.get());
+        assertNull(decks.deal(2L, TAGS, tags -> new int[0]));
+    }
+
+    @Test
+    public void patchTest() {
+        MemeShuffleDecks3000 decks = new MemeShuffleDecks3000(4, 2);
+        int[] members = {1, 2, 3, 4};
+        Set<Integer> dealt = deal(decks, 1L, members, 2);
+
+        // a demoted meme is never dealt again, whether it was dealt already or not
+        int gone = dealt.iterator().next();
+        decks.demoted(gone);
+        int undealt = 1;
+        while(dealt.contains(undealt))
+            undealt++;
+        decks.demoted(undealt);
+        decks.promoted(9, Arrays.asList("cat", "dog"));
+        decks.promoted(10, Arrays.asList("dog"));
+
+        Set<Integer> rest = deal(decks, 1L, members, 2);
+        assertFalse(rest.contains(gone));
+        assertFalse(rest.contains(undealt));
+        assertTrue(rest.contains(9));
+        assertFalse(rest.contains(10));
+        rest.addAll(dealt);
+        assertEquals(4, rest.size());
+    }
+
+    @Test
+    public void evictionTest() {
+        MemeShuffleDecks3000 decks = new MemeShuffleDecks3000(2, 2);
+        int[] members = {1, 2, 3};
+        deal(decks, 1L, members, 1);
+        deal(decks, 2L, members, 1);
+        deal(decks, 3L, members, 1);
+        assertEquals(2, decks.size());
+
+        // channel 1 was idle the longest and starts over with a full deck
+        AtomicInteger shuffles = new AtomicInteger();
+        decks.deal(1L, TAGS, tags -> {
+            shuffles.incrementAndGet();
+            return members.clone();
+        });
+        assertEquals(1, shuffles.get());
+    }
+}
@@ -0,0 +1,83 @@
+package database;
+
+import app.MemeConfigLoader3000;
+import datastructures.MemeLogger3000;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares per-tag inserts against batched tag inserts for store, cache and promote.
+ * Runs against the test database and empties it afterwards, run with main rather than as a unit test.
+ */
+public class MemeTagWriteBenchmark3000 {
+    private static final int MEMES = 500;
+    private static final int TAGS = 12;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) {
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.scan("app");
+        context.refresh();
+        MemeConfigLoader3000 config = context.getBean(MemeConfigLoader3000.class);
+        context.close();
+
+        MemeLogger3000 logger = new MemeLogger3000("benchmark");
+        logger.setConsoleOutput(false);
+
+        List<String> tags = new ArrayList<>();
+        for(int i=0;i<TAGS;i++)
+            tags.add("tag" + i);
+
+        for(int round=1;round<=ROUNDS;round++) {
+            for(boolean batch : new boolean[]{false, true}) {
+                MemeDB3000 db = new MemeDB3000(config, logger);
+                db.setBatchTagWrites(batch);
+                db.open();
+
+                long start = System.nanoTime();
+                for(int i=0;i<MEMES;i++)
+                    db.store("bench", "store" + i, tags);
+                long stored = System.nanoTime();
+                for(int i=0;i<MEMES;i++)
+                    db.cache("bench", "cache" + i, tags);
+                long cached = System.nanoTime();
+                for(int i=0;i<MEMES;i++)
+                    db.promote(MEMES + i + 1, "bench", tags);
+                long promoted = System.nanoTime();
+
+                db.close();
+                clean(config);
+
+                System.out.println("Round " + round + (batch ? " batched " : " per-tag ") +
+                        "store: " + (stored - start) / 1000000 + "ms, " +
+                        "cache: " + (cached - stored) / 1000000 + "ms, " +
+                        "promote: " + (promoted - cached) / 1000000 + "ms " +
+                        "(" + MEMES + " memes x " + TAGS + " tags)");
+            }
+        }
+        logger.close();
+    }
+
+    /**
+     * Empties the tables between runs
+     * @param config the config object
+     */
+    private static void clean(MemeConfigLoader3000 config) {
+        try {
+            Connection conn = DriverManager.getConnection("jdbc:sqlite:" + config.getDatabaseLocation());
+            conn.createStatement().execute("DELETE FROM " + config.getMemeTableName());
+            conn.createStatement().execute("DELETE FROM " + config.getCacheTableName());
+            conn.createStatement().execute("DELETE FROM " + config.getTagLkpTableName());
+            conn.createStatement().execute("DELETE FROM " + config.getLinkLkpTableName());
+            conn.createStatement().execute("DELETE FROM " + config.getSeqTableName());
+            conn.close();
+        } catch (SQLException throwables) {
+            throwables.printStackTrace();
+        }
+    }
+}
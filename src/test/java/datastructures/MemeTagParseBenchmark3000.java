@@ -0,0 +1,62 @@
+package datastructures;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Compares the single pass tag parser against the split, set and replace chain the bot reader used before it.
+ * Run with main rather than as a unit test.
+ */
+public class MemeTagParseBenchmark3000 {
+    private static final int INPUTS = 1000;
+    private static final int PARSES = 200;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        String[] inputs = new String[INPUTS];
+        for(int i=0;i<INPUTS;i++) {
+            StringBuilder input = new StringBuilder();
+            // 1 to 12 tags with the clutter users type around them, and some repeats
+            for(int t=0;t<1 + i % 12;t++)
+                input.append(t > 0 ? " , " : "").append(t % 3 == 0 ? "\"" : "").append("Tag ").append((i + t) % 20).append(t % 4 == 0 ? "]" : "");
+            inputs[i] = input.toString();
+        }
+
+        long sink = 0;
+        for(int round=1;round<=ROUNDS;round++) {
+            long start = System.nanoTime();
+            for(int p=0;p<PARSES;p++) {
+                for(String input : inputs)
+                    sink += legacy(input).size();
+            }
+            long legacy = System.nanoTime();
+            for(int p=0;p<PARSES;p++) {
+                for(String input : inputs)
+                    sink += MemeTagParser3000.parse(input).size();
+            }
+            long parser = System.nanoTime();
+
+            System.out.println("Round " + round +
+                    " legacy: " + (legacy - start) / (PARSES * INPUTS) + "ns/parse, " +
+                    "parser: " + (parser - legacy) / (PARSES * INPUTS) + "ns/parse " +
+                    "(" + PARSES * INPUTS + " parses)");
+        }
+        System.out.println("Checksum " + sink);
+    }
+
+    /**
+     * The tag handling of the approve and submitMeme branches before the parser
+     * @param body comma separated tags
+     * @return the tags
+     */
+    private static List<String> legacy(String body) {
+        LinkedList<String> tags = new LinkedList<String>(new HashSet<String>(Arrays.asList(body.split("\\s*,\\s*"))));
+        LinkedList<String> finalTags = tags;
+        tags.forEach(e -> {
+            finalTags.set(finalTags.indexOf(e), e.trim().replace("\"", "").replace(";", "").replace("[", "").replace("]", ""));
+        });
+        return new LinkedList<String>(tags);
+    }
+}
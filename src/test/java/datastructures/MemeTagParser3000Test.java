@@ -0,0 +1,36 @@
+package datastructures;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class MemeTagParser3000Test {
+
+    @Test
+    public void parseTest() {
+        assertEquals(Arrays.asList("funny cat", "spider-man", "dog"),
+                MemeTagParser3000.parse(" \"Funny Cat\" , spider-man;,[dog], DOG ,dog"));
+        assertEquals(Arrays.asList("a  b"), MemeTagParser3000.parse("\" a  b \""));
+        assertEquals(Arrays.asList("cat"), MemeTagParser3000.parse("\tcat\n"));
+    }
+
+    @Test
+    public void emptyTest() {
+        assertEquals(Collections.emptyList(), MemeTagParser3000.parse(null));
+        assertEquals(Collections.emptyList(), MemeTagParser3000.parse(""));
+        assertEquals(Collections.emptyList(), MemeTagParser3000.parse(" , [ ] ,; \"\" ,"));
+        assertEquals(Arrays.asList("a", "b"), MemeTagParser3000.parse(",a,,b,"));
+    }
+
+    @Test
+    public void lowercaseTest() {
+        String lower = "funny cat";
+        assertSame(lower, MemeTagParser3000.lowercase(lower));
+        assertEquals("funny cat", MemeTagParser3000.lowercase("Funny CAT"));
+        // the same tag parse would store
+        assertEquals(MemeTagParser3000.parse("B\u00c9\u00c5KS").get(0), MemeTagParser3000.lowercase("B\u00c9\u00c5KS"));
+    }
+}
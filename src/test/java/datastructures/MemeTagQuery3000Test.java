@@ -0,0 +1,58 @@
+package datastructures;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class MemeTagQuery3000Test {
+
+    @Test
+    public void parseTest() {
+        MemeTagQuery3000 query = MemeTagQuery3000.parse("cat|dog -nsfw");
+        assertEquals(MemeTagQuery3000.Op.AND, query.getOp());
+        assertEquals("cat|dog, -nsfw", query.toString());
+        assertEquals(Arrays.asList("cat", "dog", "nsfw"), query.getTags());
+        assertFalse(query.isConjunction());
+
+        // - binds tighter than |, which binds tighter than commas
+        assertEquals("-(a|b), c|-d", MemeTagQuery3000.parse(" -( a | b ),c|-d").toString());
+        assertEquals("a, b, c", MemeTagQuery3000.parse("a, (b, c)").toString());
+        assertEquals("a", MemeTagQuery3000.parse("--a").toString());
+    }
+
+    @Test
+    public void plainTagsTest() {
+        // the tags of a plain fetch come out as they always did, with spaces and dashes inside a tag kept
+        MemeTagQuery3000 query = MemeTagQuery3000.parse(" \"funny cat\" , spider-man;,[dog], dog");
+        assertTrue(query.isConjunction());
+        assertEquals(Arrays.asList("funny cat", "spider-man", "dog"), query.getTags());
+        assertTrue(MemeTagQuery3000.parse("bread").isConjunction());
+        assertEquals("cat|dog, -nsfw", MemeTagQuery3000.parse("Cat|DOG -NSFW").toString());
+    }
+
+    @Test
+    public void lenientTest() {
+        assertTrue(MemeTagQuery3000.parse("").isEmpty());
+        assertTrue(MemeTagQuery3000.parse(" , ( ) - |").isEmpty());
+        assertEquals("a|b, c", MemeTagQuery3000.parse("(a||b, c").toString());
+        assertEquals("a, b", MemeTagQuery3000.parse("a) b").toString());
+    }
+
+    @Test
+    public void renameTest() {
+        MemeTagQuery3000 query = MemeTagQuery3000.parse("catz|dog -nsfw");
+        MemeTagQuery3000 renamed = query.rename(tag -> tag.equals("catz") ? "cats" : tag);
+        assertEquals(MemeTagQuery3000.parse("cats|dog, -nsfw"), renamed);
+        assertEquals("catz|dog, -nsfw", query.toString());
+    }
+
+    @Test
+    public void renameIncludedTest() {
+        MemeTagQuery3000 query = MemeTagQuery3000.parse("catz|dog -nsfq, -(catz|memes)");
+        assertEquals(Arrays.asList("catz", "dog"), query.getIncludedTags());
+        MemeTagQuery3000 renamed = query.renameIncluded(tag -> tag + "s");
+        assertEquals(MemeTagQuery3000.parse("catzs|dogs -nsfq, -(catz|memes)"), renamed);
+    }
+}